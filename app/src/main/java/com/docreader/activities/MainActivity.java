@@ -161,8 +161,16 @@ public class MainActivity extends AppCompatActivity implements RecentFilesAdapte
                 return;
             }
 
-            // Copy to temp file for processing
-            File tempFile = FileUtils.copyToTempFile(this, uri, fileName);
+            File tempFile;
+            Uri sourceUri = null;
+            if (FileUtils.isPdf(fileName)) {
+                // PDFs render straight from the URI; the viewer copies the file in the background
+                tempFile = new File(getCacheDir(), fileName);
+                sourceUri = uri;
+            } else {
+                // Copy to temp file for processing
+                tempFile = FileUtils.copyToTempFile(this, uri, fileName);
+            }
 
             // Add to recent files
             RecentFile recentFile = new RecentFile(
@@ -174,7 +182,7 @@ public class MainActivity extends AppCompatActivity implements RecentFilesAdapte
             prefsManager.addRecentFile(recentFile);
 
             // Open appropriate viewer
-            openDocument(tempFile.getAbsolutePath(), fileName);
+            openDocument(tempFile.getAbsolutePath(), fileName, sourceUri);
 
         } catch (Exception e) {
             e.printStackTrace();
@@ -183,6 +191,10 @@ public class MainActivity extends AppCompatActivity implements RecentFilesAdapte
     }
 
     private void openDocument(String path, String fileName) {
+        openDocument(path, fileName, null);
+    }
+
+    private void openDocument(String path, String fileName, Uri sourceUri) {
         Intent intent;
         if (FileUtils.isPdf(fileName)) {
             intent = new Intent(this, PdfViewerActivity.class);
@@ -191,6 +203,9 @@ public class MainActivity extends AppCompatActivity implements RecentFilesAdapte
         }
         intent.putExtra("file_path", path);
         intent.putExtra("file_name", fileName);
+        if (sourceUri != null) {
+            intent.putExtra("file_uri", sourceUri.toString());
+        }
         startActivity(intent);
     }
 
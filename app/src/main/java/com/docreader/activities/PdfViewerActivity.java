@@ -19,6 +19,8 @@ import android.widget.EditText;
 import android.widget.ImageButton;
 import android.widget.ImageView;
 import android.widget.LinearLayout;
+import android.widget.ProgressBar;
+import android.widget.TextView;
 import android.widget.Toast;
 
 import androidx.annotation.NonNull;
@@ -32,12 +34,20 @@ import androidx.core.content.FileProvider;
 import com.docreader.R;
 import com.docreader.databinding.ActivityPdfViewerBinding;
 import com.docreader.databinding.BottomSheetPdfEditorBinding;
+import com.docreader.models.InkStroke;
 import com.docreader.models.Note;
+import com.docreader.utils.DocumentOperationExecutor;
 import com.docreader.utils.FileUtils;
 import com.docreader.utils.NotesManager;
+import com.docreader.utils.PageSet;
 import com.docreader.utils.PdfEditManager;
+import com.docreader.utils.PdfJob;
+import com.docreader.utils.PdfMetadataCache;
+import com.docreader.utils.PdfNativeAnnotations;
 import com.docreader.utils.PdfPageManager;
+import com.docreader.utils.PdfStampEngine;
 import com.docreader.utils.PdfToWordConverter;
+import com.docreader.utils.PreferencesManager;
 import com.docreader.views.DrawingView;
 import com.google.android.material.bottomsheet.BottomSheetDialog;
 import com.itextpdf.kernel.geom.PageSize;
@@ -49,8 +59,10 @@ import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Collections;
 import java.util.Date;
+import java.util.HashMap;
 import java.util.List;
 import java.util.Locale;
+import java.util.Map;
 
 /**
  * Activity for viewing and editing PDF documents.
@@ -62,6 +74,7 @@ public class PdfViewerActivity extends AppCompatActivity {
     private static final int REQUEST_PICK_IMAGE = 101;
     private static final int REQUEST_PICK_PDF_MERGE = 102;
     private static final int REQUEST_SIGNATURE = 103;
+    private static final int JOB_PROGRESS_MAX = 1000;
 
     private ActivityPdfViewerBinding binding;
     private String filePath;
@@ -70,6 +83,7 @@ public class PdfViewerActivity extends AppCompatActivity {
     private int currentPage = 0;
     private float currentZoom = 1.0f;
     private NotesManager notesManager;
+    private PreferencesManager prefsManager;
 
     private PdfRenderer pdfRenderer;
     private ParcelFileDescriptor fileDescriptor;
@@ -85,6 +99,12 @@ public class PdfViewerActivity extends AppCompatActivity {
     // Merge PDFs
     private List<String> pdfsToMerge = new ArrayList<>();
 
+    // Editing is paused while a save runs, so clearing afterwards drops only what was saved
+    private boolean saving;
+
+    // Progress dialog of each running job
+    private final Map<PdfJob, AlertDialog> jobDialogs = new HashMap<>();
+
     @Override
     protected void onCreate(Bundle savedInstanceState) {
         super.onCreate(savedInstanceState);
@@ -101,14 +121,33 @@ public class PdfViewerActivity extends AppCompatActivity {
         }
 
         notesManager = new NotesManager(this);
-        pdfEditManager = new PdfEditManager(this, filePath);
+        prefsManager = new PreferencesManager(this);
         pdfPageManager = new PdfPageManager(this, filePath);
 
         setupToolbar();
         setupControls();
         setupSearch();
         setupEditToolbar();
-        loadPdf();
+
+        String sourceUri = getIntent().getStringExtra("file_uri");
+        if (sourceUri != null) {
+            // The editor's journal belongs to the local copy, which is only complete after the import
+            loadPdfFromUri(Uri.parse(sourceUri));
+        } else {
+            openEditor();
+            loadPdf();
+        }
+    }
+
+    /**
+     * Create the edit manager for filePath, restoring any journaled annotations into the editor
+     */
+    private void openEditor() {
+        pdfEditManager = new PdfEditManager(this, filePath);
+        if (pdfEditManager.hasChanges()) {
+            Toast.makeText(this, "Restored unsaved annotations", Toast.LENGTH_SHORT).show();
+        }
+        loadEditorInk();
     }
 
     private void setupToolbar() {
@@ -143,9 +182,22 @@ public class PdfViewerActivity extends AppCompatActivity {
 
     private void setupEditToolbar() {
         binding.btnPen.setOnClickListener(v -> selectTool(DrawingView.Tool.PEN, binding.btnPen));
+        binding.btnPen.setOnLongClickListener(v -> {
+            boolean snap = !binding.drawingView.isShapeRecognition();
+            binding.drawingView.setShapeRecognition(snap);
+            prefsManager.setSnapShapes(snap);
+            Toast.makeText(this, snap ? "Shape snapping on: lines, boxes, ellipses and arrows"
+                    : "Shape snapping off", Toast.LENGTH_SHORT).show();
+            return true;
+        });
         binding.btnHighlighter.setOnClickListener(v -> selectTool(DrawingView.Tool.HIGHLIGHTER, binding.btnHighlighter));
         binding.btnText.setOnClickListener(v -> selectTool(DrawingView.Tool.TEXT, binding.btnText));
         binding.btnEraser.setOnClickListener(v -> selectTool(DrawingView.Tool.ERASER, binding.btnEraser));
+        binding.btnEraser.setOnLongClickListener(v -> {
+            selectTool(DrawingView.Tool.STROKE_ERASER, binding.btnEraser);
+            Toast.makeText(this, "Stroke eraser: removes whole strokes", Toast.LENGTH_SHORT).show();
+            return true;
+        });
 
         binding.btnColorRed.setOnClickListener(v -> selectColor(Color.RED, binding.btnColorRed));
         binding.btnColorBlue.setOnClickListener(v -> selectColor(Color.parseColor("#2196F3"), binding.btnColorBlue));
@@ -158,12 +210,25 @@ public class PdfViewerActivity extends AppCompatActivity {
             new AlertDialog.Builder(this)
                     .setTitle("Clear All")
                     .setMessage("Clear all drawings on this page?")
-                    .setPositiveButton("Clear", (dialog, which) -> binding.drawingView.clearAll())
+                    .setPositiveButton("Clear", (dialog, which) -> binding.drawingView.clearPage())
                     .setNegativeButton("Cancel", null)
                     .show();
         });
 
         binding.drawingView.setOnTextPlacementListener((x, y) -> showAddTextDialog(x, y));
+        // Ink is journaled as it is drawn, not only when the document is saved
+        binding.drawingView.setOnInkChangeListener(new DrawingView.OnInkChangeListener() {
+            @Override
+            public void onStrokesInserted(int pageIndex, int[] positions, List<InkStroke> strokes) {
+                pdfEditManager.insertStrokes(pageIndex, positions, strokes);
+            }
+
+            @Override
+            public void onStrokesRemoved(int pageIndex, int[] positions) {
+                pdfEditManager.removeStrokes(pageIndex, positions);
+            }
+        });
+        binding.drawingView.setShapeRecognition(prefsManager.isSnapShapes());
         binding.btnColorRed.setSelected(true);
     }
 
@@ -203,6 +268,7 @@ public class PdfViewerActivity extends AppCompatActivity {
             totalPages = pdfRenderer.getPageCount();
 
             renderAllPages();
+            prefetchMetadata();
 
             binding.progressBar.setVisibility(View.GONE);
             updatePageInfo();
@@ -213,6 +279,96 @@ public class PdfViewerActivity extends AppCompatActivity {
         }
     }
 
+    /**
+     * Fast path for PDFs opened from a content URI.
+     * PdfRenderer reads lazily from any seekable descriptor, so rendering from the provider's shows
+     * the first page before the rest of the file is read, while the file is copied to filePath for
+     * editing. Every other operation on the document is queued behind the copy.
+     */
+    private void loadPdfFromUri(Uri uri) {
+        binding.progressBar.setVisibility(View.VISIBLE);
+
+        runDocumentOperation(DocumentOperationExecutor.Priority.INTERACTIVE, "import", () -> {
+            try {
+                FileUtils.copyToTempFile(this, uri, new File(filePath).getName());
+
+                runOnUiThread(() -> {
+                    openEditor();
+                    if (pdfRenderer == null) {
+                        loadPdf();
+                    } else {
+                        binding.progressBar.setVisibility(View.GONE);
+                        prefetchMetadata();
+                    }
+                });
+
+            } catch (Exception e) {
+                runOnUiThread(() -> {
+                    Toast.makeText(this, "Error loading PDF: " + e.getMessage(), Toast.LENGTH_SHORT).show();
+                    finish();
+                });
+            }
+        });
+
+        try {
+            fileDescriptor = getContentResolver().openFileDescriptor(uri, "r");
+            if (fileDescriptor == null) {
+                return;
+            }
+            pdfRenderer = new PdfRenderer(fileDescriptor);
+            totalPages = pdfRenderer.getPageCount();
+
+            renderFirstPageThenRest();
+            updatePageInfo();
+
+        } catch (IOException | SecurityException | IllegalArgumentException e) {
+            // Descriptor isn't seekable; render from the copy once it is done
+            pdfRenderer = null;
+            if (fileDescriptor != null) {
+                try {
+                    fileDescriptor.close();
+                } catch (IOException ignored) {
+                }
+                fileDescriptor = null;
+            }
+        }
+    }
+
+    /**
+     * Switch to the file a page operation wrote. Unsaved annotations belong to the current file's
+     * pages and are not carried over; they stay journaled with it, so the user is asked first.
+     * @param message Shown once the file is open, or null
+     */
+    private void openChangedPdf(String newPath, String message) {
+        openChangedPdf(newPath, currentPage, message);
+    }
+
+    /**
+     * @param page Page to show in the changed file
+     */
+    private void openChangedPdf(String newPath, int page, String message) {
+        Runnable open = () -> {
+            filePath = newPath;
+            currentPage = page;
+            reloadPdf();
+            if (message != null) {
+                Toast.makeText(this, message, Toast.LENGTH_SHORT).show();
+            }
+        };
+        if (!binding.drawingView.hasEdits() && (pdfEditManager == null || !pdfEditManager.hasChanges())) {
+            open.run();
+            return;
+        }
+        new AlertDialog.Builder(this)
+                .setTitle("Unsaved Annotations")
+                .setMessage("Your unsaved annotations are not carried over to the changed document. "
+                        + "They stay with this one until you save it.\n\nThe changed document was saved to:\n"
+                        + newPath)
+                .setPositiveButton("Open Changed", (dialog, which) -> open.run())
+                .setNegativeButton("Stay Here", null)
+                .show();
+    }
+
     private void reloadPdf() {
         try {
             if (pdfRenderer != null) {
@@ -240,9 +396,15 @@ public class PdfViewerActivity extends AppCompatActivity {
             }
 
             pdfPageManager.setPdfPath(filePath);
-            pdfEditManager = new PdfEditManager(this, filePath);
+            if (pdfEditManager != null) {
+                pdfEditManager.close();
+            }
+            // Page indices may have changed, so per-page ink no longer lines up
+            binding.drawingView.clearAll();
+            openEditor();
 
             renderAllPages();
+            prefetchMetadata();
             updatePageInfo();
 
         } catch (IOException e) {
@@ -250,7 +412,48 @@ public class PdfViewerActivity extends AppCompatActivity {
         }
     }
 
+    /**
+     * Parse the document's metadata in the background once it is open, so page operations find
+     * it cached. PdfRenderer does not expose it, so this is a separate parse.
+     */
+    private void prefetchMetadata() {
+        String path = filePath;
+        runDocumentOperation(DocumentOperationExecutor.Priority.BATCH, "metadata", () -> {
+            try {
+                PdfMetadataCache.getInstance().get(path);
+            } catch (IOException e) {
+                e.printStackTrace();
+            }
+        });
+    }
+
     private void renderAllPages() {
+        createPageViews();
+        for (int i = 0; i < totalPages; i++) {
+            renderPage(i);
+        }
+    }
+
+    /**
+     * Render the first page immediately and the remaining pages one per frame afterwards
+     */
+    private void renderFirstPageThenRest() {
+        createPageViews();
+        renderPage(0);
+        renderRemainingPages(1);
+    }
+
+    private void renderRemainingPages(int fromPage) {
+        if (fromPage >= totalPages) {
+            return;
+        }
+        binding.pagesContainer.post(() -> {
+            renderPage(fromPage);
+            renderRemainingPages(fromPage + 1);
+        });
+    }
+
+    private void createPageViews() {
         binding.pagesContainer.removeAllViews();
         pageViews.clear();
 
@@ -273,8 +476,6 @@ public class PdfViewerActivity extends AppCompatActivity {
 
             binding.pagesContainer.addView(imageView);
             pageViews.add(imageView);
-
-            renderPage(i);
         }
     }
 
@@ -399,18 +600,16 @@ public class PdfViewerActivity extends AppCompatActivity {
     }
 
     private void deleteCurrentPage() {
+        int pageNumber = currentPage + 1;
         binding.progressBar.setVisibility(View.VISIBLE);
 
-        new Thread(() -> {
+        runDocumentOperation(DocumentOperationExecutor.Priority.INTERACTIVE, "delete:" + pageNumber, () -> {
             try {
-                List<Integer> pagesToDelete = Collections.singletonList(currentPage + 1);
-                String newPath = pdfPageManager.deletePages(pagesToDelete);
+                String newPath = pdfPageManager.deletePages(PageSet.of(pageNumber));
 
                 runOnUiThread(() -> {
                     binding.progressBar.setVisibility(View.GONE);
-                    filePath = newPath;
-                    reloadPdf();
-                    Toast.makeText(this, "Page deleted", Toast.LENGTH_SHORT).show();
+                    openChangedPdf(newPath, "Page deleted");
                 });
 
             } catch (IOException e) {
@@ -419,7 +618,7 @@ public class PdfViewerActivity extends AppCompatActivity {
                     Toast.makeText(this, "Error: " + e.getMessage(), Toast.LENGTH_SHORT).show();
                 });
             }
-        }).start();
+        });
     }
 
     private void showRotatePageDialog() {
@@ -444,45 +643,41 @@ public class PdfViewerActivity extends AppCompatActivity {
     }
 
     private void rotatePage(int degrees, boolean allPages) {
+        int pageNumber = currentPage + 1;
+        PdfJob job = allPages ? startJobWithProgress("Rotating Pages") : new PdfJob();
         binding.progressBar.setVisibility(View.VISIBLE);
 
-        new Thread(() -> {
+        runDocumentOperation(DocumentOperationExecutor.Priority.INTERACTIVE, "rotate:" + degrees + ":" + (allPages ? "all" : pageNumber), job, () -> {
             try {
                 String newPath;
                 if (allPages) {
-                    newPath = pdfPageManager.rotateAllPages(degrees);
+                    newPath = pdfPageManager.rotateAllPages(degrees, job);
                 } else {
-                    newPath = pdfPageManager.rotatePages(Collections.singletonList(currentPage + 1), degrees);
+                    newPath = pdfPageManager.rotatePages(PageSet.of(pageNumber), degrees);
                 }
 
                 runOnUiThread(() -> {
-                    binding.progressBar.setVisibility(View.GONE);
-                    filePath = newPath;
-                    reloadPdf();
-                    Toast.makeText(this, "Page rotated", Toast.LENGTH_SHORT).show();
+                    finishJob(job);
+                    openChangedPdf(newPath, "Page rotated");
                 });
 
             } catch (IOException e) {
-                runOnUiThread(() -> {
-                    binding.progressBar.setVisibility(View.GONE);
-                    Toast.makeText(this, "Error: " + e.getMessage(), Toast.LENGTH_SHORT).show();
-                });
+                runOnUiThread(() -> showJobError(job, e));
             }
-        }).start();
+        });
     }
 
     private void duplicateCurrentPage() {
+        int pageNumber = currentPage + 1;
         binding.progressBar.setVisibility(View.VISIBLE);
 
-        new Thread(() -> {
+        runDocumentOperation(DocumentOperationExecutor.Priority.INTERACTIVE, "duplicate:" + pageNumber, () -> {
             try {
-                String newPath = pdfPageManager.duplicatePage(currentPage + 1);
+                String newPath = pdfPageManager.duplicatePage(pageNumber);
 
                 runOnUiThread(() -> {
                     binding.progressBar.setVisibility(View.GONE);
-                    filePath = newPath;
-                    reloadPdf();
-                    Toast.makeText(this, "Page duplicated", Toast.LENGTH_SHORT).show();
+                    openChangedPdf(newPath, "Page duplicated");
                 });
 
             } catch (IOException e) {
@@ -491,7 +686,7 @@ public class PdfViewerActivity extends AppCompatActivity {
                     Toast.makeText(this, "Error: " + e.getMessage(), Toast.LENGTH_SHORT).show();
                 });
             }
-        }).start();
+        });
     }
 
     private void showExtractPagesDialog() {
@@ -512,7 +707,7 @@ public class PdfViewerActivity extends AppCompatActivity {
     }
 
     private void extractPages(String pageSpec) {
-        List<Integer> pages = parsePageSpec(pageSpec);
+        PageSet pages = parsePageSpec(pageSpec);
         if (pages.isEmpty()) {
             Toast.makeText(this, "Invalid page specification", Toast.LENGTH_SHORT).show();
             return;
@@ -520,7 +715,7 @@ public class PdfViewerActivity extends AppCompatActivity {
 
         binding.progressBar.setVisibility(View.VISIBLE);
 
-        new Thread(() -> {
+        runDocumentOperation(DocumentOperationExecutor.Priority.INTERACTIVE, "extract:" + pages, () -> {
             try {
                 String newPath = pdfPageManager.extractPages(pages);
 
@@ -535,7 +730,7 @@ public class PdfViewerActivity extends AppCompatActivity {
                     Toast.makeText(this, "Error: " + e.getMessage(), Toast.LENGTH_SHORT).show();
                 });
             }
-        }).start();
+        });
     }
 
     private void showAddBlankPageDialog() {
@@ -558,15 +753,13 @@ public class PdfViewerActivity extends AppCompatActivity {
     private void addBlankPage(int afterPage) {
         binding.progressBar.setVisibility(View.VISIBLE);
 
-        new Thread(() -> {
+        runDocumentOperation(DocumentOperationExecutor.Priority.INTERACTIVE, "blank:" + afterPage, () -> {
             try {
                 String newPath = pdfPageManager.addBlankPage(afterPage, PageSize.A4);
 
                 runOnUiThread(() -> {
                     binding.progressBar.setVisibility(View.GONE);
-                    filePath = newPath;
-                    reloadPdf();
-                    Toast.makeText(this, "Blank page added", Toast.LENGTH_SHORT).show();
+                    openChangedPdf(newPath, "Blank page added");
                 });
 
             } catch (IOException e) {
@@ -575,7 +768,7 @@ public class PdfViewerActivity extends AppCompatActivity {
                     Toast.makeText(this, "Error: " + e.getMessage(), Toast.LENGTH_SHORT).show();
                 });
             }
-        }).start();
+        });
     }
 
     private void showReorderPagesDialog() {
@@ -600,7 +793,7 @@ public class PdfViewerActivity extends AppCompatActivity {
     }
 
     private void reorderPages(String orderSpec) {
-        List<Integer> newOrder = parsePageSpec(orderSpec);
+        PageSet newOrder = parsePageSpec(orderSpec);
         if (newOrder.isEmpty()) {
             Toast.makeText(this, "Invalid page order", Toast.LENGTH_SHORT).show();
             return;
@@ -608,16 +801,13 @@ public class PdfViewerActivity extends AppCompatActivity {
 
         binding.progressBar.setVisibility(View.VISIBLE);
 
-        new Thread(() -> {
+        runDocumentOperation(DocumentOperationExecutor.Priority.INTERACTIVE, "reorder:" + newOrder, () -> {
             try {
                 String newPath = pdfPageManager.reorderPages(newOrder);
 
                 runOnUiThread(() -> {
                     binding.progressBar.setVisibility(View.GONE);
-                    filePath = newPath;
-                    currentPage = 0;
-                    reloadPdf();
-                    Toast.makeText(this, "Pages reordered", Toast.LENGTH_SHORT).show();
+                    openChangedPdf(newPath, 0, "Pages reordered");
                 });
 
             } catch (IOException e) {
@@ -626,18 +816,19 @@ public class PdfViewerActivity extends AppCompatActivity {
                     Toast.makeText(this, "Error: " + e.getMessage(), Toast.LENGTH_SHORT).show();
                 });
             }
-        }).start();
+        });
     }
 
     private void splitPdfIntoPages() {
+        PdfJob job = startJobWithProgress("Splitting PDF");
         binding.progressBar.setVisibility(View.VISIBLE);
 
-        new Thread(() -> {
+        runDocumentOperation(DocumentOperationExecutor.Priority.BATCH, "split", job, () -> {
             try {
-                List<String> paths = pdfPageManager.splitAllPages();
+                List<String> paths = pdfPageManager.splitAllPages(job);
 
                 runOnUiThread(() -> {
-                    binding.progressBar.setVisibility(View.GONE);
+                    finishJob(job);
                     new AlertDialog.Builder(this)
                             .setTitle("PDF Split")
                             .setMessage("PDF split into " + paths.size() + " files.\n\nSaved to Documents folder.")
@@ -646,20 +837,18 @@ public class PdfViewerActivity extends AppCompatActivity {
                 });
 
             } catch (IOException e) {
-                runOnUiThread(() -> {
-                    binding.progressBar.setVisibility(View.GONE);
-                    Toast.makeText(this, "Error: " + e.getMessage(), Toast.LENGTH_SHORT).show();
-                });
+                runOnUiThread(() -> showJobError(job, e));
             }
-        }).start();
+        });
     }
 
     private void compressPdf() {
+        PdfJob job = startJobWithProgress("Compressing PDF");
         binding.progressBar.setVisibility(View.VISIBLE);
 
-        new Thread(() -> {
+        runDocumentOperation(DocumentOperationExecutor.Priority.BATCH, "compress", job, () -> {
             try {
-                String newPath = pdfPageManager.compressPdf();
+                String newPath = pdfPageManager.compressPdf(job);
 
                 File originalFile = new File(filePath);
                 File compressedFile = new File(newPath);
@@ -668,7 +857,7 @@ public class PdfViewerActivity extends AppCompatActivity {
                 long compressedSize = compressedFile.length();
 
                 runOnUiThread(() -> {
-                    binding.progressBar.setVisibility(View.GONE);
+                    finishJob(job);
                     String message = String.format("Original: %.2f KB\nCompressed: %.2f KB\n\nSaved to:\n%s",
                             originalSize / 1024.0, compressedSize / 1024.0, newPath);
 
@@ -676,26 +865,21 @@ public class PdfViewerActivity extends AppCompatActivity {
                             .setTitle("PDF Compressed")
                             .setMessage(message)
                             .setPositiveButton("OK", null)
-                            .setNeutralButton("Use This", (d, w) -> {
-                                filePath = newPath;
-                                reloadPdf();
-                            })
+                            .setNeutralButton("Use This", (d, w) -> openChangedPdf(newPath, null))
                             .show();
                 });
 
             } catch (IOException e) {
-                runOnUiThread(() -> {
-                    binding.progressBar.setVisibility(View.GONE);
-                    Toast.makeText(this, "Error: " + e.getMessage(), Toast.LENGTH_SHORT).show();
-                });
+                runOnUiThread(() -> showJobError(job, e));
             }
-        }).start();
+        });
     }
 
     // ==================== CONTENT OPERATIONS ====================
 
     private void pickImageToAdd() {
         Intent intent = new Intent(Intent.ACTION_PICK, MediaStore.Images.Media.EXTERNAL_CONTENT_URI);
+        intent.putExtra(Intent.EXTRA_ALLOW_MULTIPLE, true);
         startActivityForResult(intent, REQUEST_PICK_IMAGE);
     }
 
@@ -715,22 +899,21 @@ public class PdfViewerActivity extends AppCompatActivity {
     }
 
     private void addImageAsNewPage(Uri imageUri) {
+        int afterPage = currentPage + 1;
         binding.progressBar.setVisibility(View.VISIBLE);
 
-        new Thread(() -> {
+        runDocumentOperation(DocumentOperationExecutor.Priority.INTERACTIVE, null, () -> {
             try {
                 String imagePath = FileUtils.getPathFromUri(this, imageUri);
                 if (imagePath == null) {
                     throw new IOException("Cannot access image file");
                 }
 
-                String newPath = pdfPageManager.addImageAsPage(imagePath, currentPage + 1);
+                String newPath = pdfPageManager.addImageAsPage(imagePath, afterPage);
 
                 runOnUiThread(() -> {
                     binding.progressBar.setVisibility(View.GONE);
-                    filePath = newPath;
-                    reloadPdf();
-                    Toast.makeText(this, "Image added as new page", Toast.LENGTH_SHORT).show();
+                    openChangedPdf(newPath, "Image added as new page");
                 });
 
             } catch (IOException e) {
@@ -739,26 +922,45 @@ public class PdfViewerActivity extends AppCompatActivity {
                     Toast.makeText(this, "Error: " + e.getMessage(), Toast.LENGTH_SHORT).show();
                 });
             }
-        }).start();
+        });
+    }
+
+    private void addImagesAsNewPages(List<Uri> imageUris) {
+        int afterPage = currentPage + 1;
+        PdfJob job = startJobWithProgress("Adding " + imageUris.size() + " Images");
+        binding.progressBar.setVisibility(View.VISIBLE);
+
+        runDocumentOperation(DocumentOperationExecutor.Priority.BATCH, null, job, () -> {
+            try {
+                String newPath = pdfPageManager.addImagesAsPages(imageUris, afterPage, job);
+
+                runOnUiThread(() -> {
+                    finishJob(job);
+                    openChangedPdf(newPath, imageUris.size() + " images added as pages");
+                });
+
+            } catch (IOException e) {
+                runOnUiThread(() -> showJobError(job, e));
+            }
+        });
     }
 
     private void addImageToCurrentPage(Uri imageUri) {
+        int pageNumber = currentPage + 1;
         binding.progressBar.setVisibility(View.VISIBLE);
 
-        new Thread(() -> {
+        runDocumentOperation(DocumentOperationExecutor.Priority.INTERACTIVE, null, () -> {
             try {
                 String imagePath = FileUtils.getPathFromUri(this, imageUri);
                 if (imagePath == null) {
                     throw new IOException("Cannot access image file");
                 }
 
-                String newPath = pdfPageManager.addImageToPage(currentPage + 1, imagePath, 50, 50, 200, 200);
+                String newPath = pdfPageManager.addImageToPage(pageNumber, imagePath, 50, 50, 200, 200);
 
                 runOnUiThread(() -> {
                     binding.progressBar.setVisibility(View.GONE);
-                    filePath = newPath;
-                    reloadPdf();
-                    Toast.makeText(this, "Image added to page", Toast.LENGTH_SHORT).show();
+                    openChangedPdf(newPath, "Image added to page");
                 });
 
             } catch (IOException e) {
@@ -767,7 +969,7 @@ public class PdfViewerActivity extends AppCompatActivity {
                     Toast.makeText(this, "Error: " + e.getMessage(), Toast.LENGTH_SHORT).show();
                 });
             }
-        }).start();
+        });
     }
 
     private void showSignatureDialog() {
@@ -794,30 +996,27 @@ public class PdfViewerActivity extends AppCompatActivity {
     }
 
     private void addWatermark(String text) {
+        PdfJob job = startJobWithProgress("Adding Watermark");
         binding.progressBar.setVisibility(View.VISIBLE);
 
-        new Thread(() -> {
+        runDocumentOperation(DocumentOperationExecutor.Priority.BATCH, "watermark:" + text, job, () -> {
             try {
-                // Add text annotation to center of each page as watermark
-                for (int i = 0; i < totalPages; i++) {
-                    pdfEditManager.addTextAnnotation(i, 0.5f, 0.5f, text, Color.argb(50, 128, 128, 128), 48f);
-                }
-
-                String newPath = pdfEditManager.saveEditedPdf();
+                // Drawn once as a shared XObject and referenced from every page
+                PdfStampEngine.Stamp watermark = PdfStampEngine.Stamp.text(text, 48f, Color.rgb(128, 128, 128))
+                        .setOpacity(0.2f)
+                        .setRotation(45f);
+                String newPath = pdfPageManager.stampPages(Collections.singletonList(watermark),
+                        PageSet.all(totalPages), job);
 
                 runOnUiThread(() -> {
-                    binding.progressBar.setVisibility(View.GONE);
-                    pdfEditManager.clearAllAnnotations();
+                    finishJob(job);
                     showSavedFileDialog(newPath, "Watermark added. Saved to:");
                 });
 
             } catch (IOException e) {
-                runOnUiThread(() -> {
-                    binding.progressBar.setVisibility(View.GONE);
-                    Toast.makeText(this, "Error: " + e.getMessage(), Toast.LENGTH_SHORT).show();
-                });
+                runOnUiThread(() -> showJobError(job, e));
             }
-        }).start();
+        });
     }
 
     private void pickPdfsToMerge() {
@@ -831,9 +1030,10 @@ public class PdfViewerActivity extends AppCompatActivity {
     }
 
     private void mergePdfs(List<Uri> pdfUris) {
+        PdfJob job = startJobWithProgress("Merging PDFs");
         binding.progressBar.setVisibility(View.VISIBLE);
 
-        new Thread(() -> {
+        runDocumentOperation(DocumentOperationExecutor.Priority.BATCH, null, job, () -> {
             try {
                 List<String> pdfPaths = new ArrayList<>();
                 pdfPaths.add(filePath); // Current PDF first
@@ -849,29 +1049,23 @@ public class PdfViewerActivity extends AppCompatActivity {
                     throw new IOException("Need at least 2 PDFs to merge");
                 }
 
-                String mergedPath = PdfPageManager.mergePdfs(this, pdfPaths, "merged");
+                String mergedPath = PdfPageManager.mergePdfs(this, pdfPaths, "merged", job);
 
                 runOnUiThread(() -> {
-                    binding.progressBar.setVisibility(View.GONE);
+                    finishJob(job);
 
                     new AlertDialog.Builder(this)
                             .setTitle("PDFs Merged")
                             .setMessage("Merged " + pdfPaths.size() + " PDFs.\n\nSaved to:\n" + mergedPath)
                             .setPositiveButton("OK", null)
-                            .setNeutralButton("Open", (d, w) -> {
-                                filePath = mergedPath;
-                                reloadPdf();
-                            })
+                            .setNeutralButton("Open", (d, w) -> openChangedPdf(mergedPath, null))
                             .show();
                 });
 
             } catch (IOException e) {
-                runOnUiThread(() -> {
-                    binding.progressBar.setVisibility(View.GONE);
-                    Toast.makeText(this, "Error: " + e.getMessage(), Toast.LENGTH_SHORT).show();
-                });
+                runOnUiThread(() -> showJobError(job, e));
             }
-        }).start();
+        });
     }
 
     // ==================== EDIT MODE ====================
@@ -886,13 +1080,20 @@ public class PdfViewerActivity extends AppCompatActivity {
     }
 
     private void enterEditMode() {
+        if (pdfEditManager == null) {
+            // An imported document is still being copied; the editor opens once it is
+            isEditMode = false;
+            Toast.makeText(this, "Still opening the document", Toast.LENGTH_SHORT).show();
+            return;
+        }
         isEditMode = true;
         binding.editToolbar.setVisibility(View.VISIBLE);
         binding.drawingView.setVisibility(View.VISIBLE);
         binding.fabSaveEdit.setVisibility(View.VISIBLE);
-        binding.drawingView.setEditEnabled(true);
+        binding.drawingView.setEditEnabled(!saving);
         binding.scrollView.setNestedScrollingEnabled(false);
         selectTool(DrawingView.Tool.PEN, binding.btnPen);
+        loadSavedAnnotations();
 
         if (getSupportActionBar() != null) {
             getSupportActionBar().setTitle("Edit Mode - Page " + (currentPage + 1));
@@ -901,8 +1102,49 @@ public class PdfViewerActivity extends AppCompatActivity {
         Toast.makeText(this, "Edit mode enabled", Toast.LENGTH_SHORT).show();
     }
 
+    /**
+     * Bring annotations saved in editable form back into the editor
+     */
+    private void loadSavedAnnotations() {
+        PdfEditManager editManager = pdfEditManager;
+        runDocumentOperation(DocumentOperationExecutor.Priority.BATCH, "load-annotations", () -> {
+            try {
+                PdfNativeAnnotations.Contents contents = editManager.readNativeAnnotations();
+                if (contents.count > 0) {
+                    runOnUiThread(() -> {
+                        if (editManager != pdfEditManager) {
+                            // The document was reloaded in the meantime
+                            return;
+                        }
+                        for (int page : editManager.importNativeAnnotations(contents)) {
+                            binding.drawingView.loadStrokes(page,
+                                    contents.inkStrokes.getOrDefault(page, new ArrayList<>()));
+                        }
+                        Toast.makeText(this, "Loaded " + contents.count + " saved annotations for editing",
+                                Toast.LENGTH_SHORT).show();
+                    });
+                }
+            } catch (IOException e) {
+                e.printStackTrace();
+            }
+        });
+    }
+
+    /**
+     * Put the editor's strokes, restored from its journal, into the drawing view so they can be
+     * erased like drawn ones
+     */
+    private void loadEditorInk() {
+        for (int page : pdfEditManager.getInkPages()) {
+            binding.drawingView.loadStrokes(page, pdfEditManager.getStrokes(page));
+        }
+    }
+
     private void exitEditMode() {
-        if (binding.drawingView.hasDrawings() || pdfEditManager.hasChanges()) {
+        if (saving) {
+            // The running save clears what it wrote once it is done
+            finishExitEditMode();
+        } else if (binding.drawingView.hasEdits() || pdfEditManager.hasChanges()) {
             new AlertDialog.Builder(this)
                     .setTitle("Unsaved Changes")
                     .setMessage("Save your changes?")
@@ -964,37 +1206,79 @@ public class PdfViewerActivity extends AppCompatActivity {
                     PERMISSION_REQUEST_CODE);
             return;
         }
-        performSave();
+        chooseSaveModeAndSave();
+    }
+
+    private void chooseSaveModeAndSave() {
+        String[] modes = {"Flatten into pages", "Editable annotations"};
+        int checked = prefsManager.isSaveAsAnnotations() ? 1 : 0;
+
+        new AlertDialog.Builder(this)
+                .setTitle("Save As")
+                .setSingleChoiceItems(modes, checked, (dialog, which) -> {
+                    prefsManager.setSaveAsAnnotations(which == 1);
+                    dialog.dismiss();
+                    performSave();
+                })
+                .setNegativeButton("Cancel", null)
+                .show();
     }
 
     private void performSave() {
+        if (saving) {
+            return;
+        }
         binding.progressBar.setVisibility(View.VISIBLE);
-
-        if (binding.drawingView.hasDrawings()) {
-            Bitmap drawingBitmap = binding.drawingView.getDrawingBitmap();
-            if (drawingBitmap != null) {
-                pdfEditManager.setDrawingOverlay(currentPage, drawingBitmap);
-            }
+        pdfEditManager.setSaveMode(prefsManager.isSaveAsAnnotations()
+                ? PdfEditManager.SaveMode.ANNOTATIONS
+                : PdfEditManager.SaveMode.FLATTEN);
+
+        // The drawing view holds all ink, including the editor's strokes it was seeded with. The
+        // strokes are only passed to this save, so a retry after a failure does not add them twice.
+        Map<Integer, List<InkStroke>> ink = new HashMap<>();
+        for (int page : binding.drawingView.getPagesWithStrokes()) {
+            ink.put(page, binding.drawingView.getStrokes(page));
         }
+        PdfEditManager editManager = pdfEditManager;
+        PdfEditManager.Snapshot snapshot = editManager.snapshot(ink);
+        setSaving(true);
 
-        new Thread(() -> {
+        runDocumentOperation(DocumentOperationExecutor.Priority.INTERACTIVE, "save", () -> {
             try {
-                String savedPath = pdfEditManager.saveEditedPdf();
+                String savedPath = editManager.saveEditedPdf(new PdfJob(), snapshot);
 
                 runOnUiThread(() -> {
                     binding.progressBar.setVisibility(View.GONE);
                     binding.drawingView.clearAll();
-                    pdfEditManager.clearAllAnnotations();
+                    editManager.clearAllAnnotations();
+                    setSaving(false);
                     showSavedFileDialog(savedPath, "PDF saved to:");
                 });
 
             } catch (IOException e) {
                 runOnUiThread(() -> {
                     binding.progressBar.setVisibility(View.GONE);
+                    setSaving(false);
                     Toast.makeText(this, "Error saving PDF: " + e.getMessage(), Toast.LENGTH_LONG).show();
                 });
             }
-        }).start();
+        });
+    }
+
+    /**
+     * Pause ink and text edits while a save runs, and resume them afterwards
+     */
+    private void setSaving(boolean saving) {
+        this.saving = saving;
+        boolean editable = isEditMode && !saving;
+        binding.drawingView.setEditEnabled(editable);
+        if (editable) {
+            binding.drawingView.setTool(currentTool);
+        }
+        binding.btnUndo.setEnabled(!saving);
+        binding.btnRedo.setEnabled(!saving);
+        binding.btnClear.setEnabled(!saving);
+        binding.fabSaveEdit.setEnabled(!saving);
     }
 
     private void showSavedFileDialog(String path, String message) {
@@ -1022,32 +1306,100 @@ public class PdfViewerActivity extends AppCompatActivity {
 
     // ==================== HELPER METHODS ====================
 
-    private List<Integer> parsePageSpec(String spec) {
-        List<Integer> pages = new ArrayList<>();
-        try {
-            String[] parts = spec.split(",");
-            for (String part : parts) {
-                part = part.trim();
-                if (part.contains("-")) {
-                    String[] range = part.split("-");
-                    int start = Integer.parseInt(range[0].trim());
-                    int end = Integer.parseInt(range[1].trim());
-                    for (int i = start; i <= end; i++) {
-                        if (i >= 1 && i <= totalPages) {
-                            pages.add(i);
-                        }
-                    }
-                } else {
-                    int page = Integer.parseInt(part);
-                    if (page >= 1 && page <= totalPages) {
-                        pages.add(page);
-                    }
-                }
+    /**
+     * Run an operation on the current document through the shared executor.
+     * Operations on the same file never overlap; a duplicate of a still-queued operation is dropped.
+     * An unexpected runtime failure hides the progress bar and is reported instead of lost.
+     */
+    private void runDocumentOperation(DocumentOperationExecutor.Priority priority, String coalesceKey, Runnable operation) {
+        runDocumentOperation(priority, coalesceKey, null, operation);
+    }
+
+    /**
+     * Run an operation that reports through a job's progress dialog. If the operation is dropped
+     * as a duplicate, its dialog is closed; the queued original keeps the progress bar up.
+     */
+    private void runDocumentOperation(DocumentOperationExecutor.Priority priority, String coalesceKey,
+                                      PdfJob job, Runnable operation) {
+        DocumentOperationExecutor executor = DocumentOperationExecutor.getInstance();
+        if (coalesceKey != null && executor.isPending(filePath, coalesceKey)) {
+            AlertDialog dialog = jobDialogs.remove(job);
+            if (dialog != null) {
+                dialog.dismiss();
             }
-        } catch (Exception e) {
+            Toast.makeText(this, "Already queued", Toast.LENGTH_SHORT).show();
+            return;
+        }
+        executor.submit(filePath, priority, coalesceKey, () -> {
+            try {
+                operation.run();
+            } catch (Throwable t) {
+                t.printStackTrace();
+                runOnUiThread(() -> {
+                    finishJob(job);
+                    Toast.makeText(this, "Error: " + t.getMessage(), Toast.LENGTH_LONG).show();
+                });
+            }
+        });
+    }
+
+    /**
+     * Show a cancellable progress dialog and return the job it tracks
+     */
+    private PdfJob startJobWithProgress(String title) {
+        LinearLayout layout = new LinearLayout(this);
+        layout.setOrientation(LinearLayout.VERTICAL);
+        int padding = (int) (24 * getResources().getDisplayMetrics().density);
+        layout.setPadding(padding, padding / 2, padding, 0);
+
+        ProgressBar progress = new ProgressBar(this, null, android.R.attr.progressBarStyleHorizontal);
+        progress.setMax(JOB_PROGRESS_MAX);
+        TextView status = new TextView(this);
+        layout.addView(progress);
+        layout.addView(status);
+
+        PdfJob job = new PdfJob(j -> runOnUiThread(() -> {
+            progress.setProgress((int) (j.getFraction() * JOB_PROGRESS_MAX));
+            status.setText(String.format(Locale.getDefault(), "Page %d of %d\n%.1f pages/s, %.1f MB/s",
+                    j.getCompletedPages(), j.getTotalPages(), j.getPagesPerSecond(), j.getMegabytesPerSecond()));
+        }));
+
+        jobDialogs.put(job, new AlertDialog.Builder(this)
+                .setTitle(title)
+                .setView(layout)
+                .setCancelable(false)
+                .setNegativeButton("Cancel", (dialog, which) -> job.cancel())
+                .show());
+        return job;
+    }
+
+    /**
+     * Hide the progress bar and close the job's dialog, if it has one
+     */
+    private void finishJob(PdfJob job) {
+        binding.progressBar.setVisibility(View.GONE);
+        AlertDialog dialog = jobDialogs.remove(job);
+        if (dialog != null) {
+            dialog.dismiss();
+        }
+    }
+
+    private void showJobError(PdfJob job, IOException e) {
+        finishJob(job);
+        if (e instanceof PdfJob.CancelledException) {
+            Toast.makeText(this, "Operation cancelled", Toast.LENGTH_SHORT).show();
+        } else {
+            Toast.makeText(this, "Error: " + e.getMessage(), Toast.LENGTH_SHORT).show();
+        }
+    }
+
+    private PageSet parsePageSpec(String spec) {
+        try {
+            return PageSet.parseSequence(spec, totalPages);
+        } catch (IllegalArgumentException e) {
             // Invalid format
+            return PageSet.empty();
         }
-        return pages;
     }
 
     private void updatePageInfo() {
@@ -1057,6 +1409,8 @@ public class PdfViewerActivity extends AppCompatActivity {
         }
         binding.tvPageInfo.setText(pageInfo);
 
+        binding.drawingView.setPage(currentPage);
+
         if (isEditMode && getSupportActionBar() != null) {
             getSupportActionBar().setTitle("Edit Mode - Page " + (currentPage + 1));
         }
@@ -1095,13 +1449,6 @@ public class PdfViewerActivity extends AppCompatActivity {
 
     private void goToPreviousPage() {
         if (currentPage > 0) {
-            if (isEditMode && binding.drawingView.hasDrawings()) {
-                Bitmap drawingBitmap = binding.drawingView.getDrawingBitmap();
-                if (drawingBitmap != null) {
-                    pdfEditManager.setDrawingOverlay(currentPage, drawingBitmap);
-                }
-                binding.drawingView.clearAll();
-            }
             currentPage--;
             scrollToPage(currentPage);
             updatePageInfo();
@@ -1110,13 +1457,6 @@ public class PdfViewerActivity extends AppCompatActivity {
 
     private void goToNextPage() {
         if (currentPage < totalPages - 1) {
-            if (isEditMode && binding.drawingView.hasDrawings()) {
-                Bitmap drawingBitmap = binding.drawingView.getDrawingBitmap();
-                if (drawingBitmap != null) {
-                    pdfEditManager.setDrawingOverlay(currentPage, drawingBitmap);
-                }
-                binding.drawingView.clearAll();
-            }
             currentPage++;
             scrollToPage(currentPage);
             updatePageInfo();
@@ -1208,7 +1548,7 @@ public class PdfViewerActivity extends AppCompatActivity {
         binding.progressBar.setVisibility(View.VISIBLE);
         Toast.makeText(this, "Converting PDF to Word...", Toast.LENGTH_SHORT).show();
 
-        new Thread(() -> {
+        runDocumentOperation(DocumentOperationExecutor.Priority.BATCH, "convert-docx", () -> {
             try {
                 String docxPath = PdfToWordConverter.convertToDocx(filePath, getCacheDir());
 
@@ -1234,7 +1574,7 @@ public class PdfViewerActivity extends AppCompatActivity {
                     Toast.makeText(this, "Error converting: " + e.getMessage(), Toast.LENGTH_LONG).show();
                 });
             }
-        }).start();
+        });
     }
     // ==================== ACTIVITY CALLBACKS ====================
 
@@ -1244,7 +1584,20 @@ public class PdfViewerActivity extends AppCompatActivity {
 
         if (resultCode == RESULT_OK && data != null) {
             if (requestCode == REQUEST_PICK_IMAGE) {
+                if (data.getClipData() != null && data.getClipData().getItemCount() > 1) {
+                    List<Uri> imageUris = new ArrayList<>();
+                    int count = data.getClipData().getItemCount();
+                    for (int i = 0; i < count; i++) {
+                        imageUris.add(data.getClipData().getItemAt(i).getUri());
+                    }
+                    addImagesAsNewPages(imageUris);
+                    return;
+                }
+
                 Uri imageUri = data.getData();
+                if (imageUri == null && data.getClipData() != null) {
+                    imageUri = data.getClipData().getItemAt(0).getUri();
+                }
                 if (imageUri != null) {
                     addImageToPdf(imageUri);
                 }
@@ -1340,6 +1693,10 @@ public class PdfViewerActivity extends AppCompatActivity {
             }
         }
 
+        if (pdfEditManager != null) {
+            pdfEditManager.close();
+        }
+
         for (ImageView imageView : pageViews) {
             imageView.setImageBitmap(null);
         }
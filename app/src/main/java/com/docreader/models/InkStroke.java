@@ -0,0 +1,247 @@
+package com.docreader.models;
+
+import java.util.Arrays;
+
+/**
+ * Model class representing one ink stroke as a vector point list.
+ * Coordinates are normalized to the page (0-1), and the width is a fraction of the page width,
+ * so a stroke can be redrawn or written to PDF at any size. A variable-width stroke also has a
+ * width factor (0-1) per point that scales the width there.
+ *
+ * A recognized shape keeps only its defining points instead of the drawn samples; see Shape.
+ * All of a shape's geometry lies within the bounding box of its points, and any affine map of
+ * the points (such as the page-to-view scale) maps the shape exactly.
+ */
+public class InkStroke {
+
+    public enum Tool {
+        PEN,
+        HIGHLIGHTER,
+        ERASER
+    }
+
+    public enum Shape {
+        /** Freehand samples joined by smooth curves */
+        FREEHAND,
+        /** Start and end point */
+        LINE,
+        /** Four corners in order */
+        RECTANGLE,
+        /** Four corners in order of the parallelogram the ellipse touches at each side's midpoint */
+        ELLIPSE,
+        /** Tail, tip, then the ends of the two head barbs */
+        ARROW
+    }
+
+    // Segments used to approximate an ellipse as a polyline
+    private static final int ELLIPSE_SEGMENTS = 32;
+    // Control point distance of a cubic quarter circle, as a fraction of the radius
+    private static final float ELLIPSE_KAPPA = 0.5522848f;
+
+    private final Tool tool;
+    private final int color;
+    private final float width;
+    private final Shape shape;
+    private final float[] points;
+    private final float[] widthFactors;
+
+    /**
+     * @param color ARGB colour; the alpha channel is the stroke opacity
+     * @param width Stroke width as a fraction of the page width
+     * @param points Interleaved normalized x/y pairs
+     */
+    public InkStroke(Tool tool, int color, float width, float[] points) {
+        this(tool, color, width, points, null);
+    }
+
+    /**
+     * @param width Widest stroke width as a fraction of the page width
+     * @param widthFactors Width factor per point, or null for a constant width
+     */
+    public InkStroke(Tool tool, int color, float width, float[] points, float[] widthFactors) {
+        this(tool, color, width, Shape.FREEHAND, points, widthFactors);
+    }
+
+    /**
+     * A constant-width shape
+     * @param points The shape's defining points, interleaved and normalized
+     */
+    public InkStroke(Tool tool, int color, float width, Shape shape, float[] points) {
+        this(tool, color, width, shape, points, null);
+    }
+
+    private InkStroke(Tool tool, int color, float width, Shape shape, float[] points, float[] widthFactors) {
+        this.tool = tool;
+        this.color = color;
+        this.width = width;
+        this.shape = shape;
+        this.points = points;
+        this.widthFactors = widthFactors;
+    }
+
+    /**
+     * Build a stroke from view coordinates, normalizing them against the view size
+     * @param factors Width factor per point, or null for a constant width
+     */
+    public static InkStroke fromViewPoints(Tool tool, int color, float strokeWidth,
+                                           float[] viewPoints, float[] factors, int pointCount,
+                                           float viewWidth, float viewHeight) {
+        float[] points = Arrays.copyOf(viewPoints, pointCount * 2);
+        for (int i = 0; i < points.length; i += 2) {
+            points[i] /= viewWidth;
+            points[i + 1] /= viewHeight;
+        }
+        return new InkStroke(tool, color, strokeWidth / viewWidth, points,
+                factors != null ? Arrays.copyOf(factors, pointCount) : null);
+    }
+
+    public Tool getTool() {
+        return tool;
+    }
+
+    public int getColor() {
+        return color;
+    }
+
+    public float getWidth() {
+        return width;
+    }
+
+    public Shape getShape() {
+        return shape;
+    }
+
+    public boolean isShape() {
+        return shape != Shape.FREEHAND;
+    }
+
+    public boolean isVariableWidth() {
+        return widthFactors != null;
+    }
+
+    /**
+     * Width factor per point, or null for a constant width; shared, not copied
+     */
+    public float[] getWidthFactors() {
+        return widthFactors;
+    }
+
+    public int getPointCount() {
+        return points.length / 2;
+    }
+
+    public float getX(int index) {
+        return points[index * 2];
+    }
+
+    public float getY(int index) {
+        return points[index * 2 + 1];
+    }
+
+    /**
+     * Interleaved x/y pairs; the array is shared, not copied
+     */
+    public float[] getPoints() {
+        return points;
+    }
+
+    /**
+     * Polyline through the stroke, for hit-testing: the points themselves for freehand strokes
+     */
+    public float[] getPolyline() {
+        return shape == Shape.FREEHAND ? points : shapePolyline(shape, points, 0);
+    }
+
+    /**
+     * Polyline that covers every part of a shape; ellipses are approximated
+     * @param offset Float index of the shape's first x coordinate
+     */
+    public static float[] shapePolyline(Shape shape, float[] points, int offset) {
+        switch (shape) {
+            case LINE:
+                return Arrays.copyOfRange(points, offset, offset + 4);
+            case RECTANGLE: {
+                float[] closed = Arrays.copyOfRange(points, offset, offset + 10);
+                closed[8] = points[offset];
+                closed[9] = points[offset + 1];
+                return closed;
+            }
+            case ELLIPSE: {
+                // Centre plus cos/sin multiples of the two conjugate semi-axes
+                float[] axes = ellipseAxes(points, offset);
+                float cx = axes[0];
+                float cy = axes[1];
+                float ux = axes[2];
+                float uy = axes[3];
+                float vx = axes[4];
+                float vy = axes[5];
+                float[] polyline = new float[(ELLIPSE_SEGMENTS + 1) * 2];
+                for (int i = 0; i <= ELLIPSE_SEGMENTS; i++) {
+                    double angle = 2 * Math.PI * i / ELLIPSE_SEGMENTS;
+                    float cos = (float) Math.cos(angle);
+                    float sin = (float) Math.sin(angle);
+                    polyline[i * 2] = cx + ux * cos + vx * sin;
+                    polyline[i * 2 + 1] = cy + uy * cos + vy * sin;
+                }
+                return polyline;
+            }
+            case ARROW:
+                // Barb, tip, other barb, back to the tip, down the shaft to the tail
+                return new float[]{
+                        points[offset + 4], points[offset + 5], points[offset + 2], points[offset + 3],
+                        points[offset + 6], points[offset + 7], points[offset + 2], points[offset + 3],
+                        points[offset], points[offset + 1]};
+            default:
+                throw new IllegalArgumentException("Not a shape: " + shape);
+        }
+    }
+
+    /**
+     * Centre and conjugate semi-axes of an ellipse shape, as {cx, cy, ux, uy, vx, vy}
+     * @param offset Float index of the shape's first x coordinate
+     */
+    public static float[] ellipseAxes(float[] points, int offset) {
+        float cx = (points[offset] + points[offset + 4]) / 2;
+        float cy = (points[offset + 1] + points[offset + 5]) / 2;
+        return new float[]{cx, cy,
+                (points[offset + 2] + points[offset + 4]) / 2 - cx,
+                (points[offset + 3] + points[offset + 5]) / 2 - cy,
+                (points[offset + 4] + points[offset + 6]) / 2 - cx,
+                (points[offset + 5] + points[offset + 7]) / 2 - cy};
+    }
+
+    /**
+     * An ellipse shape as four cubic quarter arcs: the start point, then two control points and
+     * an end point per arc. Map the result like the defining points to draw it at any size.
+     * @param offset Float index of the shape's first x coordinate
+     */
+    public static float[] ellipseCurves(float[] points, int offset) {
+        float[] axes = ellipseAxes(points, offset);
+        float cx = axes[0];
+        float cy = axes[1];
+        float ux = axes[2];
+        float uy = axes[3];
+        float vx = axes[4];
+        float vy = axes[5];
+
+        float[] curves = new float[2 + 4 * 6];
+        curves[0] = cx + ux;
+        curves[1] = cy + uy;
+        for (int quarter = 0, i = 2; quarter < 4; quarter++, i += 6) {
+            curves[i] = cx + ux + ELLIPSE_KAPPA * vx;
+            curves[i + 1] = cy + uy + ELLIPSE_KAPPA * vy;
+            curves[i + 2] = cx + vx + ELLIPSE_KAPPA * ux;
+            curves[i + 3] = cy + vy + ELLIPSE_KAPPA * uy;
+            curves[i + 4] = cx + vx;
+            curves[i + 5] = cy + vy;
+            // The next quarter starts at v and ends at -u
+            float nextX = vx;
+            float nextY = vy;
+            vx = -ux;
+            vy = -uy;
+            ux = nextX;
+            uy = nextY;
+        }
+        return curves;
+    }
+}
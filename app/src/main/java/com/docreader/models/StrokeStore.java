@@ -0,0 +1,346 @@
+package com.docreader.models;
+
+import java.io.IOException;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Compact storage for many ink strokes.
+ * All points live in one shared float array, each stroke is just a start offset and a style id,
+ * and styles (tool, colour, width) are interned, so a stroke costs its points plus two ints
+ * instead of a Path and a Paint. Coordinates are page-normalized like InkStroke's.
+ * Width factors of variable-width strokes live in a second shared array the same way, and a
+ * recognized shape is stored as its few defining points plus a shape byte.
+ */
+public class StrokeStore {
+
+    private static final int FORMAT_VERSION = 1;
+    private static final int FLAG_VARIABLE_WIDTH = 1;
+    private static final int SHAPE_SHIFT = 1;
+
+    // Interleaved x/y pairs of every stroke, back to back
+    private float[] points = new float[1024];
+    private int pointCount;
+    // Stroke i owns points offsets[i] until offsets[i + 1] (or pointCount for the last)
+    private int[] offsets = new int[64];
+    private int[] styleIds = new int[64];
+    private byte[] shapes = new byte[64];
+    private int size;
+    // Stroke i owns factors factorStarts[i] until the next stroke's start (or factorCount);
+    // constant-width strokes own none
+    private float[] factors = new float[256];
+    private int factorCount;
+    private int[] factorStarts = new int[64];
+
+    private final List<Style> styles = new ArrayList<>();
+    private final Map<Style, Integer> styleLookup = new HashMap<>();
+
+    private static class Style {
+        final InkStroke.Tool tool;
+        final int color;
+        final float width;
+
+        Style(InkStroke.Tool tool, int color, float width) {
+            this.tool = tool;
+            this.color = color;
+            this.width = width;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (!(o instanceof Style)) {
+                return false;
+            }
+            Style other = (Style) o;
+            return tool == other.tool && color == other.color && Float.compare(width, other.width) == 0;
+        }
+
+        @Override
+        public int hashCode() {
+            return (tool.ordinal() * 31 + color) * 31 + Float.floatToIntBits(width);
+        }
+    }
+
+    public static StrokeStore of(List<InkStroke> strokes) {
+        StrokeStore store = new StrokeStore();
+        for (InkStroke stroke : strokes) {
+            store.add(stroke);
+        }
+        return store;
+    }
+
+    /**
+     * Append a stroke
+     * @return Its index
+     */
+    public int add(InkStroke stroke) {
+        float[] strokePoints = stroke.getPoints();
+        return add(internStyle(stroke.getTool(), stroke.getColor(), stroke.getWidth()),
+                strokePoints, 0, strokePoints.length / 2, stroke.getWidthFactors(), stroke.getShape());
+    }
+
+    private int add(int styleId, float[] source, int sourceOffset, int count, float[] widthFactors,
+                    InkStroke.Shape shape) {
+        if (size == offsets.length) {
+            offsets = Arrays.copyOf(offsets, size * 2);
+            styleIds = Arrays.copyOf(styleIds, size * 2);
+            factorStarts = Arrays.copyOf(factorStarts, size * 2);
+            shapes = Arrays.copyOf(shapes, size * 2);
+        }
+        ensurePointCapacity(pointCount + count);
+        System.arraycopy(source, sourceOffset, points, pointCount * 2, count * 2);
+
+        offsets[size] = pointCount;
+        styleIds[size] = styleId;
+        factorStarts[size] = factorCount;
+        shapes[size] = (byte) shape.ordinal();
+        pointCount += count;
+        if (widthFactors != null) {
+            ensureFactorCapacity(factorCount + count);
+            System.arraycopy(widthFactors, 0, factors, factorCount, count);
+            factorCount += count;
+        }
+        return size++;
+    }
+
+    private void ensureFactorCapacity(int count) {
+        if (count > factors.length) {
+            factors = Arrays.copyOf(factors, Math.max(count, factors.length * 2));
+        }
+    }
+
+    private void ensurePointCapacity(int count) {
+        if (count * 2 > points.length) {
+            points = Arrays.copyOf(points, Math.max(count * 2, points.length * 2));
+        }
+    }
+
+    private int internStyle(InkStroke.Tool tool, int color, float width) {
+        Style style = new Style(tool, color, width);
+        Integer id = styleLookup.get(style);
+        if (id == null) {
+            id = styles.size();
+            styles.add(style);
+            styleLookup.put(style, id);
+        }
+        return id;
+    }
+
+    /**
+     * Drop every stroke from index newSize on; styles stay interned
+     */
+    public void truncate(int newSize) {
+        if (newSize >= size) {
+            return;
+        }
+        pointCount = newSize == 0 ? 0 : offsets[newSize];
+        factorCount = newSize == 0 ? 0 : factorStarts[newSize];
+        size = newSize;
+    }
+
+    public void clear() {
+        truncate(0);
+        styles.clear();
+        styleLookup.clear();
+    }
+
+    public int size() {
+        return size;
+    }
+
+    public boolean isEmpty() {
+        return size == 0;
+    }
+
+    /**
+     * Shared point array; stroke i's pairs start at float index getPointOffset(i)
+     */
+    public float[] getPoints() {
+        return points;
+    }
+
+    public int getPointOffset(int index) {
+        return offsets[index] * 2;
+    }
+
+    public int getPointCount(int index) {
+        int end = index + 1 < size ? offsets[index + 1] : pointCount;
+        return end - offsets[index];
+    }
+
+    /**
+     * Shared width factor array; a variable-width stroke's factors start at getFactorOffset(i)
+     */
+    public float[] getFactors() {
+        return factors;
+    }
+
+    public int getFactorOffset(int index) {
+        return factorStarts[index];
+    }
+
+    public boolean isVariableWidth(int index) {
+        int end = index + 1 < size ? factorStarts[index + 1] : factorCount;
+        return end > factorStarts[index];
+    }
+
+    public InkStroke.Shape getShape(int index) {
+        return InkStroke.Shape.values()[shapes[index]];
+    }
+
+    public int getStyleId(int index) {
+        return styleIds[index];
+    }
+
+    public int getStyleCount() {
+        return styles.size();
+    }
+
+    public InkStroke.Tool getStyleTool(int styleId) {
+        return styles.get(styleId).tool;
+    }
+
+    public int getStyleColor(int styleId) {
+        return styles.get(styleId).color;
+    }
+
+    public float getStyleWidth(int styleId) {
+        return styles.get(styleId).width;
+    }
+
+    public InkStroke.Tool getTool(int index) {
+        return getStyleTool(styleIds[index]);
+    }
+
+    /**
+     * Standalone copy of one stroke, e.g. for PDF export
+     */
+    public InkStroke getStroke(int index) {
+        Style style = styles.get(styleIds[index]);
+        int from = getPointOffset(index);
+        int count = getPointCount(index);
+        float[] copy = Arrays.copyOfRange(points, from, from + count * 2);
+        if (shapes[index] != 0) {
+            return new InkStroke(style.tool, style.color, style.width, getShape(index), copy);
+        }
+        float[] widthFactors = isVariableWidth(index)
+                ? Arrays.copyOfRange(factors, factorStarts[index], factorStarts[index] + count)
+                : null;
+        return new InkStroke(style.tool, style.color, style.width, copy, widthFactors);
+    }
+
+    /**
+     * Standalone copies of the strokes in [from, to)
+     */
+    public List<InkStroke> getStrokes(int from, int to) {
+        List<InkStroke> result = new ArrayList<>(to - from);
+        for (int i = from; i < to; i++) {
+            result.add(getStroke(i));
+        }
+        return result;
+    }
+
+    /**
+     * Serialize as: version, style table, per-stroke style id, point count and flags (variable width,
+     * shape), then all points, then all width factors
+     */
+    public byte[] toBytes() {
+        int length = 4 + 4 + styles.size() * 9 + 4 + size * 9 + 4 + pointCount * 8 + 4 + factorCount * 4;
+        ByteBuffer buffer = ByteBuffer.allocate(length);
+        buffer.putInt(FORMAT_VERSION);
+
+        buffer.putInt(styles.size());
+        for (Style style : styles) {
+            buffer.put((byte) style.tool.ordinal());
+            buffer.putInt(style.color);
+            buffer.putFloat(style.width);
+        }
+
+        buffer.putInt(size);
+        for (int i = 0; i < size; i++) {
+            buffer.putInt(styleIds[i]);
+            buffer.putInt(getPointCount(i));
+            buffer.put((byte) ((isVariableWidth(i) ? FLAG_VARIABLE_WIDTH : 0) | shapes[i] << SHAPE_SHIFT));
+        }
+
+        buffer.putInt(pointCount);
+        buffer.asFloatBuffer().put(points, 0, pointCount * 2);
+        buffer.position(buffer.position() + pointCount * 8);
+
+        buffer.putInt(factorCount);
+        buffer.asFloatBuffer().put(factors, 0, factorCount);
+        return buffer.array();
+    }
+
+    public static StrokeStore fromBytes(byte[] data) throws IOException {
+        try {
+            ByteBuffer buffer = ByteBuffer.wrap(data);
+            int version = buffer.getInt();
+            if (version != FORMAT_VERSION) {
+                throw new IOException("Unsupported stroke data version");
+            }
+
+            StrokeStore store = new StrokeStore();
+            InkStroke.Tool[] tools = InkStroke.Tool.values();
+            int styleCount = buffer.getInt();
+            for (int i = 0; i < styleCount; i++) {
+                store.internStyle(tools[buffer.get()], buffer.getInt(), buffer.getFloat());
+            }
+
+            int strokeCount = buffer.getInt();
+            if (strokeCount < 0) {
+                throw new IOException("Corrupt stroke data");
+            }
+            store.offsets = new int[Math.max(strokeCount, 16)];
+            store.styleIds = new int[store.offsets.length];
+            store.factorStarts = new int[store.offsets.length];
+            store.shapes = new byte[store.offsets.length];
+            InkStroke.Shape[] shapeValues = InkStroke.Shape.values();
+            int offset = 0;
+            int factorOffset = 0;
+            for (int i = 0; i < strokeCount; i++) {
+                int styleId = buffer.getInt();
+                int count = buffer.getInt();
+                int flags = buffer.get();
+                boolean variable = (flags & FLAG_VARIABLE_WIDTH) != 0;
+                int shape = flags >>> SHAPE_SHIFT;
+                if (styleId < 0 || styleId >= styleCount || count < 0 || shape >= shapeValues.length) {
+                    throw new IOException("Corrupt stroke data");
+                }
+                store.shapes[i] = (byte) shape;
+                store.styleIds[i] = styleId;
+                store.offsets[i] = offset;
+                store.factorStarts[i] = factorOffset;
+                offset += count;
+                if (variable) {
+                    factorOffset += count;
+                }
+            }
+
+            int total = buffer.getInt();
+            if (total != offset) {
+                throw new IOException("Corrupt stroke data");
+            }
+            store.ensurePointCapacity(total);
+            buffer.asFloatBuffer().get(store.points, 0, total * 2);
+            store.pointCount = total;
+
+            buffer.position(buffer.position() + total * 8);
+            if (buffer.getInt() != factorOffset) {
+                throw new IOException("Corrupt stroke data");
+            }
+            store.ensureFactorCapacity(factorOffset);
+            buffer.asFloatBuffer().get(store.factors, 0, factorOffset);
+            store.factorCount = factorOffset;
+            store.size = strokeCount;
+            return store;
+        } catch (BufferUnderflowException | ArrayIndexOutOfBoundsException | NegativeArraySizeException e) {
+            throw new IOException("Truncated stroke data", e);
+        }
+    }
+}
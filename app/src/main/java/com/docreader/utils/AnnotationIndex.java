@@ -0,0 +1,300 @@
+package com.docreader.utils;
+
+import android.graphics.RectF;
+
+import com.docreader.models.InkStroke;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Uniform-grid spatial index over one page's text annotations and ink strokes.
+ * Coordinates are page-normalized (0-1, y down), the same space the annotations are stored in.
+ * Each entry is registered in every cell its bounds overlap, so hit tests and region queries only
+ * look at the few cells they touch instead of every annotation on the page.
+ */
+public class AnnotationIndex {
+
+    private static final int GRID = 32;
+    // Average Helvetica glyph advance as a fraction of the font size, for text bounds
+    private static final float AVERAGE_CHAR_WIDTH = 0.55f;
+
+    private final float pageWidth;
+    private final float pageHeight;
+    @SuppressWarnings("unchecked")
+    private final List<Entry>[] cells = new List[GRID * GRID];
+    private int nextOrder;
+    private int queryStamp;
+
+    /**
+     * @param pageWidth Page width in points, used to size text and stroke widths
+     * @param pageHeight Page height in points
+     */
+    public AnnotationIndex(float pageWidth, float pageHeight) {
+        this.pageWidth = pageWidth;
+        this.pageHeight = pageHeight;
+    }
+
+    /**
+     * An indexed annotation: either a text annotation or an ink stroke
+     */
+    public static class Entry {
+        private Object annotation;
+        private final RectF bounds = new RectF();
+        private int order;
+        private int stamp;
+
+        public boolean isText() {
+            return annotation instanceof PdfEditManager.TextAnnotation;
+        }
+
+        public PdfEditManager.TextAnnotation getTextAnnotation() {
+            return isText() ? (PdfEditManager.TextAnnotation) annotation : null;
+        }
+
+        public InkStroke getStroke() {
+            return isText() ? null : (InkStroke) annotation;
+        }
+
+        /**
+         * Eraser strokes only remove ink underneath them; they are never hit or selected
+         */
+        boolean isEraser() {
+            return !isText() && getStroke().getTool() == InkStroke.Tool.ERASER;
+        }
+
+        public RectF getBounds() {
+            return new RectF(bounds);
+        }
+    }
+
+    public Entry add(PdfEditManager.TextAnnotation annotation) {
+        return insert(new Entry(), annotation);
+    }
+
+    public Entry add(InkStroke stroke) {
+        return insert(new Entry(), stroke);
+    }
+
+    /**
+     * Point an entry at a moved or replaced annotation and re-bucket it
+     */
+    public void update(Entry entry, Object annotation) {
+        unlink(entry);
+        int order = entry.order;
+        insert(entry, annotation);
+        entry.order = order;
+    }
+
+    public void remove(Entry entry) {
+        unlink(entry);
+    }
+
+    public void clear() {
+        for (int i = 0; i < cells.length; i++) {
+            cells[i] = null;
+        }
+    }
+
+    /**
+     * Find the entry for an annotation object, or null if it is not indexed
+     */
+    public Entry find(Object annotation) {
+        RectF bounds = new RectF();
+        boundsOf(annotation, bounds);
+        for (Entry entry : query(bounds)) {
+            if (entry.annotation == annotation) {
+                return entry;
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Topmost annotation under a point
+     * @param tolerance Extra hit radius as a fraction of the page width
+     */
+    public Entry hitTest(float x, float y, float tolerance) {
+        float toleranceY = tolerance * pageWidth / pageHeight;
+        Entry best = null;
+
+        for (Entry entry : query(new RectF(x - tolerance, y - toleranceY, x + tolerance, y + toleranceY))) {
+            if (entry.isEraser() || best != null && entry.order < best.order) {
+                continue;
+            }
+            boolean hit;
+            if (entry.isText()) {
+                hit = x >= entry.bounds.left - tolerance && x <= entry.bounds.right + tolerance
+                        && y >= entry.bounds.top - toleranceY && y <= entry.bounds.bottom + toleranceY;
+            } else {
+                hit = strokeDistance(entry.getStroke(), x, y) <= entry.getStroke().getWidth() / 2 + tolerance;
+            }
+            if (hit) {
+                best = entry;
+            }
+        }
+        return best;
+    }
+
+    /**
+     * Annotations whose bounds intersect a rectangle, or lie fully inside it, in drawing order
+     */
+    public List<Entry> findInRect(RectF rect, boolean fullyInside) {
+        List<Entry> result = new ArrayList<>();
+        for (Entry entry : query(rect)) {
+            if (entry.isEraser()) {
+                continue;
+            }
+            if (fullyInside ? rect.contains(entry.bounds) : RectF.intersects(rect, entry.bounds)) {
+                result.add(entry);
+            }
+        }
+        result.sort((a, b) -> Integer.compare(a.order, b.order));
+        return result;
+    }
+
+    /**
+     * Union of the entries' bounds, i.e. the region to redraw after changing them; null if empty
+     */
+    public static RectF unionBounds(List<Entry> entries) {
+        RectF union = null;
+        for (Entry entry : entries) {
+            if (union == null) {
+                union = new RectF(entry.bounds);
+            } else {
+                union.union(entry.bounds);
+            }
+        }
+        return union;
+    }
+
+    private Entry insert(Entry entry, Object annotation) {
+        entry.annotation = annotation;
+        entry.order = nextOrder++;
+        boundsOf(annotation, entry.bounds);
+
+        int left = cell(entry.bounds.left);
+        int right = cell(entry.bounds.right);
+        int top = cell(entry.bounds.top);
+        int bottom = cell(entry.bounds.bottom);
+        for (int row = top; row <= bottom; row++) {
+            for (int col = left; col <= right; col++) {
+                int index = row * GRID + col;
+                if (cells[index] == null) {
+                    cells[index] = new ArrayList<>(4);
+                }
+                cells[index].add(entry);
+            }
+        }
+        return entry;
+    }
+
+    private void unlink(Entry entry) {
+        int left = cell(entry.bounds.left);
+        int right = cell(entry.bounds.right);
+        int top = cell(entry.bounds.top);
+        int bottom = cell(entry.bounds.bottom);
+        for (int row = top; row <= bottom; row++) {
+            for (int col = left; col <= right; col++) {
+                List<Entry> list = cells[row * GRID + col];
+                if (list != null) {
+                    list.remove(entry);
+                }
+            }
+        }
+    }
+
+    /**
+     * Candidate entries from the cells a rectangle touches, each reported once
+     */
+    private List<Entry> query(RectF rect) {
+        int stamp = ++queryStamp;
+        List<Entry> result = new ArrayList<>();
+
+        int left = cell(rect.left);
+        int right = cell(rect.right);
+        int top = cell(rect.top);
+        int bottom = cell(rect.bottom);
+        for (int row = top; row <= bottom; row++) {
+            for (int col = left; col <= right; col++) {
+                List<Entry> list = cells[row * GRID + col];
+                if (list == null) {
+                    continue;
+                }
+                for (Entry entry : list) {
+                    if (entry.stamp != stamp) {
+                        entry.stamp = stamp;
+                        result.add(entry);
+                    }
+                }
+            }
+        }
+        return result;
+    }
+
+    private static int cell(float coordinate) {
+        return Math.max(0, Math.min(GRID - 1, (int) (coordinate * GRID)));
+    }
+
+    private void boundsOf(Object annotation, RectF out) {
+        if (annotation instanceof PdfEditManager.TextAnnotation) {
+            PdfEditManager.TextAnnotation text = (PdfEditManager.TextAnnotation) annotation;
+            // (x, y) is the baseline start; the text rises above it
+            float width = text.text.length() * text.fontSize * AVERAGE_CHAR_WIDTH / pageWidth;
+            float ascent = text.fontSize * 0.8f / pageHeight;
+            float descent = text.fontSize * 0.25f / pageHeight;
+            out.set(text.x, text.y - ascent, text.x + width, text.y + descent);
+            return;
+        }
+
+        InkStroke stroke = (InkStroke) annotation;
+        float[] points = stroke.getPoints();
+        float left = Float.MAX_VALUE;
+        float top = Float.MAX_VALUE;
+        float right = -Float.MAX_VALUE;
+        float bottom = -Float.MAX_VALUE;
+        for (int i = 0; i < points.length; i += 2) {
+            left = Math.min(left, points[i]);
+            right = Math.max(right, points[i]);
+            top = Math.min(top, points[i + 1]);
+            bottom = Math.max(bottom, points[i + 1]);
+        }
+        float halfWidth = stroke.getWidth() / 2;
+        float halfHeight = halfWidth * pageWidth / pageHeight;
+        out.set(left - halfWidth, top - halfHeight, right + halfWidth, bottom + halfHeight);
+    }
+
+    /**
+     * Distance from a point to the stroke's polyline, measured in page-width units
+     */
+    private float strokeDistance(InkStroke stroke, float x, float y) {
+        float aspect = pageHeight / pageWidth;
+        float[] points = stroke.getPolyline();
+        float px = x;
+        float py = y * aspect;
+        float best = Float.MAX_VALUE;
+
+        float ax = points[0];
+        float ay = points[1] * aspect;
+        if (points.length == 2) {
+            return (float) Math.hypot(px - ax, py - ay);
+        }
+        for (int i = 2; i < points.length; i += 2) {
+            float bx = points[i];
+            float by = points[i + 1] * aspect;
+            best = Math.min(best, segmentDistance(px, py, ax, ay, bx, by));
+            ax = bx;
+            ay = by;
+        }
+        return best;
+    }
+
+    static float segmentDistance(float px, float py, float ax, float ay, float bx, float by) {
+        float dx = bx - ax;
+        float dy = by - ay;
+        float lengthSquared = dx * dx + dy * dy;
+        float t = lengthSquared == 0 ? 0 : ((px - ax) * dx + (py - ay) * dy) / lengthSquared;
+        t = Math.max(0, Math.min(1, t));
+        return (float) Math.hypot(px - (ax + t * dx), py - (ay + t * dy));
+    }
+}
@@ -0,0 +1,418 @@
+package com.docreader.utils;
+
+import android.content.Context;
+
+import com.docreader.models.InkStroke;
+import com.docreader.models.StrokeStore;
+
+import java.io.BufferedInputStream;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.zip.CRC32;
+
+/**
+ * Append-only write-ahead journal of annotation edits for one document.
+ *
+ * Each edit is encoded on the caller's thread and queued; a writer thread appends everything
+ * queued since its last flush in one write and one fsync (group commit), so logging an edit costs
+ * an encode and a queue offer. On reopen the journal is replayed up to the last record with a
+ * valid checksum, and a journal written against a different version of the PDF is discarded.
+ *
+ * Record layout: int payload length, int CRC32 of the payload, payload (type byte + fields).
+ */
+public class AnnotationJournal {
+
+    private static final int MAGIC = 0x44524A31; // "DRJ1"
+    private static final int HEADER_BYTES = 4 + 8;
+
+    private static final byte ADD_TEXT = 1;
+    private static final byte REMOVE_TEXT = 2;
+    private static final byte CLEAR_PAGE = 4;
+    private static final byte REMOVE_STROKE = 6;
+    private static final byte MOVE_TEXT = 7;
+    // Strokes as one StrokeStore blob
+    private static final byte ADD_STROKES_PACKED = 10;
+    // An import together with the imported text and strokes
+    private static final byte NATIVE_IMPORT = 11;
+    // Strokes put back between others, e.g. by undoing an erase
+    private static final byte INSERT_STROKES = 12;
+
+    private static final Object CLOSE = new Object();
+
+    /**
+     * Receives replayed operations in journal order
+     */
+    public interface Replayer {
+        void addText(int pageIndex, PdfEditManager.TextAnnotation annotation);
+        void removeText(int pageIndex, int annotationIndex);
+        void addStrokes(int pageIndex, List<InkStroke> strokes);
+        void insertStrokes(int pageIndex, int[] positions, List<InkStroke> strokes);
+        void removeStroke(int pageIndex, int strokeIndex);
+        void moveText(int pageIndex, int annotationIndex, float dx, float dy);
+        void nativeImported(int pageIndex, List<PdfEditManager.TextAnnotation> annotations,
+                            List<InkStroke> strokes);
+        void clearPage(int pageIndex);
+    }
+
+    private final File file;
+    private final long fingerprint;
+    private final LinkedBlockingQueue<Object> queue = new LinkedBlockingQueue<>();
+    private Thread writerThread;
+
+    public AnnotationJournal(Context context, String pdfPath) {
+        File pdf = new File(pdfPath);
+        File dir = new File(context.getFilesDir(), "journals");
+        this.file = new File(dir, Integer.toHexString(pdf.getAbsolutePath().hashCode()) + ".journal");
+
+        long print;
+        try {
+            print = PdfMetadataCache.fingerprint(pdf);
+        } catch (IOException e) {
+            print = 0;
+        }
+        this.fingerprint = print;
+    }
+
+    /**
+     * Replay the journal into the replayer and start accepting new records
+     * @return Number of operations replayed
+     */
+    public int open(Replayer replayer) {
+        int replayed = 0;
+        long validLength = 0;
+
+        if (file.exists()) {
+            try (DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(file)))) {
+                if (in.readInt() == MAGIC && in.readLong() == fingerprint) {
+                    validLength = HEADER_BYTES;
+                    CRC32 crc = new CRC32();
+                    while (true) {
+                        int length = in.readInt();
+                        int checksum = in.readInt();
+                        if (length <= 0 || length > file.length()) {
+                            break;
+                        }
+                        byte[] payload = new byte[length];
+                        in.readFully(payload);
+
+                        crc.reset();
+                        crc.update(payload, 0, length);
+                        if ((int) crc.getValue() != checksum) {
+                            break;
+                        }
+                        apply(payload, replayer);
+                        validLength += 8 + length;
+                        replayed++;
+                    }
+                }
+            } catch (EOFException e) {
+                // Torn tail from a crash mid-write; everything before it is intact
+            } catch (IOException e) {
+                e.printStackTrace();
+            }
+        }
+
+        try {
+            prepareFile(validLength);
+        } catch (IOException e) {
+            e.printStackTrace();
+        }
+
+        writerThread = new Thread(this::runWriter, "annotation-journal");
+        writerThread.setDaemon(true);
+        writerThread.start();
+        return replayed;
+    }
+
+    /**
+     * Drop any torn tail, or start a fresh journal if there was nothing valid to keep
+     */
+    private void prepareFile(long validLength) throws IOException {
+        if (validLength >= HEADER_BYTES) {
+            try (RandomAccessFile raf = new RandomAccessFile(file, "rw")) {
+                raf.setLength(validLength);
+            }
+        } else {
+            writeSnapshot(new ArrayList<>());
+        }
+    }
+
+    public void logAddText(int pageIndex, PdfEditManager.TextAnnotation annotation) {
+        append(encodeAddText(pageIndex, annotation));
+    }
+
+    public void logRemoveText(int pageIndex, int annotationIndex) {
+        append(encode(REMOVE_TEXT, pageIndex, out -> out.writeInt(annotationIndex)));
+    }
+
+    public void logAddStrokes(int pageIndex, List<InkStroke> strokes) {
+        append(encodeAddStrokes(pageIndex, strokes));
+    }
+
+    /**
+     * @param positions Ascending positions the strokes have in the page's list afterwards
+     */
+    public void logInsertStrokes(int pageIndex, int[] positions, List<InkStroke> strokes) {
+        append(encode(INSERT_STROKES, pageIndex, out -> {
+            out.writeInt(positions.length);
+            for (int position : positions) {
+                out.writeInt(position);
+            }
+            writeStrokes(out, strokes);
+        }));
+    }
+
+    public void logRemoveStroke(int pageIndex, int strokeIndex) {
+        append(encode(REMOVE_STROKE, pageIndex, out -> out.writeInt(strokeIndex)));
+    }
+
+    public void logMoveText(int pageIndex, int annotationIndex, float dx, float dy) {
+        append(encode(MOVE_TEXT, pageIndex, out -> {
+            out.writeInt(annotationIndex);
+            out.writeFloat(dx);
+            out.writeFloat(dy);
+        }));
+    }
+
+    public void logNativeImport(int pageIndex, List<PdfEditManager.TextAnnotation> annotations,
+                                List<InkStroke> strokes) {
+        append(encodeNativeImport(pageIndex, annotations, strokes));
+    }
+
+    public void logClearPage(int pageIndex) {
+        append(encode(CLEAR_PAGE, pageIndex, out -> { }));
+    }
+
+    /**
+     * Discard the whole journal, e.g. after the edits were saved and cleared
+     */
+    public void reset() {
+        queue.offer(new ArrayList<byte[]>());
+    }
+
+    /**
+     * Stop the writer once everything queued so far is on disk
+     */
+    public void close() {
+        queue.offer(CLOSE);
+    }
+
+    private void append(byte[] record) {
+        if (record != null) {
+            queue.offer(record);
+        }
+    }
+
+    // Writer thread
+
+    @SuppressWarnings("unchecked")
+    private void runWriter() {
+        List<Object> batch = new ArrayList<>();
+        ByteArrayOutputStream pending = new ByteArrayOutputStream();
+
+        try {
+            while (true) {
+                batch.add(queue.take());
+                queue.drainTo(batch);
+
+                boolean closing = false;
+                try {
+                    for (Object item : batch) {
+                        if (item == CLOSE) {
+                            closing = true;
+                        } else if (item instanceof byte[]) {
+                            pending.write((byte[]) item);
+                        } else {
+                            // Snapshot: whatever was pending is superseded by it
+                            pending.reset();
+                            writeSnapshot((List<byte[]>) item);
+                        }
+                    }
+
+                    if (pending.size() > 0) {
+                        try (FileOutputStream out = new FileOutputStream(file, true)) {
+                            pending.writeTo(out);
+                            out.getFD().sync();
+                        }
+                    }
+                } catch (IOException e) {
+                    // The edits are still in memory; only crash safety for this batch is lost
+                    e.printStackTrace();
+                }
+                pending.reset();
+                batch.clear();
+
+                if (closing) {
+                    return;
+                }
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    /**
+     * Atomically replace the journal with a header plus the given records
+     */
+    private void writeSnapshot(List<byte[]> records) throws IOException {
+        File dir = file.getParentFile();
+        if (dir != null && !dir.exists() && !dir.mkdirs()) {
+            throw new IOException("Cannot create " + dir);
+        }
+
+        File temp = new File(file.getPath() + ".tmp");
+        try (FileOutputStream out = new FileOutputStream(temp)) {
+            DataOutputStream data = new DataOutputStream(out);
+            data.writeInt(MAGIC);
+            data.writeLong(fingerprint);
+            for (byte[] record : records) {
+                data.write(record);
+            }
+            data.flush();
+            out.getFD().sync();
+        }
+        if (!temp.renameTo(file)) {
+            temp.delete();
+            throw new IOException("Cannot replace " + file);
+        }
+    }
+
+    // Encoding
+
+    private interface Fields {
+        void write(DataOutputStream out) throws IOException;
+    }
+
+    private static byte[] encode(byte type, int pageIndex, Fields fields) {
+        try {
+            ByteArrayOutputStream payload = new ByteArrayOutputStream(64);
+            DataOutputStream out = new DataOutputStream(payload);
+            out.writeByte(type);
+            out.writeInt(pageIndex);
+            fields.write(out);
+            out.flush();
+
+            byte[] bytes = payload.toByteArray();
+            CRC32 crc = new CRC32();
+            crc.update(bytes, 0, bytes.length);
+
+            ByteArrayOutputStream record = new ByteArrayOutputStream(bytes.length + 8);
+            DataOutputStream recordOut = new DataOutputStream(record);
+            recordOut.writeInt(bytes.length);
+            recordOut.writeInt((int) crc.getValue());
+            recordOut.write(bytes);
+            recordOut.flush();
+            return record.toByteArray();
+        } catch (IOException e) {
+            // Only in-memory streams are involved
+            return null;
+        }
+    }
+
+    private static byte[] encodeAddText(int pageIndex, PdfEditManager.TextAnnotation annotation) {
+        return encode(ADD_TEXT, pageIndex, out -> writeText(out, annotation));
+    }
+
+    private static byte[] encodeAddStrokes(int pageIndex, List<InkStroke> strokes) {
+        return encode(ADD_STROKES_PACKED, pageIndex, out -> writeStrokes(out, strokes));
+    }
+
+    private static byte[] encodeNativeImport(int pageIndex, List<PdfEditManager.TextAnnotation> annotations,
+                                             List<InkStroke> strokes) {
+        return encode(NATIVE_IMPORT, pageIndex, out -> {
+            out.writeInt(annotations.size());
+            for (PdfEditManager.TextAnnotation annotation : annotations) {
+                writeText(out, annotation);
+            }
+            writeStrokes(out, strokes);
+        });
+    }
+
+    private static void writeText(DataOutputStream out, PdfEditManager.TextAnnotation annotation)
+            throws IOException {
+        out.writeFloat(annotation.x);
+        out.writeFloat(annotation.y);
+        out.writeInt(annotation.color);
+        out.writeFloat(annotation.fontSize);
+        out.writeUTF(annotation.text);
+    }
+
+    private static PdfEditManager.TextAnnotation readText(DataInputStream in) throws IOException {
+        float x = in.readFloat();
+        float y = in.readFloat();
+        int color = in.readInt();
+        float fontSize = in.readFloat();
+        String text = in.readUTF();
+        return new PdfEditManager.TextAnnotation(x, y, text, color, fontSize);
+    }
+
+    private static void writeStrokes(DataOutputStream out, List<InkStroke> strokes) throws IOException {
+        byte[] packed = StrokeStore.of(strokes).toBytes();
+        out.writeInt(packed.length);
+        out.write(packed);
+    }
+
+    private static List<InkStroke> readStrokes(DataInputStream in) throws IOException {
+        byte[] packed = new byte[in.readInt()];
+        in.readFully(packed);
+        StrokeStore store = StrokeStore.fromBytes(packed);
+        return store.getStrokes(0, store.size());
+    }
+
+    private static void apply(byte[] payload, Replayer replayer) throws IOException {
+        DataInputStream in = new DataInputStream(new ByteArrayInputStream(payload));
+        byte type = in.readByte();
+        int pageIndex = in.readInt();
+
+        switch (type) {
+            case ADD_TEXT:
+                replayer.addText(pageIndex, readText(in));
+                break;
+            case REMOVE_TEXT:
+                replayer.removeText(pageIndex, in.readInt());
+                break;
+            case ADD_STROKES_PACKED:
+                replayer.addStrokes(pageIndex, readStrokes(in));
+                break;
+            case INSERT_STROKES: {
+                int[] positions = new int[in.readInt()];
+                for (int i = 0; i < positions.length; i++) {
+                    positions[i] = in.readInt();
+                }
+                replayer.insertStrokes(pageIndex, positions, readStrokes(in));
+                break;
+            }
+            case REMOVE_STROKE:
+                replayer.removeStroke(pageIndex, in.readInt());
+                break;
+            case MOVE_TEXT:
+                replayer.moveText(pageIndex, in.readInt(), in.readFloat(), in.readFloat());
+                break;
+            case NATIVE_IMPORT: {
+                int count = in.readInt();
+                List<PdfEditManager.TextAnnotation> annotations = new ArrayList<>(count);
+                for (int i = 0; i < count; i++) {
+                    annotations.add(readText(in));
+                }
+                replayer.nativeImported(pageIndex, annotations, readStrokes(in));
+                break;
+            }
+            case CLEAR_PAGE:
+                replayer.clearPage(pageIndex);
+                break;
+            default:
+                throw new IOException("Unknown journal record type " + type);
+        }
+    }
+}
@@ -0,0 +1,279 @@
+package com.docreader.utils;
+
+import android.os.Process;
+
+import java.io.File;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.PriorityQueue;
+import java.util.concurrent.Callable;
+import java.util.concurrent.Future;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.PriorityBlockingQueue;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * App-wide executor for document operations.
+ * Runs on a bounded thread pool; operations on the same document run one at a time in
+ * priority order, while operations on different documents run in parallel.
+ * Submitting an operation whose coalesce key matches one still waiting for the same
+ * document returns the pending operation instead of queueing a duplicate.
+ */
+public class DocumentOperationExecutor {
+
+    public enum Priority {
+        /** User is waiting on the result (page edits, saves) */
+        INTERACTIVE,
+        /** Long-running work that may yield to interactive operations (merge, split, compress) */
+        BATCH
+    }
+
+    private static final int MAX_THREADS = Math.max(2, Math.min(4, Runtime.getRuntime().availableProcessors() - 1));
+    private static final long KEEP_ALIVE_SECONDS = 30;
+
+    private static DocumentOperationExecutor instance;
+
+    private final ThreadPoolExecutor pool;
+    private final Object lock = new Object();
+    private final Map<String, DocumentQueue> documentQueues = new HashMap<>();
+    private final Map<String, OperationTask<?>> pendingByKey = new HashMap<>();
+    private final AtomicLong sequence = new AtomicLong();
+
+    // Metrics
+    private final AtomicInteger queued = new AtomicInteger();
+    private final AtomicInteger running = new AtomicInteger();
+    private final AtomicLong submitted = new AtomicLong();
+    private final AtomicLong coalesced = new AtomicLong();
+    private final AtomicLong completed = new AtomicLong();
+    private final AtomicLong totalWaitNanos = new AtomicLong();
+    private final AtomicLong maxWaitNanos = new AtomicLong();
+
+    private DocumentOperationExecutor() {
+        AtomicInteger threadCount = new AtomicInteger();
+        // Each task sets the thread priority of its lane when it starts
+        ThreadFactory factory = runnable -> {
+            Thread thread = new Thread(runnable, "doc-op-" + threadCount.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        };
+
+        pool = new ThreadPoolExecutor(MAX_THREADS, MAX_THREADS, KEEP_ALIVE_SECONDS, TimeUnit.SECONDS,
+                new PriorityBlockingQueue<>(), factory);
+        pool.allowCoreThreadTimeOut(true);
+    }
+
+    public static synchronized DocumentOperationExecutor getInstance() {
+        if (instance == null) {
+            instance = new DocumentOperationExecutor();
+        }
+        return instance;
+    }
+
+    /**
+     * Queue an operation on a document
+     */
+    public Future<?> submit(String documentPath, Priority priority, Runnable operation) {
+        return submit(documentPath, priority, null, () -> {
+            operation.run();
+            return null;
+        });
+    }
+
+    /**
+     * Queue an operation that is dropped if an identical one is already waiting
+     * @param coalesceKey Identifies duplicate requests for the same document, or null to never coalesce
+     */
+    public Future<?> submit(String documentPath, Priority priority, String coalesceKey, Runnable operation) {
+        return submit(documentPath, priority, coalesceKey, () -> {
+            operation.run();
+            return null;
+        });
+    }
+
+    /**
+     * Queue an operation with a result
+     * @param coalesceKey Identifies duplicate requests for the same document, or null to never coalesce
+     */
+    @SuppressWarnings("unchecked")
+    public <T> Future<T> submit(String documentPath, Priority priority, String coalesceKey, Callable<T> operation) {
+        String documentKey = documentPath != null ? new File(documentPath).getAbsolutePath() : "";
+        String pendingKey = coalesceKey != null ? documentKey + '\u0000' + coalesceKey : null;
+
+        synchronized (lock) {
+            if (pendingKey != null) {
+                OperationTask<?> pending = pendingByKey.get(pendingKey);
+                if (pending != null && !pending.isCancelled()) {
+                    coalesced.incrementAndGet();
+                    return (Future<T>) pending;
+                }
+            }
+
+            OperationTask<T> task = new OperationTask<>(operation, documentKey, pendingKey, priority,
+                    sequence.getAndIncrement());
+            submitted.incrementAndGet();
+            queued.incrementAndGet();
+            if (pendingKey != null) {
+                pendingByKey.put(pendingKey, task);
+            }
+
+            DocumentQueue queue = documentQueues.get(documentKey);
+            if (queue == null) {
+                queue = new DocumentQueue();
+                documentQueues.put(documentKey, queue);
+            }
+
+            if (queue.active) {
+                queue.pending.add(task);
+            } else {
+                queue.active = true;
+                pool.execute(task);
+            }
+            return task;
+        }
+    }
+
+    /**
+     * Whether an operation with this coalesce key is queued for the document and not yet started,
+     * i.e. whether submitting another one now would be dropped
+     */
+    public boolean isPending(String documentPath, String coalesceKey) {
+        String documentKey = documentPath != null ? new File(documentPath).getAbsolutePath() : "";
+        synchronized (lock) {
+            OperationTask<?> pending = pendingByKey.get(documentKey + '\u0000' + coalesceKey);
+            return pending != null && !pending.isCancelled();
+        }
+    }
+
+    /**
+     * Number of operations waiting for the same document, including any running one
+     */
+    public int getQueueDepth(String documentPath) {
+        synchronized (lock) {
+            DocumentQueue queue = documentQueues.get(new File(documentPath).getAbsolutePath());
+            return queue == null ? 0 : queue.pending.size() + (queue.active ? 1 : 0);
+        }
+    }
+
+    public Metrics getMetrics() {
+        long done = completed.get();
+        return new Metrics(queued.get(), running.get(), submitted.get(), coalesced.get(), done,
+                done > 0 ? totalWaitNanos.get() / done / 1_000_000L : 0,
+                maxWaitNanos.get() / 1_000_000L);
+    }
+
+    private void onStarted(OperationTask<?> task) {
+        synchronized (lock) {
+            if (task.pendingKey != null && pendingByKey.get(task.pendingKey) == task) {
+                pendingByKey.remove(task.pendingKey);
+            }
+        }
+        queued.decrementAndGet();
+        running.incrementAndGet();
+
+        long wait = System.nanoTime() - task.enqueuedNanos;
+        totalWaitNanos.addAndGet(wait);
+        long max;
+        while (wait > (max = maxWaitNanos.get()) && !maxWaitNanos.compareAndSet(max, wait)) {
+            // Retry until the maximum is published
+        }
+    }
+
+    private void onFinished(OperationTask<?> task) {
+        running.decrementAndGet();
+        completed.incrementAndGet();
+
+        synchronized (lock) {
+            DocumentQueue queue = documentQueues.get(task.documentKey);
+            OperationTask<?> next = queue.pending.poll();
+            if (next != null) {
+                pool.execute(next);
+            } else {
+                documentQueues.remove(task.documentKey);
+            }
+        }
+    }
+
+    /**
+     * Serial queue of operations for one document
+     */
+    private static class DocumentQueue {
+        final PriorityQueue<OperationTask<?>> pending = new PriorityQueue<>();
+        boolean active;
+    }
+
+    private class OperationTask<T> extends FutureTask<T> implements Comparable<OperationTask<?>> {
+        final String documentKey;
+        final String pendingKey;
+        final Priority priority;
+        final long order;
+        final long enqueuedNanos = System.nanoTime();
+
+        OperationTask(Callable<T> callable, String documentKey, String pendingKey, Priority priority, long order) {
+            super(callable);
+            this.documentKey = documentKey;
+            this.pendingKey = pendingKey;
+            this.priority = priority;
+            this.order = order;
+        }
+
+        @Override
+        public void run() {
+            onStarted(this);
+            Process.setThreadPriority(priority == Priority.INTERACTIVE
+                    ? Process.THREAD_PRIORITY_DEFAULT : Process.THREAD_PRIORITY_BACKGROUND);
+            try {
+                super.run();
+            } finally {
+                onFinished(this);
+            }
+        }
+
+        @Override
+        protected void setException(Throwable t) {
+            // Kept in the future, where nobody may look; log it so it is never silent
+            t.printStackTrace();
+            super.setException(t);
+        }
+
+        @Override
+        public int compareTo(OperationTask<?> other) {
+            int byPriority = priority.compareTo(other.priority);
+            return byPriority != 0 ? byPriority : Long.compare(order, other.order);
+        }
+    }
+
+    /**
+     * Snapshot of executor statistics
+     */
+    public static class Metrics {
+        public final int queueDepth;
+        public final int running;
+        public final long submitted;
+        public final long coalesced;
+        public final long completed;
+        public final long averageWaitMillis;
+        public final long maxWaitMillis;
+
+        Metrics(int queueDepth, int running, long submitted, long coalesced, long completed,
+                long averageWaitMillis, long maxWaitMillis) {
+            this.queueDepth = queueDepth;
+            this.running = running;
+            this.submitted = submitted;
+            this.coalesced = coalesced;
+            this.completed = completed;
+            this.averageWaitMillis = averageWaitMillis;
+            this.maxWaitMillis = maxWaitMillis;
+        }
+
+        @Override
+        public String toString() {
+            return "queued=" + queueDepth + " running=" + running + " submitted=" + submitted
+                    + " coalesced=" + coalesced + " completed=" + completed
+                    + " avgWait=" + averageWaitMillis + "ms maxWait=" + maxWaitMillis + "ms";
+        }
+    }
+}
@@ -0,0 +1,272 @@
+package com.docreader.utils;
+
+import java.util.Arrays;
+import java.util.function.IntConsumer;
+
+/**
+ * Compact selection of 1-based page numbers stored as inclusive ranges.
+ * A selection such as "1-100000" costs a single range regardless of how many pages it covers.
+ *
+ * A PageSet is either a sorted set (ranges ascending, merged, no duplicates) or an
+ * ordered sequence that keeps ranges in the order they were given, e.g. for reordering.
+ */
+public final class PageSet {
+
+    private static final PageSet EMPTY = new PageSet(new int[0], 0, true);
+
+    // Flat pairs: start0, end0, start1, end1, ...
+    private final int[] ranges;
+    private final int rangeCount;
+    private final boolean sorted;
+    private PageSet sortedView;
+
+    private PageSet(int[] ranges, int rangeCount, boolean sorted) {
+        this.ranges = ranges;
+        this.rangeCount = rangeCount;
+        this.sorted = sorted;
+        if (sorted) {
+            this.sortedView = this;
+        }
+    }
+
+    /**
+     * Empty selection
+     */
+    public static PageSet empty() {
+        return EMPTY;
+    }
+
+    /**
+     * Selection containing a single page
+     */
+    public static PageSet of(int page) {
+        return range(page, page);
+    }
+
+    /**
+     * Selection containing pages start..end (inclusive)
+     */
+    public static PageSet range(int start, int end) {
+        if (start < 1 || end < start) {
+            return EMPTY;
+        }
+        return new PageSet(new int[]{start, end}, 1, true);
+    }
+
+    /**
+     * Selection containing every page of a document
+     */
+    public static PageSet all(int pageCount) {
+        return range(1, pageCount);
+    }
+
+    /**
+     * Parse a page specification such as "1-5,8,10-" into a sorted set.
+     * Open ranges extend to pageCount; pages outside 1..pageCount are dropped.
+     * @throws IllegalArgumentException if the specification is malformed
+     */
+    public static PageSet parse(String spec, int pageCount) {
+        return parseSequence(spec, pageCount).sorted();
+    }
+
+    /**
+     * Parse a page specification keeping the given order, e.g. "3,1,2" or "10-,1-9".
+     * @throws IllegalArgumentException if the specification is malformed
+     */
+    public static PageSet parseSequence(String spec, int pageCount) {
+        if (spec == null || spec.trim().isEmpty()) {
+            throw new IllegalArgumentException("Empty page specification");
+        }
+
+        Builder builder = new Builder();
+        for (String part : spec.split(",")) {
+            part = part.trim();
+            if (part.isEmpty()) continue;
+
+            int start;
+            int end;
+            int dash = part.indexOf('-');
+            if (dash < 0) {
+                start = Integer.parseInt(part);
+                end = start;
+            } else {
+                String left = part.substring(0, dash).trim();
+                String right = part.substring(dash + 1).trim();
+                start = left.isEmpty() ? 1 : Integer.parseInt(left);
+                end = right.isEmpty() ? pageCount : Integer.parseInt(right);
+            }
+
+            builder.addRange(Math.max(start, 1), Math.min(end, pageCount));
+        }
+        return builder.build();
+    }
+
+    /**
+     * Check whether a page is selected. O(log ranges), O(1) for a single range.
+     */
+    public boolean contains(int page) {
+        PageSet set = sorted();
+        int low = 0;
+        int high = set.rangeCount - 1;
+        while (low <= high) {
+            int mid = (low + high) >>> 1;
+            if (page < set.ranges[mid * 2]) {
+                high = mid - 1;
+            } else if (page > set.ranges[mid * 2 + 1]) {
+                low = mid + 1;
+            } else {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Sorted, merged view of this selection (this instance if already sorted)
+     */
+    public PageSet sorted() {
+        if (sortedView == null) {
+            long[] packed = new long[rangeCount];
+            for (int i = 0; i < rangeCount; i++) {
+                packed[i] = ((long) ranges[i * 2] << 32) | (ranges[i * 2 + 1] & 0xFFFFFFFFL);
+            }
+            Arrays.sort(packed);
+
+            Builder builder = new Builder();
+            for (long range : packed) {
+                int start = (int) (range >>> 32);
+                int end = (int) range;
+                int last = builder.count - 1;
+                if (last >= 0 && start <= builder.ranges[last * 2 + 1] + 1) {
+                    builder.ranges[last * 2 + 1] = Math.max(builder.ranges[last * 2 + 1], end);
+                } else {
+                    builder.addRange(start, end);
+                }
+            }
+            sortedView = new PageSet(builder.ranges, builder.count, true);
+        }
+        return sortedView;
+    }
+
+    /**
+     * Pages in 1..pageCount that are not in this selection
+     */
+    public PageSet complement(int pageCount) {
+        PageSet set = sorted();
+        Builder builder = new Builder();
+        int next = 1;
+        for (int i = 0; i < set.rangeCount && next <= pageCount; i++) {
+            builder.addRange(next, Math.min(set.ranges[i * 2] - 1, pageCount));
+            next = set.ranges[i * 2 + 1] + 1;
+        }
+        builder.addRange(next, pageCount);
+        return new PageSet(builder.ranges, builder.count, true);
+    }
+
+    /**
+     * Invoke the consumer for every selected page, in selection order
+     */
+    public void forEachPage(IntConsumer consumer) {
+        for (int i = 0; i < rangeCount; i++) {
+            int end = ranges[i * 2 + 1];
+            for (int page = ranges[i * 2]; page <= end; page++) {
+                consumer.accept(page);
+            }
+        }
+    }
+
+    public boolean isEmpty() {
+        return rangeCount == 0;
+    }
+
+    public boolean isSorted() {
+        return sorted;
+    }
+
+    /**
+     * Number of selected pages (counting duplicates in a sequence)
+     */
+    public long size() {
+        long size = 0;
+        for (int i = 0; i < rangeCount; i++) {
+            size += (long) ranges[i * 2 + 1] - ranges[i * 2] + 1;
+        }
+        return size;
+    }
+
+    public int getRangeCount() {
+        return rangeCount;
+    }
+
+    public int getRangeStart(int rangeIndex) {
+        return ranges[rangeIndex * 2];
+    }
+
+    public int getRangeEnd(int rangeIndex) {
+        return ranges[rangeIndex * 2 + 1];
+    }
+
+    @Override
+    public String toString() {
+        StringBuilder sb = new StringBuilder();
+        for (int i = 0; i < rangeCount; i++) {
+            if (i > 0) sb.append(',');
+            sb.append(ranges[i * 2]);
+            if (ranges[i * 2 + 1] != ranges[i * 2]) {
+                sb.append('-').append(ranges[i * 2 + 1]);
+            }
+        }
+        return sb.toString();
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        if (this == o) return true;
+        if (!(o instanceof PageSet)) return false;
+        PageSet other = (PageSet) o;
+        return sorted == other.sorted && rangeCount == other.rangeCount
+                && Arrays.equals(Arrays.copyOf(ranges, rangeCount * 2),
+                Arrays.copyOf(other.ranges, other.rangeCount * 2));
+    }
+
+    @Override
+    public int hashCode() {
+        return Arrays.hashCode(Arrays.copyOf(ranges, rangeCount * 2)) * 31 + (sorted ? 1 : 0);
+    }
+
+    /**
+     * Builds an ordered page sequence; adjacent ascending pages are folded into one range.
+     */
+    public static final class Builder {
+        private int[] ranges = new int[8];
+        private int count;
+
+        public Builder addPage(int page) {
+            return addRange(page, page);
+        }
+
+        public Builder addRange(int start, int end) {
+            if (start < 1 || end < start) {
+                return this;
+            }
+            if (count > 0 && ranges[count * 2 - 1] + 1 == start) {
+                ranges[count * 2 - 1] = end;
+                return this;
+            }
+            if (count * 2 == ranges.length) {
+                ranges = Arrays.copyOf(ranges, ranges.length * 2);
+            }
+            ranges[count * 2] = start;
+            ranges[count * 2 + 1] = end;
+            count++;
+            return this;
+        }
+
+        public PageSet build() {
+            if (count == 0) {
+                return EMPTY;
+            }
+            return new PageSet(Arrays.copyOf(ranges, count * 2), count, false);
+        }
+    }
+}
@@ -0,0 +1,192 @@
+package com.docreader.utils;
+
+import android.graphics.Bitmap;
+import android.graphics.Rect;
+
+import com.itextpdf.kernel.geom.Rectangle;
+import com.itextpdf.kernel.pdf.CompressionConstants;
+import com.itextpdf.kernel.pdf.PdfName;
+import com.itextpdf.kernel.pdf.PdfNumber;
+import com.itextpdf.kernel.pdf.PdfStream;
+import com.itextpdf.kernel.pdf.canvas.PdfCanvas;
+import com.itextpdf.kernel.pdf.xobject.PdfImageXObject;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.util.zip.Deflater;
+import java.util.zip.DeflaterOutputStream;
+
+/**
+ * Embeds Android bitmaps as PDF image XObjects straight from their pixels.
+ * Colour and alpha are Flate-compressed in bands of rows, so no PNG encode and no full-size
+ * intermediate byte array is needed; only the compressed streams are held in memory.
+ */
+public class PdfBitmapImage {
+
+    private static final int BAND_ROWS = 64;
+
+    /**
+     * Draw a full-page overlay, cropped to its non-transparent area
+     * @return false if the overlay has no visible pixels and nothing was drawn
+     */
+    public static boolean drawOverlay(PdfCanvas canvas, Bitmap overlay, Rectangle pageSize) throws IOException {
+        return drawOverlay(canvas, overlay, pageSize, null);
+    }
+
+    /**
+     * Draw a full-page overlay, reusing an identical image already embedded during this save
+     * @param cache Per-save resource cache, or null to always embed a new image
+     */
+    public static boolean drawOverlay(PdfCanvas canvas, Bitmap overlay, Rectangle pageSize,
+                                      PdfResourceCache cache) throws IOException {
+        Rect bounds = opaqueBounds(overlay);
+        if (bounds == null) {
+            return false;
+        }
+
+        float scaleX = pageSize.getWidth() / overlay.getWidth();
+        float scaleY = pageSize.getHeight() / overlay.getHeight();
+        Rectangle target = new Rectangle(
+                pageSize.getLeft() + bounds.left * scaleX,
+                pageSize.getBottom() + (overlay.getHeight() - bounds.bottom) * scaleY,
+                bounds.width() * scaleX,
+                bounds.height() * scaleY);
+
+        PdfImageXObject image = cache != null
+                ? cache.getImage(overlay, bounds, true)
+                : createXObject(overlay, bounds, true);
+
+        canvas.saveState();
+        canvas.addXObjectFittedIntoRectangle(image, target);
+        canvas.restoreState();
+        return true;
+    }
+
+    /**
+     * Draw a whole bitmap into a rectangle, with a soft mask only if the bitmap has alpha
+     */
+    public static void drawBitmap(PdfCanvas canvas, Bitmap bitmap, Rectangle target) throws IOException {
+        Rect all = new Rect(0, 0, bitmap.getWidth(), bitmap.getHeight());
+        canvas.addXObjectFittedIntoRectangle(createXObject(bitmap, all, bitmap.hasAlpha()), target);
+    }
+
+    /**
+     * Build an RGB image XObject for a region of a bitmap, optionally with an 8-bit soft mask
+     */
+    public static PdfImageXObject createXObject(Bitmap bitmap, Rect region, boolean withAlpha) throws IOException {
+        int width = region.width();
+        int height = region.height();
+
+        ByteArrayOutputStream rgbBytes = new ByteArrayOutputStream();
+        ByteArrayOutputStream alphaBytes = withAlpha ? new ByteArrayOutputStream() : null;
+        Deflater rgbDeflater = new Deflater(Deflater.DEFAULT_COMPRESSION);
+        Deflater alphaDeflater = withAlpha ? new Deflater(Deflater.DEFAULT_COMPRESSION) : null;
+
+        try (DeflaterOutputStream rgbOut = new DeflaterOutputStream(rgbBytes, rgbDeflater, 8192);
+             DeflaterOutputStream alphaOut = withAlpha
+                     ? new DeflaterOutputStream(alphaBytes, alphaDeflater, 8192) : null) {
+
+            int bandRows = Math.min(BAND_ROWS, height);
+            int[] pixels = new int[width * bandRows];
+            byte[] rgb = new byte[width * bandRows * 3];
+            byte[] alpha = withAlpha ? new byte[width * bandRows] : null;
+
+            for (int y = region.top; y < region.bottom; y += bandRows) {
+                int rows = Math.min(bandRows, region.bottom - y);
+                int count = width * rows;
+                bitmap.getPixels(pixels, 0, width, region.left, y, width, rows);
+
+                for (int i = 0, j = 0; i < count; i++) {
+                    int color = pixels[i];
+                    rgb[j++] = (byte) (color >> 16);
+                    rgb[j++] = (byte) (color >> 8);
+                    rgb[j++] = (byte) color;
+                    if (alpha != null) {
+                        alpha[i] = (byte) (color >>> 24);
+                    }
+                }
+
+                rgbOut.write(rgb, 0, count * 3);
+                if (alphaOut != null) {
+                    alphaOut.write(alpha, 0, count);
+                }
+            }
+        } finally {
+            rgbDeflater.end();
+            if (alphaDeflater != null) {
+                alphaDeflater.end();
+            }
+        }
+
+        PdfStream image = imageStream(rgbBytes.toByteArray(), width, height, PdfName.DeviceRGB);
+        if (alphaBytes != null) {
+            image.put(PdfName.SMask, imageStream(alphaBytes.toByteArray(), width, height, PdfName.DeviceGray));
+        }
+        return new PdfImageXObject(image);
+    }
+
+    /**
+     * Bounding box of pixels with non-zero alpha, or null if the bitmap is fully transparent
+     */
+    public static Rect opaqueBounds(Bitmap bitmap) {
+        int width = bitmap.getWidth();
+        int height = bitmap.getHeight();
+        int bandRows = Math.min(BAND_ROWS, height);
+        int[] pixels = new int[width * bandRows];
+
+        int left = width;
+        int top = -1;
+        int right = -1;
+        int bottom = -1;
+
+        for (int y = 0; y < height; y += bandRows) {
+            int rows = Math.min(bandRows, height - y);
+            bitmap.getPixels(pixels, 0, width, 0, y, width, rows);
+
+            for (int row = 0; row < rows; row++) {
+                int offset = row * width;
+                int first = -1;
+                for (int x = 0; x < width; x++) {
+                    if ((pixels[offset + x] >>> 24) != 0) {
+                        first = x;
+                        break;
+                    }
+                }
+                if (first < 0) {
+                    continue;
+                }
+
+                int last = first;
+                for (int x = width - 1; x > first; x--) {
+                    if ((pixels[offset + x] >>> 24) != 0) {
+                        last = x;
+                        break;
+                    }
+                }
+
+                if (top < 0) {
+                    top = y + row;
+                }
+                bottom = y + row;
+                left = Math.min(left, first);
+                right = Math.max(right, last);
+            }
+        }
+
+        return top < 0 ? null : new Rect(left, top, right + 1, bottom + 1);
+    }
+
+    private static PdfStream imageStream(byte[] flateData, int width, int height, PdfName colorSpace) {
+        PdfStream stream = new PdfStream(flateData);
+        // Already deflated; keep iText from compressing it a second time
+        stream.setCompressionLevel(CompressionConstants.NO_COMPRESSION);
+        stream.put(PdfName.Type, PdfName.XObject);
+        stream.put(PdfName.Subtype, PdfName.Image);
+        stream.put(PdfName.Width, new PdfNumber(width));
+        stream.put(PdfName.Height, new PdfNumber(height));
+        stream.put(PdfName.ColorSpace, colorSpace);
+        stream.put(PdfName.BitsPerComponent, new PdfNumber(8));
+        stream.put(PdfName.Filter, PdfName.FlateDecode);
+        return stream;
+    }
+}
@@ -1,38 +1,39 @@
 package com.docreader.utils;
 
 import android.content.Context;
-import android.graphics.Bitmap;
+import android.graphics.RectF;
 import android.os.Environment;
 
-import com.itextpdf.io.image.ImageData;
-import com.itextpdf.io.image.ImageDataFactory;
+import com.docreader.models.InkStroke;
 import com.itextpdf.kernel.geom.PageSize;
 import com.itextpdf.kernel.geom.Rectangle;
 import com.itextpdf.kernel.pdf.PdfDocument;
 import com.itextpdf.kernel.pdf.PdfPage;
 import com.itextpdf.kernel.pdf.PdfReader;
 import com.itextpdf.kernel.pdf.PdfWriter;
+import com.itextpdf.kernel.pdf.StampingProperties;
 import com.itextpdf.kernel.pdf.canvas.PdfCanvas;
 import com.itextpdf.layout.Document;
 import com.itextpdf.layout.element.Image;
 import com.itextpdf.layout.element.Paragraph;
 import com.itextpdf.kernel.colors.ColorConstants;
-import com.itextpdf.kernel.colors.DeviceRgb;
 import com.itextpdf.kernel.font.PdfFont;
-import com.itextpdf.kernel.font.PdfFontFactory;
-import com.itextpdf.io.font.constants.StandardFonts;
+import com.itextpdf.kernel.pdf.extgstate.PdfExtGState;
 
-import java.io.ByteArrayOutputStream;
 import java.io.File;
 import java.io.FileOutputStream;
 import java.io.IOException;
 import java.text.SimpleDateFormat;
 import java.util.ArrayList;
+import java.util.Collections;
 import java.util.Date;
 import java.util.HashMap;
+import java.util.HashSet;
 import java.util.List;
 import java.util.Locale;
 import java.util.Map;
+import java.util.Set;
+import java.util.TreeSet;
 
 /**
  * Manager class for handling PDF editing operations.
@@ -40,14 +41,139 @@ import java.util.Map;
  */
 public class PdfEditManager {
 
+    public enum SaveMode {
+        /** Draw edits into the page content streams */
+        FLATTEN,
+        /** Write edits as /FreeText and /Ink annotations in an incremental update */
+        ANNOTATIONS
+    }
+
     private Context context;
     private String originalPdfPath;
     private Map<Integer, List<TextAnnotation>> textAnnotations = new HashMap<>();
-    private Map<Integer, Bitmap> drawingOverlays = new HashMap<>();
+    private Map<Integer, List<InkStroke>> inkStrokes = new HashMap<>();
+    private AnnotationJournal journal;
+    // Built lazily per page on the first spatial query, then kept in step with every edit
+    private Map<Integer, AnnotationIndex> indexes = new HashMap<>();
+    // Pages whose own native annotations were loaded into the editor and are rewritten on save
+    private Set<Integer> importedNativePages = new HashSet<>();
+    // Something was added, changed or removed since the editor was empty; imports alone don't count
+    private boolean edited;
+    private SaveMode saveMode = SaveMode.FLATTEN;
 
     public PdfEditManager(Context context, String pdfPath) {
         this.context = context;
         this.originalPdfPath = pdfPath;
+        this.journal = new AnnotationJournal(context, pdfPath);
+        journal.open(new AnnotationJournal.Replayer() {
+            @Override
+            public void addText(int pageIndex, TextAnnotation annotation) {
+                putTextAnnotation(pageIndex, annotation);
+                edited = true;
+            }
+
+            @Override
+            public void removeText(int pageIndex, int annotationIndex) {
+                dropTextAnnotation(pageIndex, annotationIndex);
+                edited = true;
+            }
+
+            @Override
+            public void addStrokes(int pageIndex, List<InkStroke> strokes) {
+                putStrokes(pageIndex, strokes);
+                edited = true;
+            }
+
+            @Override
+            public void insertStrokes(int pageIndex, int[] positions, List<InkStroke> strokes) {
+                placeStrokes(pageIndex, positions, strokes);
+                edited = true;
+            }
+
+            @Override
+            public void removeStroke(int pageIndex, int strokeIndex) {
+                dropStroke(pageIndex, strokeIndex);
+                edited = true;
+            }
+
+            @Override
+            public void moveText(int pageIndex, int annotationIndex, float dx, float dy) {
+                edited = true;
+                List<TextAnnotation> annotations = textAnnotations.get(pageIndex);
+                if (annotations != null && annotationIndex < annotations.size()) {
+                    shiftTextAnnotation(pageIndex, annotations.get(annotationIndex), dx, dy);
+                }
+            }
+
+            @Override
+            public void nativeImported(int pageIndex, List<TextAnnotation> annotations, List<InkStroke> strokes) {
+                importedNativePages.add(pageIndex);
+                for (TextAnnotation annotation : annotations) {
+                    putTextAnnotation(pageIndex, annotation);
+                }
+                if (!strokes.isEmpty()) {
+                    putStrokes(pageIndex, strokes);
+                }
+            }
+
+            @Override
+            public void clearPage(int pageIndex) {
+                textAnnotations.remove(pageIndex);
+                inkStrokes.remove(pageIndex);
+                indexes.remove(pageIndex);
+                edited = true;
+            }
+        });
+    }
+
+    public void setSaveMode(SaveMode saveMode) {
+        this.saveMode = saveMode;
+    }
+
+    public SaveMode getSaveMode() {
+        return saveMode;
+    }
+
+    /**
+     * Read annotations this app saved natively in the PDF (safe to call off the UI thread)
+     */
+    public PdfNativeAnnotations.Contents readNativeAnnotations() throws IOException {
+        return PdfNativeAnnotations.read(originalPdfPath);
+    }
+
+    /**
+     * Load natively saved annotations into the editor; the next save replaces them
+     * instead of adding a second copy. Imported annotations alone are not unsaved changes.
+     * @return Pages imported now; pages already in the editor are skipped
+     */
+    public Set<Integer> importNativeAnnotations(PdfNativeAnnotations.Contents contents) {
+        TreeSet<Integer> pages = new TreeSet<>(contents.textAnnotations.keySet());
+        pages.addAll(contents.inkStrokes.keySet());
+        Set<Integer> imported = new TreeSet<>();
+        for (int pageIndex : pages) {
+            if (!importedNativePages.add(pageIndex)) {
+                // Already in the editor
+                continue;
+            }
+            List<TextAnnotation> annotations = contents.textAnnotations.getOrDefault(pageIndex, new ArrayList<>());
+            List<InkStroke> strokes = contents.inkStrokes.getOrDefault(pageIndex, new ArrayList<>());
+            for (TextAnnotation annotation : annotations) {
+                putTextAnnotation(pageIndex, annotation);
+            }
+            if (!strokes.isEmpty()) {
+                putStrokes(pageIndex, strokes);
+            }
+            journal.logNativeImport(pageIndex, annotations, strokes);
+            imported.add(pageIndex);
+        }
+        return imported;
+    }
+
+    /**
+     * Stop journaling; everything logged so far is still written out
+     */
+    public void close() {
+        journal.close();
     }
 
     /**
@@ -55,20 +181,233 @@ public class PdfEditManager {
      */
     public void addTextAnnotation(int pageIndex, float x, float y, String text, int color, float fontSize) {
         TextAnnotation annotation = new TextAnnotation(x, y, text, color, fontSize);
+        putTextAnnotation(pageIndex, annotation);
+        journal.logAddText(pageIndex, annotation);
+        edited = true;
+    }
 
+    private void putTextAnnotation(int pageIndex, TextAnnotation annotation) {
         if (!textAnnotations.containsKey(pageIndex)) {
             textAnnotations.put(pageIndex, new ArrayList<>());
         }
         textAnnotations.get(pageIndex).add(annotation);
+
+        AnnotationIndex index = indexes.get(pageIndex);
+        if (index != null) {
+            index.add(annotation);
+        }
+    }
+
+    /**
+     * Add vector ink strokes to a page, after any strokes already stored for it
+     */
+    public void addStrokes(int pageIndex, List<InkStroke> strokes) {
+        if (strokes.isEmpty()) {
+            return;
+        }
+        putStrokes(pageIndex, strokes);
+        journal.logAddStrokes(pageIndex, strokes);
+        edited = true;
+    }
+
+    /**
+     * Insert strokes between the ones already stored for a page, e.g. strokes the drawing view
+     * brought back by undoing an erase. Strokes that all go at the end are logged as added.
+     * @param positions Ascending positions the strokes have in the page's list afterwards
+     */
+    public void insertStrokes(int pageIndex, int[] positions, List<InkStroke> strokes) {
+        if (strokes.isEmpty()) {
+            return;
+        }
+        int before = getStrokes(pageIndex).size();
+        if (positions[0] == before && positions[positions.length - 1] == before + positions.length - 1) {
+            addStrokes(pageIndex, strokes);
+            return;
+        }
+        placeStrokes(pageIndex, positions, strokes);
+        journal.logInsertStrokes(pageIndex, positions, strokes);
+        edited = true;
+    }
+
+    /**
+     * Remove strokes from a page, e.g. ones erased or undone in the drawing view
+     * @param positions Ascending positions the strokes have in the page's list before
+     */
+    public void removeStrokes(int pageIndex, int[] positions) {
+        // Highest position first so the journaled indices stay valid on replay
+        for (int i = positions.length - 1; i >= 0; i--) {
+            if (dropStroke(pageIndex, positions[i])) {
+                journal.logRemoveStroke(pageIndex, positions[i]);
+                edited = true;
+            }
+        }
+    }
+
+    private void placeStrokes(int pageIndex, int[] positions, List<InkStroke> strokes) {
+        if (!inkStrokes.containsKey(pageIndex)) {
+            inkStrokes.put(pageIndex, new ArrayList<>());
+        }
+        List<InkStroke> pageStrokes = inkStrokes.get(pageIndex);
+        for (int i = 0; i < positions.length; i++) {
+            pageStrokes.add(Math.min(positions[i], pageStrokes.size()), strokes.get(i));
+        }
+    }
+
+    private void putStrokes(int pageIndex, List<InkStroke> strokes) {
+        if (!inkStrokes.containsKey(pageIndex)) {
+            inkStrokes.put(pageIndex, new ArrayList<>());
+        }
+        inkStrokes.get(pageIndex).addAll(strokes);
+    }
+
+    private boolean dropStroke(int pageIndex, int strokeIndex) {
+        List<InkStroke> strokes = inkStrokes.get(pageIndex);
+        if (strokes == null || strokeIndex < 0 || strokeIndex >= strokes.size()) {
+            return false;
+        }
+        strokes.remove(strokeIndex);
+        return true;
+    }
+
+    private void shiftTextAnnotation(int pageIndex, TextAnnotation annotation, float dx, float dy) {
+        AnnotationIndex index = indexes.get(pageIndex);
+        AnnotationIndex.Entry entry = index != null ? index.find(annotation) : null;
+        annotation.x += dx;
+        annotation.y += dy;
+        if (entry != null) {
+            index.update(entry, annotation);
+        }
+    }
+
+    private void unindex(int pageIndex, Object annotation) {
+        AnnotationIndex index = indexes.get(pageIndex);
+        if (index != null) {
+            AnnotationIndex.Entry entry = index.find(annotation);
+            if (entry != null) {
+                index.remove(entry);
+            }
+        }
     }
 
     /**
-     * Set the drawing overlay bitmap for a specific page
+     * Spatial index over a page's text annotations, built on first use. Ink is owned by the
+     * drawing view and edited through its renderer, so strokes are not indexed here.
      */
-    public void setDrawingOverlay(int pageIndex, Bitmap bitmap) {
-        if (bitmap != null && !bitmap.isRecycled()) {
-            drawingOverlays.put(pageIndex, bitmap.copy(Bitmap.Config.ARGB_8888, false));
+    private AnnotationIndex indexFor(int pageIndex) {
+        AnnotationIndex index = indexes.get(pageIndex);
+        if (index == null) {
+            // Page size only scales text bounds; fall back to A4 when not cached yet
+            float width = PageSize.A4.getWidth();
+            float height = PageSize.A4.getHeight();
+            PdfMetadataCache.Metadata metadata = PdfMetadataCache.getInstance().peek(originalPdfPath);
+            if (metadata != null && pageIndex < metadata.getPageCount()) {
+                width = metadata.getPageWidth(pageIndex + 1);
+                height = metadata.getPageHeight(pageIndex + 1);
+            }
+
+            index = new AnnotationIndex(width, height);
+            for (TextAnnotation annotation : textAnnotations.getOrDefault(pageIndex, new ArrayList<>())) {
+                index.add(annotation);
+            }
+            indexes.put(pageIndex, index);
         }
+        return index;
+    }
+
+    /**
+     * Topmost text annotation under a point
+     * @param x Normalized X position (0-1)
+     * @param y Normalized Y position (0-1)
+     * @param tolerance Extra hit radius as a fraction of the page width
+     * @return The hit entry, or null if nothing is there
+     */
+    public AnnotationIndex.Entry hitTest(int pageIndex, float x, float y, float tolerance) {
+        return indexFor(pageIndex).hitTest(x, y, tolerance);
+    }
+
+    /**
+     * Text annotations intersecting (or, if fullyInside, contained in) a normalized rectangle
+     */
+    public List<AnnotationIndex.Entry> findAnnotationsInRect(int pageIndex, RectF rect, boolean fullyInside) {
+        return indexFor(pageIndex).findInRect(rect, fullyInside);
+    }
+
+    /**
+     * Move a group of text annotations by a normalized offset
+     * @return The region to redraw (old and new positions), or null if nothing moved
+     */
+    public RectF moveAnnotations(int pageIndex, List<AnnotationIndex.Entry> entries, float dx, float dy) {
+        RectF dirty = AnnotationIndex.unionBounds(entries);
+        List<TextAnnotation> annotations = textAnnotations.getOrDefault(pageIndex, new ArrayList<>());
+
+        for (AnnotationIndex.Entry entry : entries) {
+            int position = indexOfInstance(annotations, entry.getTextAnnotation());
+            if (position >= 0) {
+                shiftTextAnnotation(pageIndex, entry.getTextAnnotation(), dx, dy);
+                journal.logMoveText(pageIndex, position, dx, dy);
+                edited = true;
+            }
+        }
+
+        RectF moved = AnnotationIndex.unionBounds(entries);
+        if (dirty != null && moved != null) {
+            dirty.union(moved);
+        }
+        return dirty;
+    }
+
+    /**
+     * Delete a group of text annotations
+     * @return The region to redraw, or null if nothing was deleted
+     */
+    public RectF deleteAnnotations(int pageIndex, List<AnnotationIndex.Entry> entries) {
+        RectF dirty = AnnotationIndex.unionBounds(entries);
+        List<TextAnnotation> annotations = textAnnotations.getOrDefault(pageIndex, new ArrayList<>());
+        List<Integer> positions = new ArrayList<>();
+
+        for (AnnotationIndex.Entry entry : entries) {
+            int position = indexOfInstance(annotations, entry.getTextAnnotation());
+            if (position >= 0) {
+                positions.add(position);
+            }
+        }
+
+        // Highest position first so the journaled indices stay valid on replay
+        positions.sort(Collections.reverseOrder());
+        for (int position : positions) {
+            removeTextAnnotation(pageIndex, position);
+        }
+        return dirty;
+    }
+
+    private static <T> int indexOfInstance(List<T> list, T item) {
+        for (int i = 0; i < list.size(); i++) {
+            if (list.get(i) == item) {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    /**
+     * Pages that have ink strokes, in ascending order
+     */
+    public List<Integer> getInkPages() {
+        List<Integer> pages = new ArrayList<>();
+        for (Map.Entry<Integer, List<InkStroke>> entry : inkStrokes.entrySet()) {
+            if (!entry.getValue().isEmpty()) {
+                pages.add(entry.getKey());
+            }
+        }
+        Collections.sort(pages);
+        return pages;
+    }
+
+    /**
+     * Get the ink strokes stored for a page
+     */
+    public List<InkStroke> getStrokes(int pageIndex) {
+        return inkStrokes.getOrDefault(pageIndex, new ArrayList<>());
     }
 
     /**
@@ -76,12 +415,10 @@ public class PdfEditManager {
      */
     public void clearPageAnnotations(int pageIndex) {
         textAnnotations.remove(pageIndex);
-        if (drawingOverlays.containsKey(pageIndex)) {
-            Bitmap bitmap = drawingOverlays.remove(pageIndex);
-            if (bitmap != null && !bitmap.isRecycled()) {
-                bitmap.recycle();
-            }
-        }
+        inkStrokes.remove(pageIndex);
+        indexes.remove(pageIndex);
+        journal.logClearPage(pageIndex);
+        edited = true;
     }
 
     /**
@@ -89,19 +426,41 @@ public class PdfEditManager {
      */
     public void clearAllAnnotations() {
         textAnnotations.clear();
-        for (Bitmap bitmap : drawingOverlays.values()) {
-            if (bitmap != null && !bitmap.isRecycled()) {
-                bitmap.recycle();
+        inkStrokes.clear();
+        indexes.clear();
+        importedNativePages.clear();
+        journal.reset();
+        edited = false;
+    }
+
+    /**
+     * Copy the editor's state for a save that runs on another thread, so the save never reads
+     * collections that are still being edited
+     * @param ink Strokes per page, e.g. from the drawing view, saved in place of the editor's strokes
+     */
+    public Snapshot snapshot(Map<Integer, List<InkStroke>> ink) {
+        Map<Integer, List<TextAnnotation>> text = new HashMap<>();
+        for (Map.Entry<Integer, List<TextAnnotation>> entry : textAnnotations.entrySet()) {
+            List<TextAnnotation> copies = new ArrayList<>(entry.getValue().size());
+            for (TextAnnotation annotation : entry.getValue()) {
+                copies.add(new TextAnnotation(annotation.x, annotation.y, annotation.text,
+                        annotation.color, annotation.fontSize));
             }
+            text.put(entry.getKey(), copies);
         }
-        drawingOverlays.clear();
+        Map<Integer, List<InkStroke>> strokes = new HashMap<>();
+        for (Map.Entry<Integer, List<InkStroke>> entry : ink.entrySet()) {
+            strokes.put(entry.getKey(), new ArrayList<>(entry.getValue()));
+        }
+        return new Snapshot(text, strokes, new HashSet<>(importedNativePages));
     }
 
     /**
-     * Check if there are any unsaved changes
+     * Check if there are any unsaved changes; annotations imported from the PDF and left as they
+     * were are not
      */
     public boolean hasChanges() {
-        return !textAnnotations.isEmpty() || !drawingOverlays.isEmpty();
+        return edited;
     }
 
     /**
@@ -109,6 +468,21 @@ public class PdfEditManager {
      * @return The path to the saved file, or null if failed
      */
     public String saveEditedPdf() throws IOException {
+        return saveEditedPdf(new PdfJob());
+    }
+
+    /**
+     * Save the edited PDF to a new file, reporting per-page progress to the job. Call on the thread
+     * that edits this manager; from a worker thread, save a snapshot instead.
+     */
+    public String saveEditedPdf(PdfJob job) throws IOException {
+        return saveEditedPdf(job, snapshot(inkStrokes));
+    }
+
+    /**
+     * Save a snapshot of the editor to a new file
+     */
+    public String saveEditedPdf(PdfJob job, Snapshot snapshot) throws IOException {
         // Generate output file name
         String timestamp = new SimpleDateFormat("yyyyMMdd_HHmmss", Locale.getDefault()).format(new Date());
         File originalFile = new File(originalPdfPath);
@@ -123,90 +497,154 @@ public class PdfEditManager {
         }
 
         File outputFile = new File(outputDir, baseName + "_edited_" + timestamp + ".pdf");
-        return saveEditedPdfTo(outputFile.getAbsolutePath());
+        return saveEditedPdfTo(outputFile.getAbsolutePath(), job, snapshot);
     }
 
     /**
      * Save the edited PDF to a specific path
      */
     public String saveEditedPdfTo(String outputPath) throws IOException {
-        PdfReader reader = new PdfReader(originalPdfPath);
+        return saveEditedPdfTo(outputPath, new PdfJob());
+    }
+
+    /**
+     * Save the edited PDF to a specific path; the output is deleted if the job is cancelled
+     */
+    public String saveEditedPdfTo(String outputPath, PdfJob job) throws IOException {
+        return saveEditedPdfTo(outputPath, job, snapshot(inkStrokes));
+    }
+
+    /**
+     * Save a snapshot of the editor to a specific path
+     */
+    public String saveEditedPdfTo(String outputPath, PdfJob job, Snapshot snapshot) throws IOException {
+        PdfMetadataCache.getInstance().invalidate(outputPath);
+        job.addOutput(outputPath);
+
+        boolean nativeMode = saveMode == SaveMode.ANNOTATIONS;
+        PdfReader reader = PdfReaderFactory.open(originalPdfPath);
         PdfWriter writer = new PdfWriter(outputPath);
-        PdfDocument pdfDoc = new PdfDocument(reader, writer);
+        // Annotations go into an incremental update; the original bytes are copied unchanged
+        PdfDocument pdfDoc = nativeMode
+                ? new PdfDocument(reader, writer, new StampingProperties().useAppendMode())
+                : new PdfDocument(reader, writer);
 
         try {
             int numberOfPages = pdfDoc.getNumberOfPages();
 
-            for (int i = 1; i <= numberOfPages; i++) {
-                int pageIndex = i - 1;
-                PdfPage page = pdfDoc.getPage(i);
+            // Only pages with edits are touched; the rest are copied through unchanged
+            TreeSet<Integer> editedPages = new TreeSet<>(snapshot.textAnnotations.keySet());
+            editedPages.addAll(snapshot.inkStrokes.keySet());
+            editedPages.addAll(snapshot.importedNativePages);
+            editedPages.removeIf(pageIndex -> pageIndex < 0 || pageIndex >= numberOfPages);
+            job.start(editedPages.size(), new File(originalPdfPath).length());
+
+            // Fonts, colours, graphics states and images are created once per save
+            PdfResourceCache resources = new PdfResourceCache(pdfDoc);
+
+            for (int pageIndex : editedPages) {
+                PdfPage page = pdfDoc.getPage(pageIndex + 1);
                 Rectangle pageSize = page.getPageSize();
-                PdfCanvas canvas = new PdfCanvas(page);
+                if (snapshot.importedNativePages.contains(pageIndex)) {
+                    // The editor holds the current version of these; drop the old copies
+                    PdfNativeAnnotations.removeOwn(page);
+                }
 
-                // Add drawing overlay if exists
-                if (drawingOverlays.containsKey(pageIndex)) {
-                    Bitmap overlay = drawingOverlays.get(pageIndex);
-                    if (overlay != null && !overlay.isRecycled()) {
-                        addBitmapToPage(canvas, overlay, pageSize);
+                List<InkStroke> strokes = snapshot.inkStrokes.get(pageIndex);
+                if (strokes != null && strokes.isEmpty()) {
+                    strokes = null;
+                }
+                List<TextAnnotation> annotations = snapshot.textAnnotations.get(pageIndex);
+
+                // Pixel erasing has no annotation equivalent, so such pages keep flattened ink
+                boolean inkAsAnnotations = nativeMode && strokes != null && !containsEraser(strokes);
+                boolean needsCanvas = (strokes != null && !inkAsAnnotations)
+                        || (annotations != null && !nativeMode);
+                PdfCanvas canvas = needsCanvas ? new PdfCanvas(page) : null;
+
+                // Add vector ink
+                if (strokes != null) {
+                    if (inkAsAnnotations) {
+                        for (InkStroke stroke : strokes) {
+                            PdfNativeAnnotations.addStroke(page, stroke, resources, pdfDoc);
+                        }
+                    } else {
+                        PdfInkWriter.draw(canvas, strokes, pageSize, resources, pdfDoc);
                     }
                 }
 
                 // Add text annotations
-                if (textAnnotations.containsKey(pageIndex)) {
-                    List<TextAnnotation> annotations = textAnnotations.get(pageIndex);
+                if (annotations != null) {
                     for (TextAnnotation annotation : annotations) {
-                        addTextToPage(canvas, annotation, pageSize);
+                        if (nativeMode) {
+                            PdfNativeAnnotations.addText(page, annotation, resources, pdfDoc);
+                        } else {
+                            addTextToPage(canvas, annotation, pageSize, resources);
+                        }
                     }
                 }
+
+                if (canvas != null) {
+                    canvas.release();
+                }
+                job.pageDone();
             }
 
             pdfDoc.close();
             return outputPath;
 
+        } catch (PdfJob.CancelledException e) {
+            closeQuietly(pdfDoc);
+            job.discardOutputs();
+            throw e;
         } catch (Exception e) {
-            pdfDoc.close();
+            closeQuietly(pdfDoc);
             // Delete failed output file
-            new File(outputPath).delete();
+            job.discardOutputs();
             throw new IOException("Failed to save PDF: " + e.getMessage(), e);
         }
     }
 
-    private void addBitmapToPage(PdfCanvas canvas, Bitmap bitmap, Rectangle pageSize) throws IOException {
-        ByteArrayOutputStream stream = new ByteArrayOutputStream();
-        bitmap.compress(Bitmap.CompressFormat.PNG, 100, stream);
-        byte[] bitmapData = stream.toByteArray();
-
-        ImageData imageData = ImageDataFactory.create(bitmapData);
-
-        // Scale bitmap to fit page
-        float scaleX = pageSize.getWidth() / bitmap.getWidth();
-        float scaleY = pageSize.getHeight() / bitmap.getHeight();
+    private static boolean containsEraser(List<InkStroke> strokes) {
+        for (InkStroke stroke : strokes) {
+            if (stroke.getTool() == InkStroke.Tool.ERASER) {
+                return true;
+            }
+        }
+        return false;
+    }
 
-        canvas.saveState();
-        canvas.addImageFittedIntoRectangle(imageData,
-                new Rectangle(0, 0, pageSize.getWidth(), pageSize.getHeight()), false);
-        canvas.restoreState();
+    private void closeQuietly(PdfDocument pdfDoc) {
+        try {
+            if (!pdfDoc.isClosed()) {
+                pdfDoc.close();
+            }
+        } catch (Exception ignored) {
+            // The partial output is deleted by the caller
+        }
     }
 
-    private void addTextToPage(PdfCanvas canvas, TextAnnotation annotation, Rectangle pageSize) {
+    private void addTextToPage(PdfCanvas canvas, TextAnnotation annotation, Rectangle pageSize,
+                               PdfResourceCache resources) {
         try {
-            PdfFont font = PdfFontFactory.createFont(StandardFonts.HELVETICA);
+            PdfFont font = resources.getFont(annotation.text);
 
             // Convert Android coordinates to PDF coordinates (flip Y axis)
             float pdfX = annotation.x * pageSize.getWidth();
             float pdfY = pageSize.getHeight() - (annotation.y * pageSize.getHeight());
 
-            // Convert Android color to iText color
-            int red = (annotation.color >> 16) & 0xFF;
-            int green = (annotation.color >> 8) & 0xFF;
-            int blue = annotation.color & 0xFF;
-
+            PdfExtGState opacity = resources.getOpacityState((annotation.color >>> 24) & 0xFF);
+            canvas.saveState();
+            if (opacity != null) {
+                canvas.setExtGState(opacity);
+            }
             canvas.beginText()
                     .setFontAndSize(font, annotation.fontSize)
-                    .setColor(new DeviceRgb(red, green, blue), true)
+                    .setColor(resources.getColor(annotation.color), true)
                     .moveText(pdfX, pdfY)
                     .showText(annotation.text)
                     .endText();
+            canvas.restoreState();
 
         } catch (Exception e) {
             e.printStackTrace();
@@ -224,17 +662,42 @@ public class PdfEditManager {
      * Remove a specific text annotation
      */
     public void removeTextAnnotation(int pageIndex, int annotationIndex) {
+        if (dropTextAnnotation(pageIndex, annotationIndex)) {
+            journal.logRemoveText(pageIndex, annotationIndex);
+            edited = true;
+        }
+    }
+
+    private boolean dropTextAnnotation(int pageIndex, int annotationIndex) {
         if (textAnnotations.containsKey(pageIndex)) {
             List<TextAnnotation> annotations = textAnnotations.get(pageIndex);
             if (annotationIndex >= 0 && annotationIndex < annotations.size()) {
-                annotations.remove(annotationIndex);
+                unindex(pageIndex, annotations.remove(annotationIndex));
+                return true;
             }
         }
+        return false;
     }
 
     /**
      * Text annotation data class
      */
+    /**
+     * The editor's annotations at one point in time, as written by a save
+     */
+    public static class Snapshot {
+        private final Map<Integer, List<TextAnnotation>> textAnnotations;
+        private final Map<Integer, List<InkStroke>> inkStrokes;
+        private final Set<Integer> importedNativePages;
+
+        private Snapshot(Map<Integer, List<TextAnnotation>> textAnnotations,
+                         Map<Integer, List<InkStroke>> inkStrokes, Set<Integer> importedNativePages) {
+            this.textAnnotations = textAnnotations;
+            this.inkStrokes = inkStrokes;
+            this.importedNativePages = importedNativePages;
+        }
+    }
+
     public static class TextAnnotation {
         public float x;      // Normalized X position (0-1)
         public float y;      // Normalized Y position (0-1)
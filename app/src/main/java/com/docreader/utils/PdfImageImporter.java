@@ -0,0 +1,278 @@
+package com.docreader.utils;
+
+import android.content.Context;
+import android.content.res.AssetFileDescriptor;
+import android.graphics.Bitmap;
+import android.graphics.BitmapFactory;
+import android.graphics.Canvas;
+import android.graphics.Color;
+import android.graphics.Matrix;
+import android.media.ExifInterface;
+import android.net.Uri;
+
+import com.itextpdf.io.image.ImageDataFactory;
+import com.itextpdf.kernel.geom.PageSize;
+import com.itextpdf.kernel.geom.Rectangle;
+import com.itextpdf.kernel.pdf.PdfDocument;
+import com.itextpdf.kernel.pdf.PdfPage;
+import com.itextpdf.kernel.pdf.canvas.PdfCanvas;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.ArrayDeque;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+/**
+ * Imports many images as PDF pages in a single pass.
+ * Images are decoded in parallel, turned upright by their EXIF orientation, downsampled to the
+ * target DPI for an A4-sized page and re-encoded as JPEG. Only a small window of images is in flight at any time, so memory use
+ * does not grow with the number of images.
+ */
+public class PdfImageImporter {
+
+    public static final int DEFAULT_DPI = 150;
+    public static final int DEFAULT_JPEG_QUALITY = 85;
+
+    private static final int IN_FLIGHT = 3;
+    // Allowed overshoot of inSampleSize decoding before an exact rescale is done
+    private static final float RESCALE_TOLERANCE = 1.25f;
+
+    private final Context context;
+    private final int targetDpi;
+    private final int jpegQuality;
+
+    public PdfImageImporter(Context context) {
+        this(context, DEFAULT_DPI, DEFAULT_JPEG_QUALITY);
+    }
+
+    public PdfImageImporter(Context context, int targetDpi, int jpegQuality) {
+        this.context = context;
+        this.targetDpi = targetDpi;
+        this.jpegQuality = jpegQuality;
+    }
+
+    /**
+     * Append one page per image to the document, in list order
+     */
+    public void addPages(List<Uri> images, PdfDocument destDoc, PdfJob job) throws IOException {
+        ExecutorService decoder = Executors.newFixedThreadPool(Math.min(IN_FLIGHT, Math.max(1, images.size())));
+        ArrayDeque<Future<EncodedImage>> window = new ArrayDeque<>();
+        int next = 0;
+
+        try {
+            while (next < images.size() || !window.isEmpty()) {
+                while (next < images.size() && window.size() < IN_FLIGHT) {
+                    Uri uri = images.get(next++);
+                    window.add(decoder.submit(() -> encode(uri)));
+                }
+
+                EncodedImage image = await(window.poll());
+                PdfPage page = destDoc.addNewPage(new PageSize(image.pageWidth, image.pageHeight));
+                PdfCanvas canvas = new PdfCanvas(page);
+                canvas.addImageFittedIntoRectangle(ImageDataFactory.create(image.jpeg),
+                        new Rectangle(0, 0, image.pageWidth, image.pageHeight), false);
+                canvas.release();
+
+                // Write the page out now so its image data doesn't stay on the heap
+                page.flush();
+                job.pageDone();
+            }
+        } finally {
+            for (Future<EncodedImage> pending : window) {
+                pending.cancel(true);
+            }
+            decoder.shutdownNow();
+        }
+    }
+
+    private EncodedImage await(Future<EncodedImage> future) throws IOException {
+        try {
+            return future.get();
+        } catch (ExecutionException e) {
+            Throwable cause = e.getCause();
+            if (cause instanceof IOException) {
+                throw (IOException) cause;
+            }
+            throw new IOException("Failed to decode image: " + cause, cause);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IOException("Image import interrupted", e);
+        }
+    }
+
+    /**
+     * Decode, downsample and JPEG-encode one image (runs on a decoder thread)
+     */
+    private EncodedImage encode(Uri uri) throws IOException {
+        BitmapFactory.Options bounds = new BitmapFactory.Options();
+        bounds.inJustDecodeBounds = true;
+        try (InputStream in = open(uri)) {
+            BitmapFactory.decodeStream(in, null, bounds);
+        }
+        if (bounds.outWidth <= 0 || bounds.outHeight <= 0) {
+            throw new IOException("Cannot decode image: " + uri);
+        }
+
+        // Camera photos are often stored sideways with an EXIF tag saying how to turn them
+        int orientation = readOrientation(uri);
+        boolean transposed = orientation >= ExifInterface.ORIENTATION_TRANSPOSE;
+        int uprightWidth = transposed ? bounds.outHeight : bounds.outWidth;
+        int uprightHeight = transposed ? bounds.outWidth : bounds.outHeight;
+
+        // Fit the upright image on an A4 page in its own orientation
+        boolean landscape = uprightWidth > uprightHeight;
+        float maxWidth = landscape ? PageSize.A4.getHeight() : PageSize.A4.getWidth();
+        float maxHeight = landscape ? PageSize.A4.getWidth() : PageSize.A4.getHeight();
+        float fit = Math.min(maxWidth / uprightWidth, maxHeight / uprightHeight);
+        float pageWidth = uprightWidth * fit;
+        float pageHeight = uprightHeight * fit;
+
+        // Target size of the image as stored, before it is turned upright
+        int uprightTargetWidth = Math.max(1, Math.round(pageWidth / 72f * targetDpi));
+        int uprightTargetHeight = Math.max(1, Math.round(pageHeight / 72f * targetDpi));
+        int targetWidth = transposed ? uprightTargetHeight : uprightTargetWidth;
+        int targetHeight = transposed ? uprightTargetWidth : uprightTargetHeight;
+
+        BitmapFactory.Options options = new BitmapFactory.Options();
+        options.inSampleSize = sampleSizeFor(bounds.outWidth, bounds.outHeight, targetWidth, targetHeight);
+        Bitmap bitmap;
+        try (InputStream in = open(uri)) {
+            bitmap = BitmapFactory.decodeStream(in, null, options);
+        }
+        if (bitmap == null) {
+            throw new IOException("Cannot decode image: " + uri);
+        }
+
+        if (bitmap.getWidth() > targetWidth * RESCALE_TOLERANCE) {
+            Bitmap scaled = Bitmap.createScaledBitmap(bitmap, targetWidth, targetHeight, true);
+            bitmap.recycle();
+            bitmap = scaled;
+        }
+
+        Matrix upright = orientationMatrix(orientation);
+        if (!upright.isIdentity()) {
+            Bitmap turned = Bitmap.createBitmap(bitmap, 0, 0, bitmap.getWidth(), bitmap.getHeight(), upright, true);
+            if (turned != bitmap) {
+                bitmap.recycle();
+                bitmap = turned;
+            }
+        }
+
+        if (bitmap.hasAlpha()) {
+            // JPEG has no alpha; flatten onto white instead of letting transparency turn black
+            Bitmap opaque = Bitmap.createBitmap(bitmap.getWidth(), bitmap.getHeight(), Bitmap.Config.ARGB_8888);
+            Canvas canvas = new Canvas(opaque);
+            canvas.drawColor(Color.WHITE);
+            canvas.drawBitmap(bitmap, 0, 0, null);
+            bitmap.recycle();
+            bitmap = opaque;
+        }
+
+        ByteArrayOutputStream stream = new ByteArrayOutputStream();
+        bitmap.compress(Bitmap.CompressFormat.JPEG, jpegQuality, stream);
+        bitmap.recycle();
+
+        return new EncodedImage(stream.toByteArray(), pageWidth, pageHeight);
+    }
+
+    /**
+     * Combined size of the image files in bytes; images whose size the provider does not report
+     * count as zero
+     */
+    public long totalSize(List<Uri> images) {
+        long total = 0;
+        for (Uri uri : images) {
+            try (AssetFileDescriptor descriptor = context.getContentResolver().openAssetFileDescriptor(uri, "r")) {
+                if (descriptor != null && descriptor.getLength() != AssetFileDescriptor.UNKNOWN_LENGTH) {
+                    total += descriptor.getLength();
+                }
+            } catch (IOException | SecurityException e) {
+                // Unreadable images fail later, when they are decoded
+            }
+        }
+        return total;
+    }
+
+    /**
+     * EXIF orientation of an image; normal if it has none or it cannot be read
+     */
+    private int readOrientation(Uri uri) {
+        try (InputStream in = open(uri)) {
+            return new ExifInterface(in).getAttributeInt(ExifInterface.TAG_ORIENTATION,
+                    ExifInterface.ORIENTATION_NORMAL);
+        } catch (IOException e) {
+            return ExifInterface.ORIENTATION_NORMAL;
+        }
+    }
+
+    /**
+     * Transform that turns an image stored with an EXIF orientation upright
+     */
+    static Matrix orientationMatrix(int orientation) {
+        Matrix matrix = new Matrix();
+        switch (orientation) {
+            case ExifInterface.ORIENTATION_FLIP_HORIZONTAL:
+                matrix.setScale(-1, 1);
+                break;
+            case ExifInterface.ORIENTATION_ROTATE_180:
+                matrix.setRotate(180);
+                break;
+            case ExifInterface.ORIENTATION_FLIP_VERTICAL:
+                matrix.setScale(1, -1);
+                break;
+            case ExifInterface.ORIENTATION_TRANSPOSE:
+                matrix.setRotate(90);
+                matrix.postScale(-1, 1);
+                break;
+            case ExifInterface.ORIENTATION_ROTATE_90:
+                matrix.setRotate(90);
+                break;
+            case ExifInterface.ORIENTATION_TRANSVERSE:
+                matrix.setRotate(-90);
+                matrix.postScale(-1, 1);
+                break;
+            case ExifInterface.ORIENTATION_ROTATE_270:
+                matrix.setRotate(-90);
+                break;
+            default:
+                break;
+        }
+        return matrix;
+    }
+
+    private InputStream open(Uri uri) throws IOException {
+        InputStream in = context.getContentResolver().openInputStream(uri);
+        if (in == null) {
+            throw new IOException("Cannot open image: " + uri);
+        }
+        return in;
+    }
+
+    /**
+     * Largest power of two that keeps the decoded image at least as large as the target
+     */
+    static int sampleSizeFor(int width, int height, int targetWidth, int targetHeight) {
+        int sampleSize = 1;
+        while (width / (sampleSize * 2) >= targetWidth && height / (sampleSize * 2) >= targetHeight) {
+            sampleSize *= 2;
+        }
+        return sampleSize;
+    }
+
+    private static class EncodedImage {
+        final byte[] jpeg;
+        final float pageWidth;
+        final float pageHeight;
+
+        EncodedImage(byte[] jpeg, float pageWidth, float pageHeight) {
+            this.jpeg = jpeg;
+            this.pageWidth = pageWidth;
+            this.pageHeight = pageHeight;
+        }
+    }
+}
@@ -0,0 +1,241 @@
+package com.docreader.utils;
+
+import com.docreader.models.InkStroke;
+import com.itextpdf.kernel.colors.Color;
+import com.itextpdf.kernel.colors.DeviceGray;
+import com.itextpdf.kernel.geom.Rectangle;
+import com.itextpdf.kernel.pdf.PdfDictionary;
+import com.itextpdf.kernel.pdf.PdfDocument;
+import com.itextpdf.kernel.pdf.PdfName;
+import com.itextpdf.kernel.pdf.canvas.PdfCanvas;
+import com.itextpdf.kernel.pdf.canvas.PdfCanvasConstants;
+import com.itextpdf.kernel.pdf.extgstate.PdfExtGState;
+import com.itextpdf.kernel.pdf.xobject.PdfFormXObject;
+import com.itextpdf.kernel.pdf.xobject.PdfTransparencyGroup;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Writes ink strokes to a page as PDF path operators, so drawings stay sharp at any zoom.
+ *
+ * Eraser strokes are kept vector too: the ink drawn before a run of erasers is painted through a
+ * luminosity soft mask in which the later eraser strokes are black, which hides exactly the pixels
+ * the eraser cleared on screen while leaving ink drawn afterwards untouched.
+ * Variable-width strokes are written as their filled outline polygon, the same one the screen fills.
+ * Recognized shapes are written as exact lines, polygons and ellipse arcs.
+ */
+public class PdfInkWriter {
+
+    /**
+     * Draw strokes in order onto the page
+     */
+    public static void draw(PdfCanvas canvas, List<InkStroke> strokes, Rectangle pageSize,
+                            PdfResourceCache resources, PdfDocument pdfDoc) {
+        if (strokes.isEmpty()) {
+            return;
+        }
+
+        // Split into alternating runs of ink and eraser strokes
+        List<List<InkStroke>> inkRuns = new ArrayList<>();
+        List<PdfFormXObject> eraserRuns = new ArrayList<>();
+        List<InkStroke> run = new ArrayList<>();
+        boolean erasing = false;
+
+        for (InkStroke stroke : strokes) {
+            boolean eraser = stroke.getTool() == InkStroke.Tool.ERASER;
+            if (eraser != erasing && !run.isEmpty()) {
+                addRun(run, erasing, inkRuns, eraserRuns, pageSize, pdfDoc);
+                run = new ArrayList<>();
+            }
+            erasing = eraser;
+            run.add(stroke);
+        }
+        addRun(run, erasing, inkRuns, eraserRuns, pageSize, pdfDoc);
+
+        // A leading eraser run has nothing to erase
+        int firstEraser = strokes.get(0).getTool() == InkStroke.Tool.ERASER ? 1 : 0;
+
+        for (int i = 0; i < inkRuns.size(); i++) {
+            int laterErasers = firstEraser + i;
+            canvas.saveState();
+            if (laterErasers < eraserRuns.size()) {
+                canvas.setExtGState(eraserMask(eraserRuns.subList(laterErasers, eraserRuns.size()), pageSize, pdfDoc));
+            }
+            for (InkStroke stroke : inkRuns.get(i)) {
+                drawStroke(canvas, stroke, pageSize, resources);
+            }
+            canvas.restoreState();
+        }
+    }
+
+    private static void addRun(List<InkStroke> run, boolean erasing, List<List<InkStroke>> inkRuns,
+                               List<PdfFormXObject> eraserRuns, Rectangle pageSize, PdfDocument pdfDoc) {
+        if (!erasing) {
+            inkRuns.add(run);
+            return;
+        }
+
+        // Eraser strokes in black on a transparent form, shared by every mask that needs them
+        PdfFormXObject form = new PdfFormXObject(pageSize);
+        PdfCanvas formCanvas = new PdfCanvas(form, pdfDoc);
+        for (InkStroke stroke : run) {
+            paint(formCanvas, stroke, pageSize, DeviceGray.BLACK);
+        }
+        formCanvas.release();
+        form.makeIndirect(pdfDoc);
+        eraserRuns.add(form);
+    }
+
+    private static PdfExtGState eraserMask(List<PdfFormXObject> erasers, Rectangle pageSize, PdfDocument pdfDoc) {
+        PdfFormXObject mask = new PdfFormXObject(pageSize);
+        PdfTransparencyGroup group = new PdfTransparencyGroup();
+        group.setColorSpace(PdfName.DeviceGray);
+        mask.setGroup(group);
+
+        PdfCanvas maskCanvas = new PdfCanvas(mask, pdfDoc);
+        maskCanvas.setFillColor(DeviceGray.WHITE)
+                .rectangle(pageSize.getLeft(), pageSize.getBottom(), pageSize.getWidth(), pageSize.getHeight())
+                .fill();
+        for (PdfFormXObject eraser : erasers) {
+            maskCanvas.addXObjectWithTransformationMatrix(eraser, 1, 0, 0, 1, 0, 0);
+        }
+        maskCanvas.release();
+
+        PdfDictionary softMask = new PdfDictionary();
+        softMask.put(PdfName.Type, PdfName.Mask);
+        softMask.put(PdfName.S, PdfName.Luminosity);
+        softMask.put(PdfName.G, mask.getPdfObject());
+        return new PdfExtGState().setSoftMask(softMask);
+    }
+
+    private static void drawStroke(PdfCanvas canvas, InkStroke stroke, Rectangle pageSize,
+                                   PdfResourceCache resources) {
+        canvas.saveState();
+        PdfExtGState opacity = resources.getOpacityState((stroke.getColor() >>> 24) & 0xFF);
+        if (opacity != null) {
+            canvas.setExtGState(opacity);
+        }
+        paint(canvas, stroke, pageSize, resources.getColor(stroke.getColor()));
+        canvas.restoreState();
+    }
+
+    /**
+     * Stroke the centre line, or fill the outline of a variable-width stroke, in one colour
+     */
+    static void paint(PdfCanvas canvas, InkStroke stroke, Rectangle pageSize, Color color) {
+        if (stroke.isShape()) {
+            canvas.setStrokeColor(color);
+            traceShape(canvas, stroke, pageSize);
+            canvas.stroke();
+        } else if (stroke.isVariableWidth()) {
+            canvas.setFillColor(color);
+            traceOutline(canvas, stroke, pageSize);
+            canvas.fill();
+        } else {
+            canvas.setStrokeColor(color);
+            tracePath(canvas, stroke, pageSize);
+            canvas.stroke();
+        }
+    }
+
+    /**
+     * Append a recognized shape with round caps and joins, mapped from normalized to page space
+     */
+    static void traceShape(PdfCanvas canvas, InkStroke stroke, Rectangle pageSize) {
+        canvas.setLineWidth(stroke.getWidth() * pageSize.getWidth())
+                .setLineCapStyle(PdfCanvasConstants.LineCapStyle.ROUND)
+                .setLineJoinStyle(PdfCanvasConstants.LineJoinStyle.ROUND);
+
+        float[] p = new float[stroke.getPointCount() * 2];
+        for (int i = 0; i < p.length; i += 2) {
+            p[i] = pageSize.getLeft() + stroke.getPoints()[i] * pageSize.getWidth();
+            p[i + 1] = pageSize.getTop() - stroke.getPoints()[i + 1] * pageSize.getHeight();
+        }
+
+        switch (stroke.getShape()) {
+            case LINE:
+                canvas.moveTo(p[0], p[1]).lineTo(p[2], p[3]);
+                break;
+            case RECTANGLE:
+                canvas.moveTo(p[0], p[1]).lineTo(p[2], p[3]).lineTo(p[4], p[5]).lineTo(p[6], p[7]).closePath();
+                break;
+            case ELLIPSE: {
+                // Cubic quarter arcs mapped like the corners; PDF has no true ellipse
+                float[] c = InkStroke.ellipseCurves(stroke.getPoints(), 0);
+                for (int i = 0; i < c.length; i += 2) {
+                    c[i] = pageSize.getLeft() + c[i] * pageSize.getWidth();
+                    c[i + 1] = pageSize.getTop() - c[i + 1] * pageSize.getHeight();
+                }
+                canvas.moveTo(c[0], c[1]);
+                for (int i = 2; i < c.length; i += 6) {
+                    canvas.curveTo(c[i], c[i + 1], c[i + 2], c[i + 3], c[i + 4], c[i + 5]);
+                }
+                canvas.closePath();
+                break;
+            }
+            case ARROW:
+                canvas.moveTo(p[0], p[1]).lineTo(p[2], p[3]);
+                canvas.moveTo(p[4], p[5]).lineTo(p[2], p[3]).lineTo(p[6], p[7]);
+                break;
+            default:
+                throw new IllegalArgumentException("Not a shape: " + stroke.getShape());
+        }
+    }
+
+    /**
+     * Append the closed outline of a variable-width stroke in page space
+     */
+    static void traceOutline(PdfCanvas canvas, InkStroke stroke, Rectangle pageSize) {
+        float[] outline = StrokeOutline.tessellate(stroke.getPoints(), 0, stroke.getWidthFactors(), 0,
+                stroke.getPointCount(), stroke.getWidth(), pageSize.getLeft(), pageSize.getTop(),
+                pageSize.getWidth(), -pageSize.getHeight());
+        canvas.moveTo(outline[0], outline[1]);
+        for (int i = 2; i < outline.length; i += 2) {
+            canvas.lineTo(outline[i], outline[i + 1]);
+        }
+        canvas.closePath();
+    }
+
+    /**
+     * Append the stroke with round caps and joins, mapped from normalized to page space.
+     * Points are joined by the same midpoint curves the screen draws, each quadratic raised to the
+     * cubic that PDF paths support.
+     */
+    static void tracePath(PdfCanvas canvas, InkStroke stroke, Rectangle pageSize) {
+        float left = pageSize.getLeft();
+        float top = pageSize.getTop();
+        float width = pageSize.getWidth();
+        float height = pageSize.getHeight();
+
+        canvas.setLineWidth(stroke.getWidth() * width)
+                .setLineCapStyle(PdfCanvasConstants.LineCapStyle.ROUND)
+                .setLineJoinStyle(PdfCanvasConstants.LineJoinStyle.ROUND);
+
+        int count = stroke.getPointCount();
+        canvas.moveTo(left + stroke.getX(0) * width, top - stroke.getY(0) * height);
+        if (count == 1) {
+            // A tap: a zero-length segment with round caps draws a dot
+            canvas.lineTo(left + stroke.getX(0) * width, top - stroke.getY(0) * height);
+        }
+        if (count < 2) {
+            return;
+        }
+
+        float startX = left + (stroke.getX(0) + stroke.getX(1)) / 2 * width;
+        float startY = top - (stroke.getY(0) + stroke.getY(1)) / 2 * height;
+        canvas.lineTo(startX, startY);
+        for (int i = 2; i < count; i++) {
+            float controlX = left + stroke.getX(i - 1) * width;
+            float controlY = top - stroke.getY(i - 1) * height;
+            float endX = left + (stroke.getX(i - 1) + stroke.getX(i)) / 2 * width;
+            float endY = top - (stroke.getY(i - 1) + stroke.getY(i)) / 2 * height;
+            canvas.curveTo(startX + (controlX - startX) * 2 / 3, startY + (controlY - startY) * 2 / 3,
+                    endX + (controlX - endX) * 2 / 3, endY + (controlY - endY) * 2 / 3,
+                    endX, endY);
+            startX = endX;
+            startY = endY;
+        }
+        canvas.lineTo(left + stroke.getX(count - 1) * width, top - stroke.getY(count - 1) * height);
+    }
+}
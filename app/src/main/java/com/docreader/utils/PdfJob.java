@@ -0,0 +1,164 @@
+package com.docreader.utils;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Handle for a long-running PDF operation.
+ * Reports per-page progress with throughput and supports cooperative cancellation.
+ * Output files registered with the job are deleted if it is cancelled or fails.
+ */
+public class PdfJob {
+
+    private static final long REPORT_INTERVAL_NANOS = 50_000_000L;
+
+    public interface ProgressListener {
+        /**
+         * Called on the worker thread, at most every 50 ms and once when all pages are done
+         */
+        void onProgress(PdfJob job);
+    }
+
+    /**
+     * Thrown from inside an operation once the job has been cancelled
+     */
+    public static class CancelledException extends IOException {
+        public CancelledException() {
+            super("Operation cancelled");
+        }
+    }
+
+    private final ProgressListener listener;
+    private final List<String> outputs = new ArrayList<>();
+    private volatile boolean cancelled;
+
+    private volatile int totalPages;
+    private volatile int completedPages;
+    private volatile long totalBytes;
+    private volatile long startNanos;
+    private long lastReportNanos;
+
+    public PdfJob() {
+        this(null);
+    }
+
+    public PdfJob(ProgressListener listener) {
+        this.listener = listener;
+        this.startNanos = System.nanoTime();
+    }
+
+    /**
+     * Start timing the job
+     * @param totalPages Number of pages the operation will process
+     * @param totalBytes Size of the input, used for MB/s
+     */
+    public void start(int totalPages, long totalBytes) throws CancelledException {
+        this.totalPages = totalPages;
+        this.totalBytes = totalBytes;
+        this.completedPages = 0;
+        this.startNanos = System.nanoTime();
+        this.lastReportNanos = 0;
+        checkCancelled();
+        report(true);
+    }
+
+    /**
+     * Mark one page as processed; throws if the job was cancelled meanwhile
+     */
+    public void pageDone() throws CancelledException {
+        pagesDone(1);
+    }
+
+    public void pagesDone(int count) throws CancelledException {
+        completedPages += count;
+        report(completedPages >= totalPages);
+        checkCancelled();
+    }
+
+    public void checkCancelled() throws CancelledException {
+        if (cancelled) {
+            throw new CancelledException();
+        }
+    }
+
+    /**
+     * Request cancellation; the operation stops at its next page boundary
+     */
+    public void cancel() {
+        cancelled = true;
+    }
+
+    public boolean isCancelled() {
+        return cancelled;
+    }
+
+    /**
+     * Register a file written by this job so it can be removed on cancellation
+     */
+    public synchronized void addOutput(String path) {
+        outputs.add(path);
+    }
+
+    public synchronized List<String> getOutputs() {
+        return new ArrayList<>(outputs);
+    }
+
+    /**
+     * Delete every output registered so far
+     */
+    public synchronized void discardOutputs() {
+        for (String path : outputs) {
+            new File(path).delete();
+        }
+        outputs.clear();
+    }
+
+    public int getTotalPages() {
+        return totalPages;
+    }
+
+    public int getCompletedPages() {
+        return completedPages;
+    }
+
+    /**
+     * Completed fraction between 0 and 1
+     */
+    public float getFraction() {
+        return totalPages > 0 ? Math.min(1f, (float) completedPages / totalPages) : 0f;
+    }
+
+    public long getElapsedMillis() {
+        return (System.nanoTime() - startNanos) / 1_000_000L;
+    }
+
+    public double getPagesPerSecond() {
+        double seconds = (System.nanoTime() - startNanos) / 1e9;
+        return seconds > 0 ? completedPages / seconds : 0;
+    }
+
+    /**
+     * Input throughput, estimated from the share of pages processed
+     */
+    public double getMegabytesPerSecond() {
+        double seconds = (System.nanoTime() - startNanos) / 1e9;
+        if (seconds <= 0 || totalPages <= 0) {
+            return 0;
+        }
+        double bytes = (double) totalBytes * completedPages / totalPages;
+        return bytes / (1024.0 * 1024.0) / seconds;
+    }
+
+    private void report(boolean force) {
+        if (listener == null) {
+            return;
+        }
+        long now = System.nanoTime();
+        if (force || now - lastReportNanos >= REPORT_INTERVAL_NANOS) {
+            lastReportNanos = now;
+            listener.onProgress(this);
+        }
+    }
+}
@@ -0,0 +1,232 @@
+package com.docreader.utils;
+
+import android.util.LruCache;
+
+import com.itextpdf.kernel.geom.Rectangle;
+import com.itextpdf.kernel.pdf.PdfDocument;
+import com.itextpdf.kernel.pdf.PdfPage;
+import com.itextpdf.kernel.pdf.PdfReader;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.util.zip.CRC32;
+
+/**
+ * Process-wide cache of PDF document metadata (page count, page sizes, rotation, encryption, producer).
+ * Entries are keyed by path and validated against file size, modification time and a content
+ * fingerprint, so repeated queries for an unchanged file never touch the PDF parser.
+ */
+public class PdfMetadataCache {
+
+    private static final int MAX_ENTRIES = 32;
+    private static final int FINGERPRINT_BLOCK = 4096;
+
+    private static PdfMetadataCache instance;
+
+    private final LruCache<String, Metadata> cache = new LruCache<>(MAX_ENTRIES);
+
+    private PdfMetadataCache() {
+    }
+
+    public static synchronized PdfMetadataCache getInstance() {
+        if (instance == null) {
+            instance = new PdfMetadataCache();
+        }
+        return instance;
+    }
+
+    /**
+     * Get metadata for a PDF, parsing the file only if there is no valid cached entry
+     */
+    public Metadata get(String pdfPath) throws IOException {
+        File file = new File(pdfPath);
+        String key = file.getAbsolutePath();
+
+        Metadata cached = cache.get(key);
+        if (cached != null && cached.matches(file)) {
+            return cached;
+        }
+
+        Metadata metadata = read(file);
+        cache.put(key, metadata);
+        return metadata;
+    }
+
+    /**
+     * Get cached metadata without parsing, or null if the file is not cached or has changed
+     */
+    public Metadata peek(String pdfPath) {
+        File file = new File(pdfPath);
+        Metadata cached = cache.get(file.getAbsolutePath());
+        return cached != null && cached.matches(file) ? cached : null;
+    }
+
+    /**
+     * Fill the cache from a document that is already open, avoiding a second parse
+     */
+    public Metadata record(String pdfPath, PdfReader reader, PdfDocument pdfDoc) throws IOException {
+        File file = new File(pdfPath);
+        Metadata metadata = fromDocument(file, reader, pdfDoc);
+        cache.put(file.getAbsolutePath(), metadata);
+        return metadata;
+    }
+
+    /**
+     * Drop the entry for a path that is about to be (re)written
+     */
+    public void invalidate(String pdfPath) {
+        cache.remove(new File(pdfPath).getAbsolutePath());
+    }
+
+    public void clear() {
+        cache.evictAll();
+    }
+
+    private Metadata read(File file) throws IOException {
+        try (PdfReader reader = PdfReaderFactory.open(file);
+             PdfDocument pdfDoc = new PdfDocument(reader)) {
+            return fromDocument(file, reader, pdfDoc);
+        }
+    }
+
+    private Metadata fromDocument(File file, PdfReader reader, PdfDocument pdfDoc) throws IOException {
+        int pageCount = pdfDoc.getNumberOfPages();
+        float[] widths = new float[pageCount];
+        float[] heights = new float[pageCount];
+        int[] rotations = new int[pageCount];
+
+        for (int i = 0; i < pageCount; i++) {
+            PdfPage page = pdfDoc.getPage(i + 1);
+            Rectangle size = page.getPageSize();
+            widths[i] = size.getWidth();
+            heights[i] = size.getHeight();
+            rotations[i] = page.getRotation();
+        }
+
+        String producer = pdfDoc.getDocumentInfo().getProducer();
+
+        return new Metadata(file.getAbsolutePath(), file.length(), file.lastModified(),
+                fingerprint(file), pageCount, widths, heights, rotations,
+                reader.isEncrypted(), producer);
+    }
+
+    /**
+     * CRC32 over the head and tail of the file, where the header, trailer and xref live
+     */
+    static long fingerprint(File file) throws IOException {
+        CRC32 crc = new CRC32();
+        byte[] buffer = new byte[FINGERPRINT_BLOCK];
+
+        try (RandomAccessFile raf = new RandomAccessFile(file, "r")) {
+            long length = raf.length();
+            int read = raf.read(buffer, 0, (int) Math.min(buffer.length, length));
+            if (read > 0) {
+                crc.update(buffer, 0, read);
+            }
+            if (length > FINGERPRINT_BLOCK) {
+                raf.seek(Math.max(FINGERPRINT_BLOCK, length - FINGERPRINT_BLOCK));
+                read = raf.read(buffer);
+                if (read > 0) {
+                    crc.update(buffer, 0, read);
+                }
+            }
+        }
+        return crc.getValue();
+    }
+
+    /**
+     * Immutable snapshot of a PDF's metadata
+     */
+    public static class Metadata {
+        private final String path;
+        private final long size;
+        private final long lastModified;
+        private final long fingerprint;
+        private final int pageCount;
+        private final float[] pageWidths;
+        private final float[] pageHeights;
+        private final int[] pageRotations;
+        private final boolean encrypted;
+        private final String producer;
+
+        Metadata(String path, long size, long lastModified, long fingerprint, int pageCount,
+                 float[] pageWidths, float[] pageHeights, int[] pageRotations,
+                 boolean encrypted, String producer) {
+            this.path = path;
+            this.size = size;
+            this.lastModified = lastModified;
+            this.fingerprint = fingerprint;
+            this.pageCount = pageCount;
+            this.pageWidths = pageWidths;
+            this.pageHeights = pageHeights;
+            this.pageRotations = pageRotations;
+            this.encrypted = encrypted;
+            this.producer = producer;
+        }
+
+        /**
+         * Size and modification time rule out most changes cheaply; the fingerprint catches a
+         * rewrite within the timestamp resolution that kept the size
+         */
+        boolean matches(File file) {
+            if (file.length() != size || file.lastModified() != lastModified) {
+                return false;
+            }
+            try {
+                return fingerprint(file) == fingerprint;
+            } catch (IOException e) {
+                return false;
+            }
+        }
+
+        public String getPath() {
+            return path;
+        }
+
+        public long getSize() {
+            return size;
+        }
+
+        public long getLastModified() {
+            return lastModified;
+        }
+
+        public long getFingerprint() {
+            return fingerprint;
+        }
+
+        public int getPageCount() {
+            return pageCount;
+        }
+
+        /**
+         * Page width in points (1-based page number)
+         */
+        public float getPageWidth(int pageNumber) {
+            return pageWidths[pageNumber - 1];
+        }
+
+        /**
+         * Page height in points (1-based page number)
+         */
+        public float getPageHeight(int pageNumber) {
+            return pageHeights[pageNumber - 1];
+        }
+
+        /**
+         * Page rotation in degrees (1-based page number)
+         */
+        public int getPageRotation(int pageNumber) {
+            return pageRotations[pageNumber - 1];
+        }
+
+        public boolean isEncrypted() {
+            return encrypted;
+        }
+
+        public String getProducer() {
+            return producer;
+        }
+    }
+}
@@ -0,0 +1,463 @@
+package com.docreader.utils;
+
+import com.docreader.models.InkStroke;
+import com.itextpdf.kernel.font.PdfFont;
+import com.itextpdf.kernel.geom.Rectangle;
+import com.itextpdf.kernel.pdf.PdfArray;
+import com.itextpdf.kernel.pdf.PdfDictionary;
+import com.itextpdf.kernel.pdf.PdfDocument;
+import com.itextpdf.kernel.pdf.PdfName;
+import com.itextpdf.kernel.pdf.PdfNumber;
+import com.itextpdf.kernel.pdf.PdfPage;
+import com.itextpdf.kernel.pdf.PdfReader;
+import com.itextpdf.kernel.pdf.PdfString;
+import com.itextpdf.kernel.pdf.annot.PdfAnnotation;
+import com.itextpdf.kernel.pdf.annot.PdfCircleAnnotation;
+import com.itextpdf.kernel.pdf.annot.PdfFreeTextAnnotation;
+import com.itextpdf.kernel.pdf.annot.PdfInkAnnotation;
+import com.itextpdf.kernel.pdf.annot.PdfLineAnnotation;
+import com.itextpdf.kernel.pdf.annot.PdfMarkupAnnotation;
+import com.itextpdf.kernel.pdf.annot.PdfPolyGeomAnnotation;
+import com.itextpdf.kernel.pdf.annot.PdfSquareAnnotation;
+import com.itextpdf.kernel.pdf.canvas.PdfCanvas;
+import com.itextpdf.kernel.pdf.xobject.PdfFormXObject;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.UUID;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * Writes edits as standard PDF annotations (/FreeText for text, /Ink for strokes, /Line, /Square,
+ * /Circle and /Polygon for recognized shapes) with their own appearance streams, and reads them
+ * back for further editing.
+ * Unlike flattening, the page content stream is left alone: annotations can be appended in an
+ * incremental update, hidden or removed by any viewer, and loaded into the editor again.
+ * Annotations written here are tagged through their /NM name so they can be told apart from
+ * annotations made by other tools.
+ */
+public class PdfNativeAnnotations {
+
+    private static final String NAME_PREFIX = "docreader-";
+    // Per-point width factors of a variable-width stroke, on /Ink annotations written here
+    private static final PdfName WIDTHS = new PdfName("DocReaderWidths");
+    // Shape name and defining points in page space, on shape annotations written here
+    private static final PdfName SHAPE = new PdfName("DocReaderShape");
+    // Slack when deciding whether a shape is axis-aligned, in points
+    private static final float AXIS_TOLERANCE = 0.01f;
+    private static final Pattern DA_FONT_SIZE = Pattern.compile("([0-9.]+)\\s+Tf");
+    private static final Pattern DA_RGB = Pattern.compile("([0-9.]+)\\s+([0-9.]+)\\s+([0-9.]+)\\s+rg");
+
+    /**
+     * Annotations read back from a document, keyed by 0-based page index
+     */
+    public static class Contents {
+        public final Map<Integer, List<PdfEditManager.TextAnnotation>> textAnnotations = new HashMap<>();
+        public final Map<Integer, List<InkStroke>> inkStrokes = new HashMap<>();
+        public int count;
+    }
+
+    /**
+     * Add a /FreeText annotation showing the text at the same place flattening would draw it
+     */
+    public static void addText(PdfPage page, PdfEditManager.TextAnnotation annotation,
+                               PdfResourceCache resources, PdfDocument pdfDoc) throws IOException {
+        Rectangle pageSize = page.getPageSize();
+        PdfFont font = resources.getFont(annotation.text);
+        float fontSize = annotation.fontSize;
+
+        float pdfX = annotation.x * pageSize.getWidth();
+        float pdfY = pageSize.getHeight() - (annotation.y * pageSize.getHeight());
+        float width = Math.max(1, font.getWidth(annotation.text, fontSize));
+        float ascent = font.getAscent(annotation.text, fontSize);
+        float descent = font.getDescent(annotation.text, fontSize);
+        Rectangle rect = new Rectangle(pdfX, pdfY + descent, width, ascent - descent);
+
+        PdfFormXObject appearance = new PdfFormXObject(new Rectangle(0, 0, rect.getWidth(), rect.getHeight()));
+        PdfCanvas canvas = new PdfCanvas(appearance, pdfDoc);
+        canvas.beginText()
+                .setFontAndSize(font, fontSize)
+                .setColor(resources.getColor(annotation.color), true)
+                .moveText(0, -descent)
+                .showText(annotation.text)
+                .endText();
+        canvas.release();
+
+        int color = annotation.color;
+        String da = String.format(Locale.US, "/Helv %.2f Tf %.4f %.4f %.4f rg", fontSize,
+                ((color >> 16) & 0xFF) / 255f, ((color >> 8) & 0xFF) / 255f, (color & 0xFF) / 255f);
+
+        PdfFreeTextAnnotation freeText = new PdfFreeTextAnnotation(rect, new PdfString(annotation.text, "UnicodeBig"));
+        freeText.setDefaultAppearance(new PdfString(da));
+        freeText.put(PdfName.BS, borderStyle(0));
+        finish(freeText, color, appearance);
+        page.addAnnotation(freeText);
+    }
+
+    /**
+     * Add an /Ink annotation for a pen or highlighter stroke, or a shape annotation for a shape
+     */
+    public static void addStroke(PdfPage page, InkStroke stroke, PdfResourceCache resources,
+                                 PdfDocument pdfDoc) {
+        if (stroke.isShape()) {
+            addShape(page, stroke, resources, pdfDoc);
+            return;
+        }
+        Rectangle pageSize = page.getPageSize();
+        float left = pageSize.getLeft();
+        float top = pageSize.getTop();
+        float pageWidth = pageSize.getWidth();
+        float pageHeight = pageSize.getHeight();
+        float lineWidth = stroke.getWidth() * pageWidth;
+
+        PdfArray path = new PdfArray();
+        float minX = Float.MAX_VALUE;
+        float minY = Float.MAX_VALUE;
+        float maxX = -Float.MAX_VALUE;
+        float maxY = -Float.MAX_VALUE;
+        for (int i = 0; i < stroke.getPointCount(); i++) {
+            float x = left + stroke.getX(i) * pageWidth;
+            float y = top - stroke.getY(i) * pageHeight;
+            path.add(new PdfNumber(x));
+            path.add(new PdfNumber(y));
+            minX = Math.min(minX, x);
+            minY = Math.min(minY, y);
+            maxX = Math.max(maxX, x);
+            maxY = Math.max(maxY, y);
+        }
+        PdfArray inkList = new PdfArray();
+        inkList.add(path);
+
+        float pad = lineWidth / 2 + 1;
+        Rectangle rect = new Rectangle(minX - pad, minY - pad, maxX - minX + 2 * pad, maxY - minY + 2 * pad);
+
+        // The appearance is drawn in page space; its BBox equals /Rect, so no extra transform is needed
+        PdfFormXObject appearance = new PdfFormXObject(rect);
+        PdfCanvas canvas = new PdfCanvas(appearance, pdfDoc);
+        PdfInkWriter.paint(canvas, stroke, pageSize, resources.getColor(stroke.getColor()));
+        canvas.release();
+
+        int color = stroke.getColor();
+        PdfInkAnnotation ink = new PdfInkAnnotation(rect, inkList);
+        ink.setColor(new float[]{((color >> 16) & 0xFF) / 255f, ((color >> 8) & 0xFF) / 255f, (color & 0xFF) / 255f});
+        ink.put(PdfName.BS, borderStyle(lineWidth));
+        if (stroke.isVariableWidth()) {
+            // /InkList has no widths; other viewers use the appearance, the editor reads these back
+            ink.put(WIDTHS, new PdfArray(stroke.getWidthFactors()));
+        }
+        finish(ink, color, appearance);
+        page.addAnnotation(ink);
+    }
+
+    /**
+     * Lines and arrows become /Line, axis-aligned rectangles and ellipses /Square and /Circle, and
+     * rotated rectangles /Polygon. A rotated ellipse has no annotation type, so it is written as
+     * /Ink along its outline. Every shape also keeps its defining points for reading back.
+     */
+    private static void addShape(PdfPage page, InkStroke stroke, PdfResourceCache resources,
+                                 PdfDocument pdfDoc) {
+        Rectangle pageSize = page.getPageSize();
+        float lineWidth = stroke.getWidth() * pageSize.getWidth();
+        float[] points = toPageSpace(stroke.getPoints(), pageSize);
+
+        // The shape lies within the bounds of its defining points
+        float minX = Float.MAX_VALUE;
+        float minY = Float.MAX_VALUE;
+        float maxX = -Float.MAX_VALUE;
+        float maxY = -Float.MAX_VALUE;
+        for (int i = 0; i < points.length; i += 2) {
+            minX = Math.min(minX, points[i]);
+            minY = Math.min(minY, points[i + 1]);
+            maxX = Math.max(maxX, points[i]);
+            maxY = Math.max(maxY, points[i + 1]);
+        }
+        float pad = lineWidth / 2 + 1;
+        Rectangle rect = new Rectangle(minX - pad, minY - pad, maxX - minX + 2 * pad, maxY - minY + 2 * pad);
+
+        PdfFormXObject appearance = new PdfFormXObject(rect);
+        PdfCanvas canvas = new PdfCanvas(appearance, pdfDoc);
+        PdfInkWriter.paint(canvas, stroke, pageSize, resources.getColor(stroke.getColor()));
+        canvas.release();
+
+        PdfMarkupAnnotation annotation;
+        // /Square and /Circle draw their border inside /Rect, one point in from it here
+        PdfArray borderInset = new PdfArray(new float[]{1, 1, 1, 1});
+        switch (stroke.getShape()) {
+            case LINE:
+            case ARROW: {
+                PdfLineAnnotation line = new PdfLineAnnotation(rect, new float[]{points[0], points[1], points[2], points[3]});
+                if (stroke.getShape() == InkStroke.Shape.ARROW) {
+                    PdfArray endings = new PdfArray();
+                    endings.add(PdfName.None);
+                    endings.add(PdfName.OpenArrow);
+                    line.setLineEndingStyles(endings);
+                }
+                annotation = line;
+                break;
+            }
+            case RECTANGLE:
+                if (isAxisAligned(points)) {
+                    annotation = new PdfSquareAnnotation(rect).setRectangleDifferences(borderInset);
+                } else {
+                    annotation = PdfPolyGeomAnnotation.createPolygon(rect, points);
+                }
+                break;
+            default:
+                if (isAxisAligned(points)) {
+                    annotation = new PdfCircleAnnotation(rect).setRectangleDifferences(borderInset);
+                } else {
+                    PdfArray inkList = new PdfArray();
+                    inkList.add(new PdfArray(toPageSpace(stroke.getPolyline(), pageSize)));
+                    annotation = new PdfInkAnnotation(rect, inkList);
+                }
+                break;
+        }
+
+        PdfArray shape = new PdfArray();
+        shape.add(new PdfName(stroke.getShape().name()));
+        for (float value : points) {
+            shape.add(new PdfNumber(value));
+        }
+        annotation.put(SHAPE, shape);
+
+        int color = stroke.getColor();
+        annotation.setColor(new float[]{((color >> 16) & 0xFF) / 255f, ((color >> 8) & 0xFF) / 255f, (color & 0xFF) / 255f});
+        annotation.put(PdfName.BS, borderStyle(lineWidth));
+        finish(annotation, color, appearance);
+        page.addAnnotation(annotation);
+    }
+
+    private static float[] toPageSpace(float[] normalized, Rectangle pageSize) {
+        float[] points = new float[normalized.length];
+        for (int i = 0; i < points.length; i += 2) {
+            points[i] = pageSize.getLeft() + normalized[i] * pageSize.getWidth();
+            points[i + 1] = pageSize.getTop() - normalized[i + 1] * pageSize.getHeight();
+        }
+        return points;
+    }
+
+    /**
+     * Whether four corners in order form an axis-aligned box
+     */
+    private static boolean isAxisAligned(float[] corners) {
+        boolean horizontalFirst = Math.abs(corners[1] - corners[3]) < AXIS_TOLERANCE
+                && Math.abs(corners[2] - corners[4]) < AXIS_TOLERANCE;
+        boolean verticalFirst = Math.abs(corners[0] - corners[2]) < AXIS_TOLERANCE
+                && Math.abs(corners[3] - corners[5]) < AXIS_TOLERANCE;
+        return horizontalFirst || verticalFirst;
+    }
+
+    private static PdfDictionary borderStyle(float width) {
+        PdfDictionary border = new PdfDictionary();
+        border.put(PdfName.Type, PdfName.Border);
+        border.put(PdfName.W, new PdfNumber(width));
+        border.put(PdfName.S, PdfName.S);
+        return border;
+    }
+
+    private static void finish(PdfMarkupAnnotation annotation, int color, PdfFormXObject appearance) {
+        int alpha = (color >>> 24) & 0xFF;
+        if (alpha < 255) {
+            // Opacity is applied by the viewer to the whole appearance
+            annotation.setOpacity(new PdfNumber(alpha / 255f));
+        }
+        annotation.setName(new PdfString(NAME_PREFIX + UUID.randomUUID()));
+        annotation.setFlags(PdfAnnotation.PRINT);
+        annotation.setNormalAppearance(appearance.getPdfObject());
+    }
+
+    /**
+     * Whether an annotation was written by this class
+     */
+    public static boolean isOwn(PdfAnnotation annotation) {
+        PdfString name = annotation.getName();
+        return name != null && name.toUnicodeString().startsWith(NAME_PREFIX);
+    }
+
+    /**
+     * Remove this app's annotations from a page
+     * @return Number of annotations removed
+     */
+    public static int removeOwn(PdfPage page) {
+        int removed = 0;
+        for (PdfAnnotation annotation : new ArrayList<>(page.getAnnotations())) {
+            if (isOwn(annotation)) {
+                page.removeAnnotation(annotation);
+                removed++;
+            }
+        }
+        return removed;
+    }
+
+    /**
+     * Read this app's annotations from a PDF in the editor's normalized form
+     */
+    public static Contents read(String pdfPath) throws IOException {
+        Contents contents = new Contents();
+        PdfReader reader = PdfReaderFactory.open(pdfPath);
+
+        try (PdfDocument pdfDoc = new PdfDocument(reader)) {
+            PdfMetadataCache.getInstance().record(pdfPath, reader, pdfDoc);
+            PdfResourceCache resources = new PdfResourceCache(pdfDoc);
+
+            for (int pageNum = 1; pageNum <= pdfDoc.getNumberOfPages(); pageNum++) {
+                PdfPage page = pdfDoc.getPage(pageNum);
+                Rectangle pageSize = page.getPageSize();
+                int pageIndex = pageNum - 1;
+
+                for (PdfAnnotation annotation : page.getAnnotations()) {
+                    if (!isOwn(annotation)) {
+                        continue;
+                    }
+                    InkStroke shape = annotation instanceof PdfMarkupAnnotation
+                            ? readShape((PdfMarkupAnnotation) annotation, pageSize) : null;
+                    if (shape != null) {
+                        contents.inkStrokes.computeIfAbsent(pageIndex, k -> new ArrayList<>()).add(shape);
+                        contents.count++;
+                    } else if (annotation instanceof PdfFreeTextAnnotation) {
+                        PdfEditManager.TextAnnotation text =
+                                readText((PdfFreeTextAnnotation) annotation, pageSize, resources);
+                        if (text != null) {
+                            contents.textAnnotations.computeIfAbsent(pageIndex, k -> new ArrayList<>()).add(text);
+                            contents.count++;
+                        }
+                    } else if (annotation instanceof PdfInkAnnotation) {
+                        List<InkStroke> strokes = readInk((PdfInkAnnotation) annotation, pageSize);
+                        if (!strokes.isEmpty()) {
+                            contents.inkStrokes.computeIfAbsent(pageIndex, k -> new ArrayList<>()).addAll(strokes);
+                            contents.count++;
+                        }
+                    }
+                }
+            }
+        }
+        return contents;
+    }
+
+    private static PdfEditManager.TextAnnotation readText(PdfFreeTextAnnotation annotation, Rectangle pageSize,
+                                                          PdfResourceCache resources) throws IOException {
+        PdfString contents = annotation.getContents();
+        if (contents == null) {
+            return null;
+        }
+        String text = contents.toUnicodeString();
+        String da = annotation.getDefaultAppearance() != null
+                ? annotation.getDefaultAppearance().toUnicodeString() : "";
+
+        float fontSize = 14f;
+        Matcher size = DA_FONT_SIZE.matcher(da);
+        if (size.find()) {
+            fontSize = Float.parseFloat(size.group(1));
+        }
+        int rgb = 0;
+        Matcher color = DA_RGB.matcher(da);
+        if (color.find()) {
+            rgb = (Math.round(Float.parseFloat(color.group(1)) * 255) << 16)
+                    | (Math.round(Float.parseFloat(color.group(2)) * 255) << 8)
+                    | Math.round(Float.parseFloat(color.group(3)) * 255);
+        }
+
+        // Undo addText(): /Rect starts at the descent below the baseline
+        Rectangle rect = annotation.getRectangle().toRectangle();
+        float descent = resources.getFont(text).getDescent(text, fontSize);
+        float x = rect.getX() / pageSize.getWidth();
+        float y = (pageSize.getHeight() - (rect.getY() - descent)) / pageSize.getHeight();
+
+        return new PdfEditManager.TextAnnotation(x, y, text, alphaOf(annotation) << 24 | rgb, fontSize);
+    }
+
+    private static List<InkStroke> readInk(PdfInkAnnotation annotation, Rectangle pageSize) {
+        List<InkStroke> strokes = new ArrayList<>();
+        PdfArray inkList = annotation.getInkList();
+        if (inkList == null) {
+            return strokes;
+        }
+
+        float lineWidth = lineWidthOf(annotation);
+        int rgb = rgbOf(annotation);
+        int alpha = alphaOf(annotation);
+        InkStroke.Tool tool = alpha < 255 ? InkStroke.Tool.HIGHLIGHTER : InkStroke.Tool.PEN;
+        PdfArray widths = inkList.size() == 1 ? annotation.getPdfObject().getAsArray(WIDTHS) : null;
+
+        for (int p = 0; p < inkList.size(); p++) {
+            PdfArray path = inkList.getAsArray(p);
+            if (path == null || path.size() < 2) {
+                continue;
+            }
+            float[] points = new float[path.size() / 2 * 2];
+            for (int i = 0; i < points.length; i += 2) {
+                points[i] = (path.getAsNumber(i).floatValue() - pageSize.getLeft()) / pageSize.getWidth();
+                points[i + 1] = (pageSize.getTop() - path.getAsNumber(i + 1).floatValue()) / pageSize.getHeight();
+            }
+            float[] factors = null;
+            if (widths != null && widths.size() == points.length / 2) {
+                factors = widths.toFloatArray();
+            }
+            strokes.add(new InkStroke(tool, alpha << 24 | rgb, lineWidth / pageSize.getWidth(), points, factors));
+        }
+        return strokes;
+    }
+
+    /**
+     * Rebuild a shape from the defining points addShape() stored; null if the annotation has none
+     */
+    private static InkStroke readShape(PdfMarkupAnnotation annotation, Rectangle pageSize) {
+        PdfArray stored = annotation.getPdfObject().getAsArray(SHAPE);
+        if (stored == null || stored.size() < 1 || stored.getAsName(0) == null) {
+            return null;
+        }
+        InkStroke.Shape shape;
+        try {
+            shape = InkStroke.Shape.valueOf(stored.getAsName(0).getValue());
+        } catch (IllegalArgumentException e) {
+            return null;
+        }
+        int length = shape == InkStroke.Shape.LINE ? 4 : 8;
+        if (shape == InkStroke.Shape.FREEHAND || stored.size() != length + 1) {
+            return null;
+        }
+
+        for (int i = 1; i <= length; i++) {
+            if (stored.getAsNumber(i) == null) {
+                return null;
+            }
+        }
+        float[] points = new float[length];
+        for (int i = 0; i < length; i += 2) {
+            points[i] = (stored.getAsNumber(i + 1).floatValue() - pageSize.getLeft()) / pageSize.getWidth();
+            points[i + 1] = (pageSize.getTop() - stored.getAsNumber(i + 2).floatValue()) / pageSize.getHeight();
+        }
+        int alpha = alphaOf(annotation);
+        InkStroke.Tool tool = alpha < 255 ? InkStroke.Tool.HIGHLIGHTER : InkStroke.Tool.PEN;
+        return new InkStroke(tool, alpha << 24 | rgbOf(annotation),
+                lineWidthOf(annotation) / pageSize.getWidth(), shape, points);
+    }
+
+    private static float lineWidthOf(PdfMarkupAnnotation annotation) {
+        PdfDictionary border = annotation.getPdfObject().getAsDictionary(PdfName.BS);
+        if (border != null && border.getAsNumber(PdfName.W) != null) {
+            return border.getAsNumber(PdfName.W).floatValue();
+        }
+        return 1;
+    }
+
+    private static int rgbOf(PdfMarkupAnnotation annotation) {
+        PdfArray colorArray = annotation.getColorObject();
+        if (colorArray != null && colorArray.size() == 3) {
+            return (Math.round(colorArray.getAsNumber(0).floatValue() * 255) << 16)
+                    | (Math.round(colorArray.getAsNumber(1).floatValue() * 255) << 8)
+                    | Math.round(colorArray.getAsNumber(2).floatValue() * 255);
+        }
+        return 0;
+    }
+
+    private static int alphaOf(PdfMarkupAnnotation annotation) {
+        PdfNumber opacity = annotation.getOpacity();
+        return opacity != null ? Math.round(Math.max(0, Math.min(1, opacity.floatValue())) * 255) : 255;
+    }
+}
@@ -3,8 +3,10 @@ package com.docreader.utils;
 import android.content.Context;
 import android.graphics.Bitmap;
 import android.graphics.BitmapFactory;
+import android.graphics.pdf.PdfRenderer;
 import android.net.Uri;
 import android.os.Environment;
+import android.os.ParcelFileDescriptor;
 
 import com.itextpdf.io.image.ImageData;
 import com.itextpdf.io.image.ImageDataFactory;
@@ -19,11 +21,11 @@ import com.itextpdf.kernel.utils.PdfMerger;
 import com.itextpdf.layout.Document;
 import com.itextpdf.layout.element.Image;
 
-import java.io.ByteArrayOutputStream;
 import java.io.File;
 import java.io.FileOutputStream;
 import java.io.IOException;
 import java.io.InputStream;
+import java.io.UncheckedIOException;
 import java.text.SimpleDateFormat;
 import java.util.ArrayList;
 import java.util.Date;
@@ -45,35 +47,38 @@ public class PdfPageManager {
     }
 
     /**
-     * Get the number of pages in the PDF
+     * Get the number of pages in the PDF (served from the metadata cache when the file is unchanged)
      */
     public int getPageCount() throws IOException {
-        PdfReader reader = new PdfReader(pdfPath);
-        PdfDocument pdfDoc = new PdfDocument(reader);
-        int count = pdfDoc.getNumberOfPages();
-        pdfDoc.close();
-        return count;
+        return getMetadata().getPageCount();
+    }
+
+    /**
+     * Get cached metadata for the current PDF
+     */
+    public PdfMetadataCache.Metadata getMetadata() throws IOException {
+        return PdfMetadataCache.getInstance().get(pdfPath);
     }
 
     /**
      * Delete specific pages from PDF
-     * @param pageNumbers List of page numbers to delete (1-based)
+     * @param pageNumbers Pages to delete (1-based)
      * @return Path to new PDF
      */
-    public String deletePages(List<Integer> pageNumbers) throws IOException {
+    public String deletePages(PageSet pageNumbers) throws IOException {
         String outputPath = generateOutputPath("deleted");
 
-        PdfReader reader = new PdfReader(pdfPath);
+        PdfReader reader = PdfReaderFactory.open(pdfPath);
         PdfWriter writer = new PdfWriter(outputPath);
         PdfDocument srcDoc = new PdfDocument(reader);
         PdfDocument destDoc = new PdfDocument(writer);
 
         int totalPages = srcDoc.getNumberOfPages();
 
-        for (int i = 1; i <= totalPages; i++) {
-            if (!pageNumbers.contains(i)) {
-                srcDoc.copyPagesTo(i, i, destDoc);
-            }
+        // Copy the kept pages range by range instead of testing every page
+        PageSet keep = pageNumbers.complement(totalPages);
+        for (int r = 0; r < keep.getRangeCount(); r++) {
+            srcDoc.copyPagesTo(keep.getRangeStart(r), keep.getRangeEnd(r), destDoc);
         }
 
         destDoc.close();
@@ -84,19 +89,22 @@ public class PdfPageManager {
 
     /**
      * Rotate specific pages
-     * @param pageNumbers List of page numbers to rotate (1-based)
+     * @param pageNumbers Pages to rotate (1-based)
      * @param degrees Rotation degrees (90, 180, 270)
      * @return Path to new PDF
      */
-    public String rotatePages(List<Integer> pageNumbers, int degrees) throws IOException {
+    public String rotatePages(PageSet pageNumbers, int degrees) throws IOException {
         String outputPath = generateOutputPath("rotated");
 
-        PdfReader reader = new PdfReader(pdfPath);
+        PdfReader reader = PdfReaderFactory.open(pdfPath);
         PdfWriter writer = new PdfWriter(outputPath);
         PdfDocument pdfDoc = new PdfDocument(reader, writer);
 
-        for (int pageNum : pageNumbers) {
-            if (pageNum >= 1 && pageNum <= pdfDoc.getNumberOfPages()) {
+        PageSet pages = pageNumbers.sorted();
+        int totalPages = pdfDoc.getNumberOfPages();
+        for (int r = 0; r < pages.getRangeCount(); r++) {
+            int end = Math.min(pages.getRangeEnd(r), totalPages);
+            for (int pageNum = pages.getRangeStart(r); pageNum <= end; pageNum++) {
                 PdfPage page = pdfDoc.getPage(pageNum);
                 int currentRotation = page.getRotation();
                 page.setRotation((currentRotation + degrees) % 360);
@@ -111,40 +119,53 @@ public class PdfPageManager {
      * Rotate all pages
      */
     public String rotateAllPages(int degrees) throws IOException {
+        return rotateAllPages(degrees, new PdfJob());
+    }
+
+    /**
+     * Rotate all pages, reporting progress to the job and stopping if it is cancelled
+     */
+    public String rotateAllPages(int degrees, PdfJob job) throws IOException {
         String outputPath = generateOutputPath("rotated");
+        job.addOutput(outputPath);
 
-        PdfReader reader = new PdfReader(pdfPath);
+        PdfReader reader = PdfReaderFactory.open(pdfPath);
         PdfWriter writer = new PdfWriter(outputPath);
         PdfDocument pdfDoc = new PdfDocument(reader, writer);
 
-        for (int i = 1; i <= pdfDoc.getNumberOfPages(); i++) {
-            PdfPage page = pdfDoc.getPage(i);
-            int currentRotation = page.getRotation();
-            page.setRotation((currentRotation + degrees) % 360);
-        }
+        try {
+            int totalPages = pdfDoc.getNumberOfPages();
+            job.start(totalPages, new File(pdfPath).length());
 
-        pdfDoc.close();
+            for (int i = 1; i <= totalPages; i++) {
+                PdfPage page = pdfDoc.getPage(i);
+                int currentRotation = page.getRotation();
+                page.setRotation((currentRotation + degrees) % 360);
+                job.pageDone();
+            }
+
+            pdfDoc.close();
+        } catch (IOException | RuntimeException e) {
+            abort(job, pdfDoc);
+            throw e;
+        }
         return outputPath;
     }
 
     /**
      * Reorder pages in PDF
-     * @param newOrder List of page numbers in new order (1-based)
+     * @param newOrder Page sequence in new order (1-based)
      * @return Path to new PDF
      */
-    public String reorderPages(List<Integer> newOrder) throws IOException {
+    public String reorderPages(PageSet newOrder) throws IOException {
         String outputPath = generateOutputPath("reordered");
 
-        PdfReader reader = new PdfReader(pdfPath);
+        PdfReader reader = PdfReaderFactory.open(pdfPath);
         PdfWriter writer = new PdfWriter(outputPath);
         PdfDocument srcDoc = new PdfDocument(reader);
         PdfDocument destDoc = new PdfDocument(writer);
 
-        for (int pageNum : newOrder) {
-            if (pageNum >= 1 && pageNum <= srcDoc.getNumberOfPages()) {
-                srcDoc.copyPagesTo(pageNum, pageNum, destDoc);
-            }
-        }
+        copyPageSequence(srcDoc, newOrder, destDoc);
 
         destDoc.close();
         srcDoc.close();
@@ -159,29 +180,25 @@ public class PdfPageManager {
      * @return Path to new PDF
      */
     public String movePage(int fromPage, int toPage) throws IOException {
-        PdfReader reader = new PdfReader(pdfPath);
-        PdfDocument srcDoc = new PdfDocument(reader);
-        int totalPages = srcDoc.getNumberOfPages();
-        srcDoc.close();
+        int totalPages = getPageCount();
 
-        List<Integer> newOrder = new ArrayList<>();
-        for (int i = 1; i <= totalPages; i++) {
-            if (i != fromPage) {
-                newOrder.add(i);
-            }
-        }
-
-        // Insert at new position
+        // Position of the moved page among the remaining totalPages - 1 pages
         int insertIndex = toPage - 1;
         if (fromPage < toPage) {
             insertIndex = toPage - 2;
         }
         if (insertIndex < 0) insertIndex = 0;
-        if (insertIndex > newOrder.size()) insertIndex = newOrder.size();
+        if (insertIndex > totalPages - 1) insertIndex = totalPages - 1;
 
-        newOrder.add(insertIndex, fromPage);
+        // Remaining page at index j is j + 1 before fromPage and j + 2 after it
+        PageSet.Builder newOrder = new PageSet.Builder();
+        newOrder.addRange(1, Math.min(insertIndex, fromPage - 1));
+        newOrder.addRange(fromPage + 1, insertIndex + 1);
+        newOrder.addPage(fromPage);
+        newOrder.addRange(insertIndex + 1, fromPage - 1);
+        newOrder.addRange(Math.max(insertIndex, fromPage - 1) + 2, totalPages);
 
-        return reorderPages(newOrder);
+        return reorderPages(newOrder.build());
     }
 
     /**
@@ -193,7 +210,7 @@ public class PdfPageManager {
     public String addBlankPage(int afterPage, PageSize pageSize) throws IOException {
         String outputPath = generateOutputPath("added");
 
-        PdfReader reader = new PdfReader(pdfPath);
+        PdfReader reader = PdfReaderFactory.open(pdfPath);
         PdfWriter writer = new PdfWriter(outputPath);
         PdfDocument srcDoc = new PdfDocument(reader);
         PdfDocument destDoc = new PdfDocument(writer);
@@ -216,7 +233,7 @@ public class PdfPageManager {
             PdfDocument tempDoc = new PdfDocument(tempWriter);
             tempDoc.addNewPage(pageSize);
 
-            PdfReader destReader = new PdfReader(outputPath);
+            PdfReader destReader = PdfReaderFactory.open(outputPath);
             PdfDocument destReadDoc = new PdfDocument(destReader);
             destReadDoc.copyPagesTo(1, destReadDoc.getNumberOfPages(), tempDoc);
 
@@ -246,7 +263,7 @@ public class PdfPageManager {
     public String duplicatePage(int pageNumber) throws IOException {
         String outputPath = generateOutputPath("duplicated");
 
-        PdfReader reader = new PdfReader(pdfPath);
+        PdfReader reader = PdfReaderFactory.open(pdfPath);
         PdfWriter writer = new PdfWriter(outputPath);
         PdfDocument srcDoc = new PdfDocument(reader);
         PdfDocument destDoc = new PdfDocument(writer);
@@ -270,22 +287,18 @@ public class PdfPageManager {
 
     /**
      * Extract specific pages to a new PDF
-     * @param pageNumbers List of page numbers to extract (1-based)
+     * @param pageNumbers Pages to extract (1-based), in output order
      * @return Path to new PDF containing only extracted pages
      */
-    public String extractPages(List<Integer> pageNumbers) throws IOException {
+    public String extractPages(PageSet pageNumbers) throws IOException {
         String outputPath = generateOutputPath("extracted");
 
-        PdfReader reader = new PdfReader(pdfPath);
+        PdfReader reader = PdfReaderFactory.open(pdfPath);
         PdfWriter writer = new PdfWriter(outputPath);
         PdfDocument srcDoc = new PdfDocument(reader);
         PdfDocument destDoc = new PdfDocument(writer);
 
-        for (int pageNum : pageNumbers) {
-            if (pageNum >= 1 && pageNum <= srcDoc.getNumberOfPages()) {
-                srcDoc.copyPagesTo(pageNum, pageNum, destDoc);
-            }
-        }
+        copyPageSequence(srcDoc, pageNumbers, destDoc);
 
         destDoc.close();
         srcDoc.close();
@@ -298,24 +311,42 @@ public class PdfPageManager {
      * @return List of paths to individual page PDFs
      */
     public List<String> splitAllPages() throws IOException {
+        return splitAllPages(new PdfJob());
+    }
+
+    /**
+     * Split PDF into individual pages; if the job is cancelled every file written so far is deleted
+     */
+    public List<String> splitAllPages(PdfJob job) throws IOException {
         List<String> outputPaths = new ArrayList<>();
 
-        PdfReader reader = new PdfReader(pdfPath);
+        PdfReader reader = PdfReaderFactory.open(pdfPath);
         PdfDocument srcDoc = new PdfDocument(reader);
-        int totalPages = srcDoc.getNumberOfPages();
+        PdfDocument destDoc = null;
 
-        for (int i = 1; i <= totalPages; i++) {
-            String outputPath = generateOutputPath("page_" + i);
-            PdfWriter writer = new PdfWriter(outputPath);
-            PdfDocument destDoc = new PdfDocument(writer);
+        try {
+            int totalPages = srcDoc.getNumberOfPages();
+            job.start(totalPages, new File(pdfPath).length());
 
-            srcDoc.copyPagesTo(i, i, destDoc);
+            for (int i = 1; i <= totalPages; i++) {
+                String outputPath = generateOutputPath("page_" + i);
+                job.addOutput(outputPath);
+                PdfWriter writer = new PdfWriter(outputPath);
+                destDoc = new PdfDocument(writer);
 
-            destDoc.close();
-            outputPaths.add(outputPath);
-        }
+                srcDoc.copyPagesTo(i, i, destDoc);
 
-        srcDoc.close();
+                destDoc.close();
+                destDoc = null;
+                outputPaths.add(outputPath);
+                job.pageDone();
+            }
+
+            srcDoc.close();
+        } catch (IOException | RuntimeException e) {
+            abort(job, destDoc, srcDoc);
+            throw e;
+        }
         return outputPaths;
     }
 
@@ -325,6 +356,13 @@ public class PdfPageManager {
      * @return Path to merged PDF
      */
     public static String mergePdfs(Context context, List<String> pdfPaths, String outputName) throws IOException {
+        return mergePdfs(context, pdfPaths, outputName, new PdfJob());
+    }
+
+    /**
+     * Merge multiple PDFs into one, reporting progress after each source document
+     */
+    public static String mergePdfs(Context context, List<String> pdfPaths, String outputName, PdfJob job) throws IOException {
         if (pdfPaths.isEmpty()) {
             throw new IOException("No PDFs to merge");
         }
@@ -336,22 +374,61 @@ public class PdfPageManager {
 
         String timestamp = new SimpleDateFormat("yyyyMMdd_HHmmss", Locale.getDefault()).format(new Date());
         String outputPath = new File(outputDir, outputName + "_merged_" + timestamp + ".pdf").getAbsolutePath();
+        PdfMetadataCache.getInstance().invalidate(outputPath);
+
+        job.addOutput(outputPath);
+        PdfDocument srcDoc = null;
+        PdfDocument mergedDoc = null;
+
+        try {
+            int totalPages = 0;
+            long totalBytes = 0;
+            for (String pdfPath : pdfPaths) {
+                totalPages += countPages(pdfPath);
+                totalBytes += new File(pdfPath).length();
+            }
+            job.start(totalPages, totalBytes);
+
+            // One input is open at a time, so memory is bounded by the largest input, not their sum
+            mergedDoc = new PdfDocument(new PdfWriter(outputPath));
+            PdfMerger merger = new PdfMerger(mergedDoc);
+            for (String pdfPath : pdfPaths) {
+                PdfReader reader = PdfReaderFactory.open(pdfPath);
+                srcDoc = new PdfDocument(reader);
+                int pages = PdfMetadataCache.getInstance().record(pdfPath, reader, srcDoc).getPageCount();
+                merger.merge(srcDoc, 1, pages);
+                srcDoc.close();
+                srcDoc = null;
+                job.pagesDone(pages);
+            }
 
-        PdfWriter writer = new PdfWriter(outputPath);
-        PdfDocument mergedDoc = new PdfDocument(writer);
-        PdfMerger merger = new PdfMerger(mergedDoc);
-
-        for (String pdfPath : pdfPaths) {
-            PdfReader reader = new PdfReader(pdfPath);
-            PdfDocument srcDoc = new PdfDocument(reader);
-            merger.merge(srcDoc, 1, srcDoc.getNumberOfPages());
-            srcDoc.close();
+            mergedDoc.close();
+        } catch (IOException | RuntimeException e) {
+            abort(job, srcDoc, mergedDoc);
+            throw e;
         }
-
-        mergedDoc.close();
         return outputPath;
     }
 
+    /**
+     * Page count from the metadata cache, or else from the platform renderer, which only reads the
+     * page tree instead of parsing the whole document
+     */
+    private static int countPages(String pdfPath) throws IOException {
+        PdfMetadataCache.Metadata cached = PdfMetadataCache.getInstance().peek(pdfPath);
+        if (cached != null) {
+            return cached.getPageCount();
+        }
+        try (ParcelFileDescriptor descriptor = ParcelFileDescriptor.open(new File(pdfPath),
+                ParcelFileDescriptor.MODE_READ_ONLY);
+             PdfRenderer renderer = new PdfRenderer(descriptor)) {
+            return renderer.getPageCount();
+        } catch (SecurityException e) {
+            // The platform renderer refuses encrypted files
+            return PdfMetadataCache.getInstance().get(pdfPath).getPageCount();
+        }
+    }
+
     /**
      * Add an image as a new page
      * @param imagePath Path to the image file
@@ -361,7 +438,7 @@ public class PdfPageManager {
     public String addImageAsPage(String imagePath, int afterPage) throws IOException {
         String outputPath = generateOutputPath("with_image");
 
-        PdfReader reader = new PdfReader(pdfPath);
+        PdfReader reader = PdfReaderFactory.open(pdfPath);
         PdfWriter writer = new PdfWriter(outputPath);
         PdfDocument srcDoc = new PdfDocument(reader);
         PdfDocument destDoc = new PdfDocument(writer);
@@ -405,6 +482,47 @@ public class PdfPageManager {
         return outputPath;
     }
 
+    /**
+     * Add many images as new pages in a single pass over the PDF.
+     * Images are downsampled to {@link PdfImageImporter#DEFAULT_DPI} and embedded as JPEG.
+     * @param images Image URIs (content or file), one page each
+     * @param afterPage Page number after which to insert (0 for beginning, -1 for end)
+     * @return Path to new PDF
+     */
+    public String addImagesAsPages(List<Uri> images, int afterPage, PdfJob job) throws IOException {
+        String outputPath = generateOutputPath("with_images");
+        job.addOutput(outputPath);
+
+        PdfReader reader = PdfReaderFactory.open(pdfPath);
+        PdfWriter writer = new PdfWriter(outputPath);
+        PdfDocument srcDoc = new PdfDocument(reader);
+        PdfDocument destDoc = new PdfDocument(writer);
+
+        try {
+            int totalPages = srcDoc.getNumberOfPages();
+            int insertAfter = afterPage < 0 || afterPage > totalPages ? totalPages : afterPage;
+            PdfImageImporter importer = new PdfImageImporter(context);
+            job.start(images.size(), importer.totalSize(images));
+
+            if (insertAfter > 0) {
+                srcDoc.copyPagesTo(1, insertAfter, destDoc);
+            }
+
+            importer.addPages(images, destDoc, job);
+
+            if (insertAfter < totalPages) {
+                srcDoc.copyPagesTo(insertAfter + 1, totalPages, destDoc);
+            }
+
+            destDoc.close();
+            srcDoc.close();
+        } catch (IOException | RuntimeException e) {
+            abort(job, destDoc, srcDoc);
+            throw e;
+        }
+        return outputPath;
+    }
+
     /**
      * Add an image to an existing page
      * @param pageNumber Page to add image to (1-based)
@@ -418,7 +536,7 @@ public class PdfPageManager {
     public String addImageToPage(int pageNumber, String imagePath, float x, float y, float width, float height) throws IOException {
         String outputPath = generateOutputPath("image_added");
 
-        PdfReader reader = new PdfReader(pdfPath);
+        PdfReader reader = PdfReaderFactory.open(pdfPath);
         PdfWriter writer = new PdfWriter(outputPath);
         PdfDocument pdfDoc = new PdfDocument(reader, writer);
 
@@ -444,7 +562,7 @@ public class PdfPageManager {
     public String addBitmapToPage(int pageNumber, Bitmap bitmap, float x, float y, float width, float height) throws IOException {
         String outputPath = generateOutputPath("image_added");
 
-        PdfReader reader = new PdfReader(pdfPath);
+        PdfReader reader = PdfReaderFactory.open(pdfPath);
         PdfWriter writer = new PdfWriter(outputPath);
         PdfDocument pdfDoc = new PdfDocument(reader, writer);
 
@@ -453,47 +571,108 @@ public class PdfPageManager {
             Rectangle pageSize = page.getPageSize();
             PdfCanvas canvas = new PdfCanvas(page);
 
-            ByteArrayOutputStream stream = new ByteArrayOutputStream();
-            bitmap.compress(Bitmap.CompressFormat.PNG, 100, stream);
-            byte[] bitmapData = stream.toByteArray();
-
-            ImageData imageData = ImageDataFactory.create(bitmapData);
-
-            float imgWidth = width > 0 ? width : imageData.getWidth();
-            float imgHeight = height > 0 ? height : imageData.getHeight();
+            float imgWidth = width > 0 ? width : bitmap.getWidth();
+            float imgHeight = height > 0 ? height : bitmap.getHeight();
 
             // Convert from top-left to bottom-left coordinates
             float pdfY = pageSize.getHeight() - y - imgHeight;
 
-            canvas.addImageFittedIntoRectangle(imageData, new Rectangle(x, pdfY, imgWidth, imgHeight), false);
+            PdfBitmapImage.drawBitmap(canvas, bitmap, new Rectangle(x, pdfY, imgWidth, imgHeight));
         }
 
         pdfDoc.close();
         return outputPath;
     }
 
+    /**
+     * Stamp watermarks, headers/footers, logos or page numbers onto pages in a single pass
+     * @param stamps Stamps to draw, in order
+     * @param pages Pages to stamp (1-based)
+     * @return Path to new PDF
+     */
+    public String stampPages(List<PdfStampEngine.Stamp> stamps, PageSet pages, PdfJob job) throws IOException {
+        String outputPath = generateOutputPath("stamped");
+        return new PdfStampEngine(pdfPath).apply(stamps, pages, outputPath, job);
+    }
+
     /**
      * Compress PDF by reducing image quality
      * @return Path to compressed PDF
      */
     public String compressPdf() throws IOException {
+        return compressPdf(new PdfJob());
+    }
+
+    /**
+     * Compress PDF in a single page copy, so links and outlines between pages survive; progress
+     * and cancellation are still per page
+     */
+    public String compressPdf(PdfJob job) throws IOException {
         String outputPath = generateOutputPath("compressed");
+        job.addOutput(outputPath);
 
-        PdfReader reader = new PdfReader(pdfPath);
+        PdfReader reader = PdfReaderFactory.open(pdfPath);
         PdfWriter writer = new PdfWriter(outputPath);
         writer.setCompressionLevel(9);
 
         PdfDocument srcDoc = new PdfDocument(reader);
         PdfDocument destDoc = new PdfDocument(writer);
 
-        srcDoc.copyPagesTo(1, srcDoc.getNumberOfPages(), destDoc);
+        try {
+            int totalPages = srcDoc.getNumberOfPages();
+            job.start(totalPages, new File(pdfPath).length());
 
-        destDoc.close();
-        srcDoc.close();
+            srcDoc.copyPagesTo(1, totalPages, destDoc, (fromPage, toPage) -> {
+                try {
+                    job.pageDone();
+                } catch (PdfJob.CancelledException e) {
+                    // The copier cannot throw checked exceptions; unwrapped below
+                    throw new UncheckedIOException(e);
+                }
+            });
 
+            destDoc.close();
+            srcDoc.close();
+        } catch (UncheckedIOException e) {
+            abort(job, destDoc, srcDoc);
+            throw e.getCause();
+        } catch (IOException | RuntimeException e) {
+            abort(job, destDoc, srcDoc);
+            throw e;
+        }
         return outputPath;
     }
 
+    /**
+     * Close documents left open by a failed or cancelled job and delete what it wrote
+     */
+    private static void abort(PdfJob job, PdfDocument... docs) {
+        for (PdfDocument doc : docs) {
+            if (doc != null && !doc.isClosed()) {
+                try {
+                    doc.close();
+                } catch (Exception ignored) {
+                    // Closing a partial document may fail; it is deleted below anyway
+                }
+            }
+        }
+        job.discardOutputs();
+    }
+
+    /**
+     * Copy a page sequence range by range, skipping pages outside the source document
+     */
+    private void copyPageSequence(PdfDocument srcDoc, PageSet pages, PdfDocument destDoc) {
+        int totalPages = srcDoc.getNumberOfPages();
+        for (int r = 0; r < pages.getRangeCount(); r++) {
+            int start = pages.getRangeStart(r);
+            int end = Math.min(pages.getRangeEnd(r), totalPages);
+            if (start <= end) {
+                srcDoc.copyPagesTo(start, end, destDoc);
+            }
+        }
+    }
+
     /**
      * Generate output file path
      */
@@ -510,7 +689,11 @@ public class PdfPageManager {
         }
 
         String timestamp = new SimpleDateFormat("yyyyMMdd_HHmmss", Locale.getDefault()).format(new Date());
-        return new File(outputDir, baseName + "_" + suffix + "_" + timestamp + ".pdf").getAbsolutePath();
+        String outputPath = new File(outputDir, baseName + "_" + suffix + "_" + timestamp + ".pdf").getAbsolutePath();
+
+        // The file at this path is about to be written, so any cached metadata is stale
+        PdfMetadataCache.getInstance().invalidate(outputPath);
+        return outputPath;
     }
 
     /**
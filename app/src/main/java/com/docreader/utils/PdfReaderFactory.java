@@ -0,0 +1,72 @@
+package com.docreader.utils;
+
+import com.itextpdf.io.source.IRandomAccessSource;
+import com.itextpdf.io.source.RandomAccessSourceFactory;
+import com.itextpdf.kernel.pdf.PdfReader;
+import com.itextpdf.kernel.pdf.ReaderProperties;
+
+import java.io.File;
+import java.io.IOException;
+
+/**
+ * Shared factory for iText readers.
+ * Small files are read into memory; large files are memory-mapped and opened in memory-saving
+ * mode so only the objects a page operation actually touches are parsed and kept.
+ */
+public final class PdfReaderFactory {
+
+    /**
+     * Files at or above this size are memory-mapped instead of read into the heap
+     */
+    public static final long MAPPED_THRESHOLD = 16L * 1024 * 1024;
+
+    public enum Mode {
+        /** Read the whole file into a byte array */
+        IN_MEMORY,
+        /** Memory-map the file and read objects lazily */
+        MEMORY_MAPPED,
+        /** Plain RandomAccessFile reads, for devices where mapping is not available */
+        RANDOM_ACCESS
+    }
+
+    private PdfReaderFactory() {
+    }
+
+    /**
+     * Open a reader choosing the mode from the file size
+     */
+    public static PdfReader open(String path) throws IOException {
+        return open(path, modeFor(new File(path)));
+    }
+
+    public static PdfReader open(File file) throws IOException {
+        return open(file.getAbsolutePath(), modeFor(file));
+    }
+
+    public static PdfReader open(String path, Mode mode) throws IOException {
+        RandomAccessSourceFactory factory = new RandomAccessSourceFactory();
+        IRandomAccessSource source;
+
+        switch (mode) {
+            case IN_MEMORY:
+                source = factory.setForceRead(true).createBestSource(path);
+                break;
+            case RANDOM_ACCESS:
+                source = factory.setForceRead(false).setUsePlainRandomAccess(true).createBestSource(path);
+                break;
+            case MEMORY_MAPPED:
+            default:
+                source = factory.setForceRead(false).setUsePlainRandomAccess(false).createBestSource(path);
+                break;
+        }
+
+        PdfReader reader = new PdfReader(source, new ReaderProperties());
+        // Don't cache decoded streams and parsed page objects for large files
+        reader.setMemorySavingMode(mode != Mode.IN_MEMORY);
+        return reader;
+    }
+
+    public static Mode modeFor(File file) {
+        return file.length() >= MAPPED_THRESHOLD ? Mode.MEMORY_MAPPED : Mode.IN_MEMORY;
+    }
+}
@@ -0,0 +1,188 @@
+package com.docreader.utils;
+
+import android.graphics.Bitmap;
+import android.graphics.Rect;
+
+import com.itextpdf.io.font.PdfEncodings;
+import com.itextpdf.io.font.constants.StandardFonts;
+import com.itextpdf.kernel.colors.DeviceRgb;
+import com.itextpdf.kernel.font.PdfFont;
+import com.itextpdf.kernel.font.PdfFontFactory;
+import com.itextpdf.kernel.pdf.PdfDocument;
+import com.itextpdf.kernel.pdf.extgstate.PdfExtGState;
+import com.itextpdf.kernel.pdf.xobject.PdfImageXObject;
+
+import java.io.File;
+import java.io.IOException;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Resources shared by every page written during one save: fonts, colours, graphics states
+ * and image XObjects. Each is created once per document, so save cost grows with the number of
+ * annotations rather than pages times annotations.
+ *
+ * Text that the standard Helvetica font cannot show is set in an embedded, subsetted TrueType
+ * font picked from the system fonts.
+ */
+public class PdfResourceCache {
+
+    private static final String[] FALLBACK_FONTS = {
+            "/system/fonts/NotoSans-Regular.ttf",
+            "/system/fonts/Roboto-Regular.ttf",
+            "/system/fonts/DroidSans.ttf",
+            "/system/fonts/NotoSansCJK-Regular.ttc,0",
+            "/system/fonts/NotoSansArabic-Regular.ttf",
+            "/system/fonts/NotoSansHebrew-Regular.ttf",
+            "/system/fonts/NotoSansDevanagari-Regular.ttf",
+            "/system/fonts/NotoSansThai-Regular.ttf"
+    };
+
+    private final PdfDocument pdfDoc;
+    private final List<String> fontCandidates = new ArrayList<>();
+    private final Map<String, PdfFont> embeddedFonts = new HashMap<>();
+    private final Map<Integer, DeviceRgb> colors = new HashMap<>();
+    private final Map<Integer, PdfExtGState> opacityStates = new HashMap<>();
+    private final Map<String, PdfImageXObject> images = new HashMap<>();
+    private PdfFont standardFont;
+
+    public PdfResourceCache(PdfDocument pdfDoc) {
+        this(pdfDoc, null);
+    }
+
+    /**
+     * @param preferredFontPath TrueType font tried before the system fonts for non-Latin text, or null
+     */
+    public PdfResourceCache(PdfDocument pdfDoc, String preferredFontPath) {
+        this.pdfDoc = pdfDoc;
+        if (preferredFontPath != null) {
+            fontCandidates.add(preferredFontPath);
+        }
+        for (String path : FALLBACK_FONTS) {
+            fontCandidates.add(path);
+        }
+    }
+
+    /**
+     * Font able to show the whole text: Helvetica when possible, otherwise an embedded subset font
+     */
+    public PdfFont getFont(String text) throws IOException {
+        if (standardFont == null) {
+            standardFont = PdfFontFactory.createFont(StandardFonts.HELVETICA);
+        }
+        if (canShow(standardFont, text)) {
+            return standardFont;
+        }
+
+        for (String path : fontCandidates) {
+            String file = path.contains(",") ? path.substring(0, path.lastIndexOf(',')) : path;
+            if (!new File(file).exists()) {
+                continue;
+            }
+
+            PdfFont font = embeddedFonts.get(path);
+            if (font == null) {
+                font = PdfFontFactory.createFont(path, PdfEncodings.IDENTITY_H,
+                        PdfFontFactory.EmbeddingStrategy.PREFER_EMBEDDED, pdfDoc);
+                font.setSubset(true);
+                embeddedFonts.put(path, font);
+            }
+            if (canShow(font, text)) {
+                return font;
+            }
+        }
+
+        // Nothing covers every character; Helvetica at least keeps the Latin part
+        return standardFont;
+    }
+
+    private static boolean canShow(PdfFont font, String text) {
+        for (int i = 0; i < text.length(); ) {
+            int codePoint = text.codePointAt(i);
+            if (!Character.isWhitespace(codePoint) && !font.containsGlyph(codePoint)) {
+                return false;
+            }
+            i += Character.charCount(codePoint);
+        }
+        return true;
+    }
+
+    /**
+     * RGB colour for an Android colour int (alpha is handled by {@link #getOpacityState})
+     */
+    public DeviceRgb getColor(int color) {
+        int rgb = color & 0xFFFFFF;
+        DeviceRgb deviceRgb = colors.get(rgb);
+        if (deviceRgb == null) {
+            deviceRgb = new DeviceRgb((rgb >> 16) & 0xFF, (rgb >> 8) & 0xFF, rgb & 0xFF);
+            colors.put(rgb, deviceRgb);
+        }
+        return deviceRgb;
+    }
+
+    /**
+     * Shared graphics state for an Android alpha value (0-255), or null if fully opaque
+     */
+    public PdfExtGState getOpacityState(int alpha) {
+        if (alpha >= 255) {
+            return null;
+        }
+        PdfExtGState state = opacityStates.get(alpha);
+        if (state == null) {
+            state = new PdfExtGState().setFillOpacity(alpha / 255f).setStrokeOpacity(alpha / 255f);
+            state.makeIndirect(pdfDoc);
+            opacityStates.put(alpha, state);
+        }
+        return state;
+    }
+
+    /**
+     * Image XObject for a bitmap region; identical pixels are embedded only once. Images are
+     * matched by a SHA-256 digest of their pixels, so different images never share an XObject.
+     */
+    public PdfImageXObject getImage(Bitmap bitmap, Rect region, boolean withAlpha) throws IOException {
+        String key = region.width() + "x" + region.height() + (withAlpha ? "a:" : ":") + contentDigest(bitmap, region);
+        PdfImageXObject image = images.get(key);
+        if (image == null) {
+            image = PdfBitmapImage.createXObject(bitmap, region, withAlpha);
+            image.makeIndirect(pdfDoc);
+            images.put(key, image);
+        }
+        return image;
+    }
+
+    private static String contentDigest(Bitmap bitmap, Rect region) {
+        MessageDigest digest;
+        try {
+            digest = MessageDigest.getInstance("SHA-256");
+        } catch (NoSuchAlgorithmException e) {
+            // Every Java platform is required to provide SHA-256
+            throw new IllegalStateException(e);
+        }
+        int width = region.width();
+        int[] row = new int[width];
+        byte[] bytes = new byte[width * 4];
+
+        for (int y = region.top; y < region.bottom; y++) {
+            bitmap.getPixels(row, 0, width, region.left, y, width, 1);
+            for (int x = 0, j = 0; x < width; x++) {
+                int color = row[x];
+                bytes[j++] = (byte) (color >>> 24);
+                bytes[j++] = (byte) (color >> 16);
+                bytes[j++] = (byte) (color >> 8);
+                bytes[j++] = (byte) color;
+            }
+            digest.update(bytes, 0, bytes.length);
+        }
+
+        StringBuilder hex = new StringBuilder();
+        for (byte b : digest.digest()) {
+            hex.append(Character.forDigit((b >> 4) & 0xF, 16)).append(Character.forDigit(b & 0xF, 16));
+        }
+        return hex.toString();
+    }
+}
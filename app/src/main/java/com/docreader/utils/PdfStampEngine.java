@@ -0,0 +1,325 @@
+package com.docreader.utils;
+
+import com.itextpdf.io.font.constants.StandardFonts;
+import com.itextpdf.io.image.ImageData;
+import com.itextpdf.io.image.ImageDataFactory;
+import com.itextpdf.kernel.colors.DeviceRgb;
+import com.itextpdf.kernel.font.PdfFont;
+import com.itextpdf.kernel.font.PdfFontFactory;
+import com.itextpdf.kernel.geom.Rectangle;
+import com.itextpdf.kernel.pdf.PdfDocument;
+import com.itextpdf.kernel.pdf.PdfPage;
+import com.itextpdf.kernel.pdf.PdfReader;
+import com.itextpdf.kernel.pdf.PdfWriter;
+import com.itextpdf.kernel.pdf.canvas.PdfCanvas;
+import com.itextpdf.kernel.pdf.extgstate.PdfExtGState;
+import com.itextpdf.kernel.pdf.xobject.PdfFormXObject;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+
+/**
+ * Stamps watermarks, headers/footers, logos and page numbers onto many pages in one pass.
+ * Each static stamp is drawn once into a Form XObject and every page only references it,
+ * so stamping thousands of pages adds a few bytes per page instead of a copy of the content.
+ */
+public class PdfStampEngine {
+
+    public enum Position {
+        CENTER,
+        TOP_LEFT,
+        TOP_CENTER,
+        TOP_RIGHT,
+        BOTTOM_LEFT,
+        BOTTOM_CENTER,
+        BOTTOM_RIGHT
+    }
+
+    private final String pdfPath;
+
+    public PdfStampEngine(String pdfPath) {
+        this.pdfPath = pdfPath;
+    }
+
+    /**
+     * Apply stamps to the selected pages and write the result to outputPath
+     */
+    public String apply(List<Stamp> stamps, PageSet pages, String outputPath, PdfJob job) throws IOException {
+        job.addOutput(outputPath);
+
+        PdfReader reader = PdfReaderFactory.open(pdfPath);
+        PdfWriter writer = new PdfWriter(outputPath);
+        PdfDocument pdfDoc = new PdfDocument(reader, writer);
+
+        try {
+            PageSet selected = pages.sorted();
+            int totalPages = pdfDoc.getNumberOfPages();
+            job.start((int) Math.min(selected.size(), totalPages), new File(pdfPath).length());
+
+            // Shared resources: one font, and one XObject + graphics state per stamp
+            PdfFont font = PdfFontFactory.createFont(StandardFonts.HELVETICA);
+            List<PreparedStamp> prepared = new ArrayList<>();
+            for (Stamp stamp : stamps) {
+                prepared.add(prepare(stamp, pdfDoc, font));
+            }
+
+            for (int r = 0; r < selected.getRangeCount(); r++) {
+                int end = Math.min(selected.getRangeEnd(r), totalPages);
+                for (int pageNum = selected.getRangeStart(r); pageNum <= end; pageNum++) {
+                    PdfPage page = pdfDoc.getPage(pageNum);
+                    Rectangle box = page.getCropBox();
+                    PdfCanvas canvas = new PdfCanvas(page.newContentStreamAfter(), page.getResources(), pdfDoc);
+
+                    for (PreparedStamp stamp : prepared) {
+                        stamp.draw(canvas, box, font, pageNum, totalPages);
+                    }
+
+                    canvas.release();
+                    job.pageDone();
+                }
+            }
+
+            pdfDoc.close();
+        } catch (IOException | RuntimeException e) {
+            try {
+                if (!pdfDoc.isClosed()) {
+                    pdfDoc.close();
+                }
+            } catch (Exception ignored) {
+                // Partial output is deleted below
+            }
+            job.discardOutputs();
+            throw e;
+        }
+        return outputPath;
+    }
+
+    private PreparedStamp prepare(Stamp stamp, PdfDocument pdfDoc, PdfFont font) throws IOException {
+        PdfExtGState gState = new PdfExtGState()
+                .setFillOpacity(stamp.opacity)
+                .setStrokeOpacity(stamp.opacity);
+        gState.makeIndirect(pdfDoc);
+
+        PdfFormXObject form = null;
+        float width;
+        float height;
+
+        if (stamp.type == Stamp.Type.IMAGE) {
+            ImageData image = ImageDataFactory.create(stamp.imagePath);
+            width = stamp.width > 0 ? stamp.width : image.getWidth();
+            height = stamp.height > 0 ? stamp.height : image.getHeight();
+
+            form = new PdfFormXObject(new Rectangle(0, 0, width, height));
+            PdfCanvas formCanvas = new PdfCanvas(form, pdfDoc);
+            formCanvas.addImageFittedIntoRectangle(image, new Rectangle(0, 0, width, height), false);
+            formCanvas.release();
+        } else if (stamp.type == Stamp.Type.TEXT) {
+            width = font.getWidth(stamp.text, stamp.fontSize);
+            height = textHeight(stamp.fontSize);
+
+            form = new PdfFormXObject(new Rectangle(0, 0, width, height));
+            PdfCanvas formCanvas = new PdfCanvas(form, pdfDoc);
+            showText(formCanvas, font, stamp, stamp.text, 0, 0);
+            formCanvas.release();
+        } else {
+            // Page numbers differ per page; only the font and graphics state are shared
+            width = 0;
+            height = textHeight(stamp.fontSize);
+        }
+
+        if (form != null) {
+            form.makeIndirect(pdfDoc);
+        }
+        return new PreparedStamp(stamp, form, gState, width, height);
+    }
+
+    private static float textHeight(float fontSize) {
+        return fontSize * 1.2f;
+    }
+
+    private static void showText(PdfCanvas canvas, PdfFont font, Stamp stamp, String text, float x, float y) {
+        int red = (stamp.color >> 16) & 0xFF;
+        int green = (stamp.color >> 8) & 0xFF;
+        int blue = stamp.color & 0xFF;
+
+        canvas.beginText()
+                .setFontAndSize(font, stamp.fontSize)
+                .setColor(new DeviceRgb(red, green, blue), true)
+                .moveText(x, y + stamp.fontSize * 0.25f)
+                .showText(text)
+                .endText();
+    }
+
+    /**
+     * A stamp ready to be placed: the shared XObject plus its size and graphics state
+     */
+    private static class PreparedStamp {
+        final Stamp stamp;
+        final PdfFormXObject form;
+        final PdfExtGState gState;
+        final float width;
+        final float height;
+
+        PreparedStamp(Stamp stamp, PdfFormXObject form, PdfExtGState gState, float width, float height) {
+            this.stamp = stamp;
+            this.form = form;
+            this.gState = gState;
+            this.width = width;
+            this.height = height;
+        }
+
+        void draw(PdfCanvas canvas, Rectangle box, PdfFont font, int pageNum, int totalPages) {
+            String text = null;
+            float w = width;
+            if (form == null) {
+                text = String.format(Locale.getDefault(), stamp.text, pageNum, totalPages);
+                w = font.getWidth(text, stamp.fontSize);
+            }
+
+            float cx;
+            float cy;
+            switch (stamp.position) {
+                case TOP_LEFT:
+                case BOTTOM_LEFT:
+                    cx = box.getLeft() + stamp.margin + w / 2;
+                    break;
+                case TOP_RIGHT:
+                case BOTTOM_RIGHT:
+                    cx = box.getRight() - stamp.margin - w / 2;
+                    break;
+                default:
+                    cx = box.getLeft() + box.getWidth() / 2;
+                    break;
+            }
+            switch (stamp.position) {
+                case TOP_LEFT:
+                case TOP_CENTER:
+                case TOP_RIGHT:
+                    cy = box.getTop() - stamp.margin - height / 2;
+                    break;
+                case BOTTOM_LEFT:
+                case BOTTOM_CENTER:
+                case BOTTOM_RIGHT:
+                    cy = box.getBottom() + stamp.margin + height / 2;
+                    break;
+                default:
+                    cy = box.getBottom() + box.getHeight() / 2;
+                    break;
+            }
+
+            // Rotate about the stamp's centre, then move the centre to (cx, cy)
+            double radians = Math.toRadians(stamp.rotation);
+            float cos = (float) Math.cos(radians);
+            float sin = (float) Math.sin(radians);
+            float e = cx - (cos * w / 2 - sin * height / 2);
+            float f = cy - (sin * w / 2 + cos * height / 2);
+
+            canvas.saveState();
+            canvas.setExtGState(gState);
+            if (form != null) {
+                canvas.addXObjectWithTransformationMatrix(form, cos, sin, -sin, cos, e, f);
+            } else {
+                canvas.concatMatrix(cos, sin, -sin, cos, e, f);
+                showText(canvas, font, stamp, text, 0, 0);
+            }
+            canvas.restoreState();
+        }
+    }
+
+    /**
+     * Description of a single stamp; setters return this for chaining
+     */
+    public static class Stamp {
+
+        enum Type {
+            TEXT,
+            IMAGE,
+            PAGE_NUMBER
+        }
+
+        final Type type;
+        String text;
+        String imagePath;
+        float fontSize = 12f;
+        int color = 0xFF000000;
+        float width;
+        float height;
+        Position position = Position.CENTER;
+        float opacity = 1f;
+        float rotation;
+        float margin = 24f;
+
+        private Stamp(Type type) {
+            this.type = type;
+        }
+
+        /**
+         * Text stamp, e.g. a watermark or a header/footer line
+         */
+        public static Stamp text(String text, float fontSize, int color) {
+            Stamp stamp = new Stamp(Type.TEXT);
+            stamp.text = text;
+            stamp.fontSize = fontSize;
+            stamp.color = color;
+            return stamp;
+        }
+
+        /**
+         * Image stamp such as a logo
+         * @param width Width in points (0 for the image's own size)
+         * @param height Height in points (0 for the image's own size)
+         */
+        public static Stamp image(String imagePath, float width, float height) {
+            Stamp stamp = new Stamp(Type.IMAGE);
+            stamp.imagePath = imagePath;
+            stamp.width = width;
+            stamp.height = height;
+            return stamp;
+        }
+
+        /**
+         * Page number stamp
+         * @param format Format with the page number and page count as arguments, e.g. "Page %d of %d"
+         */
+        public static Stamp pageNumber(String format, float fontSize, int color) {
+            Stamp stamp = new Stamp(Type.PAGE_NUMBER);
+            stamp.text = format;
+            stamp.fontSize = fontSize;
+            stamp.color = color;
+            stamp.position = Position.BOTTOM_CENTER;
+            return stamp;
+        }
+
+        public Stamp setPosition(Position position) {
+            this.position = position;
+            return this;
+        }
+
+        /**
+         * Opacity between 0 and 1, applied through an extended graphics state
+         */
+        public Stamp setOpacity(float opacity) {
+            this.opacity = opacity;
+            return this;
+        }
+
+        /**
+         * Counter-clockwise rotation in degrees about the stamp's centre
+         */
+        public Stamp setRotation(float degrees) {
+            this.rotation = degrees;
+            return this;
+        }
+
+        /**
+         * Distance from the page edge for non-centred positions, in points
+         */
+        public Stamp setMargin(float margin) {
+            this.margin = margin;
+            return this;
+        }
+    }
+}
@@ -37,7 +37,7 @@ public class PdfToWordConverter {
         // Extract text from PDF
         StringBuilder fullText = new StringBuilder();
 
-        try (PdfReader reader = new PdfReader(pdfFile);
+        try (PdfReader reader = PdfReaderFactory.open(pdfFile);
              PdfDocument pdfDocument = new PdfDocument(reader)) {
 
             int numberOfPages = pdfDocument.getNumberOfPages();
@@ -109,7 +109,7 @@ public class PdfToWordConverter {
     public static String extractText(File pdfFile) throws Exception {
         StringBuilder fullText = new StringBuilder();
 
-        try (PdfReader reader = new PdfReader(pdfFile);
+        try (PdfReader reader = PdfReaderFactory.open(pdfFile);
              PdfDocument pdfDocument = new PdfDocument(reader)) {
 
             int numberOfPages = pdfDocument.getNumberOfPages();
@@ -20,6 +20,8 @@ public class PreferencesManager {
     private static final String KEY_DARK_MODE = "dark_mode";
     private static final String KEY_RECENT_FILES = "recent_files";
     private static final String KEY_DEFAULT_ZOOM = "default_zoom";
+    private static final String KEY_SAVE_AS_ANNOTATIONS = "save_as_annotations";
+    private static final String KEY_SNAP_SHAPES = "snap_shapes";
     private static final int MAX_RECENT_FILES = 20;
 
     private final SharedPreferences prefs;
@@ -39,6 +41,24 @@ public class PreferencesManager {
         prefs.edit().putBoolean(KEY_DARK_MODE, darkMode).apply();
     }
 
+    // Edit save mode
+    public boolean isSaveAsAnnotations() {
+        return prefs.getBoolean(KEY_SAVE_AS_ANNOTATIONS, false);
+    }
+
+    public void setSaveAsAnnotations(boolean saveAsAnnotations) {
+        prefs.edit().putBoolean(KEY_SAVE_AS_ANNOTATIONS, saveAsAnnotations).apply();
+    }
+
+    // Shape recognition for pen and highlighter strokes
+    public boolean isSnapShapes() {
+        return prefs.getBoolean(KEY_SNAP_SHAPES, false);
+    }
+
+    public void setSnapShapes(boolean snapShapes) {
+        prefs.edit().putBoolean(KEY_SNAP_SHAPES, snapShapes).apply();
+    }
+
     // Default Zoom
     public int getDefaultZoom() {
         return prefs.getInt(KEY_DEFAULT_ZOOM, 100);
@@ -0,0 +1,195 @@
+package com.docreader.utils;
+
+/**
+ * Tessellates a variable-width stroke into one closed outline polygon, so it can be drawn as a
+ * single filled path on screen or in a PDF.
+ *
+ * The centre line follows the same midpoint curves the screen uses for strokes: straight to the
+ * first midpoint, quadratics through each point to the next midpoint, straight to the end.
+ * Each curve is sampled a few times, offset sideways by half the local width on both sides, and
+ * the two sides are joined by round caps.
+ *
+ * A stroke can also be tessellated a few curves at a time, e.g. while it is being drawn. Pieces
+ * of it follow the whole stroke's centre line exactly and overlap in their round ends.
+ */
+public class StrokeOutline {
+
+    private static final int SAMPLES_PER_CURVE = 4;
+    private static final int CAP_STEPS = 6;
+    private static final int DOT_STEPS = 12;
+
+    private StrokeOutline() {
+    }
+
+    /**
+     * @param points Interleaved normalized x/y pairs
+     * @param pointOffset Float index of the first x coordinate
+     * @param factors Per-point width factors (0-1)
+     * @param factorOffset Index of the first point's factor
+     * @param count Number of points
+     * @param width Full stroke width as a fraction of the page width
+     * @param originX Target x of normalized x = 0
+     * @param originY Target y of normalized y = 0
+     * @param scaleX Target units per normalized x, which is also the page width for the stroke width
+     * @param scaleY Target units per normalized y; negative for PDF's upward y axis
+     * @return Interleaved x/y outline vertices in target coordinates
+     */
+    public static float[] tessellate(float[] points, int pointOffset, float[] factors, int factorOffset,
+                                     int count, float width, float originX, float originY,
+                                     float scaleX, float scaleY) {
+        return tessellate(points, pointOffset, factors, factorOffset, count, 1, count,
+                width, originX, originY, scaleX, scaleY);
+    }
+
+    /**
+     * Outline of part of a stroke. The centre line is made of one piece per point after the first:
+     * piece i is the curve that ends halfway between points i - 1 and i, and piece count is the
+     * straight end to the last point. Pieces before count only depend on the points up to theirs.
+     * Only the points from {@code from - 2} on are read.
+     * @param from First piece, 1 to include the stroke's start
+     * @param to Last piece, count to include the stroke's end
+     */
+    public static float[] tessellate(float[] points, int pointOffset, float[] factors, int factorOffset,
+                                     int count, int from, int to, float width, float originX, float originY,
+                                     float scaleX, float scaleY) {
+        float halfWidth = width * Math.abs(scaleX) / 2;
+
+        // Centre line samples: x, y, half width
+        float[] centre = new float[(Math.max(to - from + 1, 1) * SAMPLES_PER_CURVE + 2) * 3];
+        int samples = 0;
+
+        // Start one point before the first piece's control point, to know where the piece begins
+        int first = Math.max(1, from - 1);
+        float px = originX + points[pointOffset + first * 2 - 2] * scaleX;
+        float py = originY + points[pointOffset + first * 2 - 1] * scaleY;
+        float pw = factors[factorOffset + first - 1] * halfWidth;
+        if (from == 1) {
+            samples = addSample(centre, samples, px, py, pw);
+        }
+
+        float startX = px;
+        float startY = py;
+        float startW = pw;
+        for (int i = first; i < count && i <= to; i++) {
+            float x = originX + points[pointOffset + i * 2] * scaleX;
+            float y = originY + points[pointOffset + i * 2 + 1] * scaleY;
+            float w = factors[factorOffset + i] * halfWidth;
+            float midX = (px + x) / 2;
+            float midY = (py + y) / 2;
+            float midW = (pw + w) / 2;
+
+            // A point before the first piece only tells where that piece starts
+            if (i == from && i > 1) {
+                samples = addSample(centre, samples, startX, startY, startW);
+            }
+            if (i >= from && i == 1) {
+                samples = addSample(centre, samples, midX, midY, midW);
+            } else if (i >= from) {
+                for (int s = 1; s <= SAMPLES_PER_CURVE; s++) {
+                    float t = s / (float) SAMPLES_PER_CURVE;
+                    float a = (1 - t) * (1 - t);
+                    float b = 2 * (1 - t) * t;
+                    float c = t * t;
+                    samples = addSample(centre, samples,
+                            a * startX + b * px + c * midX,
+                            a * startY + b * py + c * midY,
+                            a * startW + b * pw + c * midW);
+                }
+            }
+            startX = midX;
+            startY = midY;
+            startW = midW;
+            px = x;
+            py = y;
+            pw = w;
+        }
+        if (to == count && count > 1) {
+            if (from == count) {
+                samples = addSample(centre, samples, startX, startY, startW);
+            }
+            samples = addSample(centre, samples, px, py, pw);
+        }
+
+        if (samples == 1) {
+            return dot(centre[0], centre[1], centre[2]);
+        }
+
+        float[] outline = new float[(samples * 2 + (CAP_STEPS - 1) * 2) * 2];
+        int n = 0;
+
+        // Left side forward
+        for (int i = 0; i < samples; i++) {
+            float nx = normalX(centre, samples, i);
+            float ny = normalY(centre, samples, i);
+            outline[n++] = centre[i * 3] + nx * centre[i * 3 + 2];
+            outline[n++] = centre[i * 3 + 1] + ny * centre[i * 3 + 2];
+        }
+        n = cap(outline, n, centre, samples - 1, normalX(centre, samples, samples - 1),
+                normalY(centre, samples, samples - 1));
+
+        // Right side backward
+        for (int i = samples - 1; i >= 0; i--) {
+            float nx = normalX(centre, samples, i);
+            float ny = normalY(centre, samples, i);
+            outline[n++] = centre[i * 3] - nx * centre[i * 3 + 2];
+            outline[n++] = centre[i * 3 + 1] - ny * centre[i * 3 + 2];
+        }
+        cap(outline, n, centre, 0, -normalX(centre, samples, 0), -normalY(centre, samples, 0));
+        return outline;
+    }
+
+    private static int addSample(float[] centre, int samples, float x, float y, float halfWidth) {
+        // Coincident samples have no direction and would give a degenerate normal
+        if (samples > 0 && Math.abs(centre[samples * 3 - 3] - x) < 1e-3f
+                && Math.abs(centre[samples * 3 - 2] - y) < 1e-3f) {
+            centre[samples * 3 - 1] = Math.max(centre[samples * 3 - 1], halfWidth);
+            return samples;
+        }
+        centre[samples * 3] = x;
+        centre[samples * 3 + 1] = y;
+        centre[samples * 3 + 2] = halfWidth;
+        return samples + 1;
+    }
+
+    /**
+     * Unit normal at a sample, from the direction between its neighbours
+     */
+    private static float normalX(float[] centre, int samples, int i) {
+        float dx = centre[Math.min(i + 1, samples - 1) * 3] - centre[Math.max(i - 1, 0) * 3];
+        float dy = centre[Math.min(i + 1, samples - 1) * 3 + 1] - centre[Math.max(i - 1, 0) * 3 + 1];
+        float length = (float) Math.hypot(dx, dy);
+        return length == 0 ? 0 : -dy / length;
+    }
+
+    private static float normalY(float[] centre, int samples, int i) {
+        float dx = centre[Math.min(i + 1, samples - 1) * 3] - centre[Math.max(i - 1, 0) * 3];
+        float dy = centre[Math.min(i + 1, samples - 1) * 3 + 1] - centre[Math.max(i - 1, 0) * 3 + 1];
+        float length = (float) Math.hypot(dx, dy);
+        return length == 0 ? 1 : dx / length;
+    }
+
+    /**
+     * Half circle around a sample, from the side the normal points to over to the other side,
+     * excluding both ends
+     */
+    private static int cap(float[] outline, int n, float[] centre, int i, float nx, float ny) {
+        double start = Math.atan2(ny, nx);
+        float r = centre[i * 3 + 2];
+        for (int s = 1; s < CAP_STEPS; s++) {
+            double angle = start - Math.PI * s / CAP_STEPS;
+            outline[n++] = centre[i * 3] + (float) Math.cos(angle) * r;
+            outline[n++] = centre[i * 3 + 1] + (float) Math.sin(angle) * r;
+        }
+        return n;
+    }
+
+    private static float[] dot(float x, float y, float r) {
+        float[] outline = new float[DOT_STEPS * 2];
+        for (int s = 0; s < DOT_STEPS; s++) {
+            double angle = 2 * Math.PI * s / DOT_STEPS;
+            outline[s * 2] = x + (float) Math.cos(angle) * r;
+            outline[s * 2 + 1] = y + (float) Math.sin(angle) * r;
+        }
+        return outline;
+    }
+}
@@ -12,11 +12,19 @@ import android.util.AttributeSet;
 import android.view.MotionEvent;
 import android.view.View;
 
-import java.util.ArrayList;
+import com.docreader.models.InkStroke;
+import com.docreader.utils.StrokeOutline;
+
+import java.util.ArrayDeque;
+import java.util.Arrays;
 import java.util.List;
 
 /**
  * Custom view for drawing annotations on PDF pages.
+ * Pen strokes vary in width with stylus pressure and get thinner the faster they are drawn.
+ * The ink itself is owned and rendered by an InkRenderer thread; this view draws its latest
+ * frame plus the stroke in progress. Every committed change to a page's strokes is passed on to
+ * an OnInkChangeListener, so the strokes can be kept and journaled as they are drawn.
  */
 public class DrawingView extends View {
 
@@ -24,18 +32,55 @@ public class DrawingView extends View {
         PEN,
         HIGHLIGHTER,
         ERASER,
+        // Removes whole strokes it touches instead of clearing pixels
+        STROKE_ERASER,
         TEXT,
         NONE
     }
 
+    // Opaque strokes are baked into the ink tiles every this many segments
+    private static final int COMMIT_CHUNK_SEGMENTS = 32;
+    // Touch samples closer than this to the previous kept point are dropped
+    private static final float MIN_POINT_DISTANCE_DP = 1.5f;
+    // Pen width range and response: width = brush size * pressure factor * speed factor
+    private static final float MIN_WIDTH_FACTOR = 0.35f;
+    private static final float MIN_PRESSURE_FACTOR = 0.4f;
+    // Speed in dp per millisecond at which the width is halved by speed alone
+    private static final float HALF_WIDTH_SPEED = 1.6f;
+    // Weight of each new sample in the smoothed width factor
+    private static final float WIDTH_SMOOTHING = 0.3f;
+    // Smallest stroke that can be recognized as a shape
+    private static final float MIN_SHAPE_SIZE_DP = 16f;
+
     private Path currentPath;
+    private StrokeBuilder strokeBuilder;
+    private ShapeRecognizer shapeRecognizer;
+    // Pen and highlighter strokes that fit a shape closely are replaced by it
+    private boolean shapeRecognition;
+    // The stroke in progress is being fed to the shape recognizer
+    private boolean recognizing;
+    private int uncommittedSegments;
     private Paint drawPaint;
+    private Paint fillPaint;
     private Paint canvasPaint;
-    private Canvas drawCanvas;
-    private Bitmap canvasBitmap;
-
-    private List<DrawingPath> paths = new ArrayList<>();
-    private List<DrawingPath> undonePaths = new ArrayList<>();
+    // The stroke in progress is a pen stroke, previewed as a filled outline in currentPath
+    private boolean variableWidth;
+    private float widthFactor;
+    // First outline piece of the pen stroke in progress not baked into the ink yet, see StrokeOutline
+    private int outlineFrom;
+    private float lastSampleX;
+    private float lastSampleY;
+    private long lastSampleTime;
+    private InkRenderer renderer;
+    // Changes from renderer commands up to this one were made before the last clearAll()
+    private long clearedSequence;
+    // Committed paths the renderer has not published a frame with yet, oldest first
+    private final ArrayDeque<PendingPath> pendingPaths = new ArrayDeque<>();
+    private int activePage;
+    private boolean drawing;
+    private boolean erasing;
+    private float lastEraserX;
+    private float lastEraserY;
 
     private Tool currentTool = Tool.NONE;
     private int currentColor = Color.RED;
@@ -45,11 +90,42 @@ public class DrawingView extends View {
 
     private boolean isEnabled = false;
     private OnTextPlacementListener textPlacementListener;
+    private OnInkChangeListener inkChangeListener;
 
     public interface OnTextPlacementListener {
         void onTextPlacement(float x, float y);
     }
 
+    /**
+     * Changes to a page's list of strokes, as returned by getStrokes(), in the order they happen.
+     * Strokes loaded with loadStrokes() and the clearing by clearAll() are not reported.
+     */
+    public interface OnInkChangeListener {
+        /**
+         * A stroke was drawn, or strokes came back through undo or redo
+         * @param positions Ascending positions the strokes have in the page's list afterwards
+         */
+        void onStrokesInserted(int pageIndex, int[] positions, List<InkStroke> strokes);
+
+        /**
+         * Strokes were erased, undone or cleared
+         * @param positions Ascending positions the strokes had in the page's list before
+         */
+        void onStrokesRemoved(int pageIndex, int[] positions);
+    }
+
+    private static class PendingPath {
+        final Path path;
+        final Paint paint;
+        final long sequence;
+
+        PendingPath(Path path, Paint paint, long sequence) {
+            this.path = path;
+            this.paint = paint;
+            this.sequence = sequence;
+        }
+    }
+
     public DrawingView(Context context) {
         super(context);
         init();
@@ -67,6 +143,8 @@ public class DrawingView extends View {
 
     private void init() {
         currentPath = new Path();
+        strokeBuilder = new StrokeBuilder(MIN_POINT_DISTANCE_DP * getResources().getDisplayMetrics().density);
+        shapeRecognizer = new ShapeRecognizer(MIN_SHAPE_SIZE_DP * getResources().getDisplayMetrics().density);
 
         drawPaint = new Paint();
         drawPaint.setAntiAlias(true);
@@ -74,18 +152,53 @@ public class DrawingView extends View {
         drawPaint.setStrokeJoin(Paint.Join.ROUND);
         drawPaint.setStrokeCap(Paint.Cap.ROUND);
 
+        fillPaint = new Paint();
+        fillPaint.setAntiAlias(true);
+        fillPaint.setStyle(Paint.Style.FILL);
+
         canvasPaint = new Paint(Paint.DITHER_FLAG);
+        renderer = new InkRenderer(this, new InkRenderer.ChangeListener() {
+            @Override
+            public void onStrokesInserted(int pageIndex, long sequence, int[] positions, List<InkStroke> strokes) {
+                post(() -> {
+                    if (sequence > clearedSequence && inkChangeListener != null) {
+                        inkChangeListener.onStrokesInserted(pageIndex, positions, strokes);
+                    }
+                });
+            }
+
+            @Override
+            public void onStrokesRemoved(int pageIndex, long sequence, int[] positions) {
+                post(() -> {
+                    if (sequence > clearedSequence && inkChangeListener != null) {
+                        inkChangeListener.onStrokesRemoved(pageIndex, positions);
+                    }
+                });
+            }
+        });
 
         setupPen();
     }
 
+    @Override
+    protected void onAttachedToWindow() {
+        super.onAttachedToWindow();
+        renderer.start();
+    }
+
+    @Override
+    protected void onDetachedFromWindow() {
+        renderer.quit();
+        super.onDetachedFromWindow();
+    }
+
     @Override
     protected void onSizeChanged(int w, int h, int oldw, int oldh) {
         super.onSizeChanged(w, h, oldw, oldh);
 
+        // Other pages are re-rendered when they become active again
         if (w > 0 && h > 0) {
-            canvasBitmap = Bitmap.createBitmap(w, h, Bitmap.Config.ARGB_8888);
-            drawCanvas = new Canvas(canvasBitmap);
+            renderer.setSize(w, h);
         }
     }
 
@@ -93,12 +206,21 @@ public class DrawingView extends View {
     protected void onDraw(Canvas canvas) {
         super.onDraw(canvas);
 
-        if (canvasBitmap != null) {
-            canvas.drawBitmap(canvasBitmap, 0, 0, canvasPaint);
+        InkRenderer.Frame frame = renderer.acquireFrame();
+        if (frame != null) {
+            if (frame.bitmap != null) {
+                canvas.drawBitmap(frame.bitmap, 0, 0, canvasPaint);
+            }
+            while (!pendingPaths.isEmpty() && pendingPaths.peekFirst().sequence <= frame.sequence) {
+                pendingPaths.removeFirst();
+            }
+        }
+        for (PendingPath pending : pendingPaths) {
+            canvas.drawPath(pending.path, pending.paint);
         }
 
-        if (currentTool != Tool.NONE && currentTool != Tool.TEXT) {
-            canvas.drawPath(currentPath, drawPaint);
+        if (currentTool != Tool.NONE && currentTool != Tool.TEXT && currentTool != Tool.STROKE_ERASER) {
+            canvas.drawPath(currentPath, variableWidth ? fillPaint : drawPaint);
         }
     }
 
@@ -120,31 +242,294 @@ public class DrawingView extends View {
             return true;
         }
 
+        if (currentTool == Tool.STROKE_ERASER) {
+            return onStrokeEraserTouch(event);
+        }
+
+        if (event.getAction() == MotionEvent.ACTION_DOWN) {
+            if (getWidth() == 0 || getHeight() == 0) {
+                return false;
+            }
+            drawing = true;
+        }
+        if (!drawing) {
+            // The page was cleared or switched mid-stroke
+            return false;
+        }
+
         switch (event.getAction()) {
             case MotionEvent.ACTION_DOWN:
+                currentPath.reset();
                 currentPath.moveTo(touchX, touchY);
+                uncommittedSegments = 0;
+                variableWidth = currentTool == Tool.PEN;
+                outlineFrom = 1;
+                widthFactor = pressureFactor(event.getPressure());
+                lastSampleX = touchX;
+                lastSampleY = touchY;
+                lastSampleTime = event.getEventTime();
+                strokeBuilder.start(touchX, touchY, widthFactor);
+                recognizing = shapeRecognition && (currentTool == Tool.PEN || currentTool == Tool.HIGHLIGHTER);
+                if (recognizing) {
+                    shapeRecognizer.start(touchX, touchY);
+                }
+                updateOutline();
+                invalidateArea(touchX, touchY, touchX, touchY, touchX, touchY);
                 break;
             case MotionEvent.ACTION_MOVE:
-                currentPath.lineTo(touchX, touchY);
+                // Android batches several samples into one MOVE; use all of them
+                for (int h = 0; h < event.getHistorySize(); h++) {
+                    addSample(event.getHistoricalX(h), event.getHistoricalY(h),
+                            nextWidthFactor(event.getHistoricalX(h), event.getHistoricalY(h),
+                                    event.getHistoricalPressure(h), event.getHistoricalEventTime(h)));
+                }
+                addSample(touchX, touchY,
+                        nextWidthFactor(touchX, touchY, event.getPressure(), event.getEventTime()));
+                updateOutline();
                 break;
-            case MotionEvent.ACTION_UP:
-                if (currentTool == Tool.ERASER) {
-                    drawCanvas.drawPath(currentPath, drawPaint);
+            case MotionEvent.ACTION_UP: {
+                float fromX = strokeBuilder.getLatestMidX();
+                float fromY = strokeBuilder.getLatestMidY();
+                int kept = strokeBuilder.getCount();
+                strokeBuilder.finish(touchX, touchY,
+                        nextWidthFactor(touchX, touchY, event.getPressure(), event.getEventTime()));
+                InkStroke shape = recognizing ? recognizeShape(kept, touchX, touchY) : null;
+                if (shape != null) {
+                    // Strokes being recognized never commit chunks early
+                    currentPath = StrokeBuilder.buildShapePath(shape.getShape(), shape.getPoints(), 0,
+                            getWidth(), getHeight());
+                    invalidate();
+                    commitPath(drawPaint, shape);
+                    drawing = false;
+                    break;
+                }
+                if (variableWidth) {
+                    updateOutline();
                 } else {
-                    drawCanvas.drawPath(currentPath, drawPaint);
-                    paths.add(new DrawingPath(new Path(currentPath), new Paint(drawPaint)));
+                    currentPath.lineTo(touchX, touchY);
                 }
-                currentPath.reset();
-                undonePaths.clear();
+                invalidateArea(fromX, fromY, touchX, touchY, touchX, touchY);
+
+                // Erasers are kept too, so replay and vector export erase the same ink as the screen
+                commitPath(variableWidth ? fillPaint : drawPaint, createStroke());
+                drawing = false;
+                break;
+            }
+            case MotionEvent.ACTION_CANCEL:
+                // The gesture was taken away mid-stroke; keep what was drawn up to here
+                finishStroke();
                 break;
             default:
                 return false;
         }
 
-        invalidate();
         return true;
     }
 
+    private boolean onStrokeEraserTouch(MotionEvent event) {
+        float touchX = event.getX();
+        float touchY = event.getY();
+
+        switch (event.getAction()) {
+            case MotionEvent.ACTION_DOWN:
+                erasing = true;
+                eraseAlong(touchX, touchY, touchX, touchY);
+                break;
+            case MotionEvent.ACTION_MOVE:
+                for (int h = 0; h < event.getHistorySize(); h++) {
+                    eraseAlong(lastEraserX, lastEraserY, event.getHistoricalX(h), event.getHistoricalY(h));
+                }
+                eraseAlong(lastEraserX, lastEraserY, touchX, touchY);
+                break;
+            case MotionEvent.ACTION_UP:
+                eraseAlong(lastEraserX, lastEraserY, touchX, touchY);
+                // fall through
+            case MotionEvent.ACTION_CANCEL:
+                if (erasing) {
+                    renderer.endErase();
+                    erasing = false;
+                }
+                break;
+            default:
+                return false;
+        }
+        return true;
+    }
+
+    private void eraseAlong(float x1, float y1, float x2, float y2) {
+        lastEraserX = x2;
+        lastEraserY = y2;
+        if (erasing) {
+            renderer.eraseAlong(x1, y1, x2, y2, eraserSize / 2);
+        }
+    }
+
+    private void addSample(float x, float y, float factor) {
+        float fromX = strokeBuilder.getLatestMidX();
+        float fromY = strokeBuilder.getLatestMidY();
+        if (!strokeBuilder.add(x, y, factor)) {
+            return;
+        }
+        if (recognizing) {
+            shapeRecognizer.add(x, y);
+        }
+        int last = strokeBuilder.getCount() - 1;
+        if (variableWidth) {
+            // The outline runs on to the newest point itself; updateOutline() rebuilds its live part
+            invalidateArea(fromX, fromY, strokeBuilder.getX(last - 1), strokeBuilder.getY(last - 1), x, y);
+            return;
+        }
+        strokeBuilder.appendLatestSegment(currentPath);
+
+        invalidateArea(fromX, fromY, strokeBuilder.getX(last - 1), strokeBuilder.getY(last - 1),
+                strokeBuilder.getLatestMidX(), strokeBuilder.getLatestMidY());
+        commitChunkIfLong(strokeBuilder.getLatestMidX(), strokeBuilder.getLatestMidY());
+    }
+
+    /**
+     * Rebuild the live outline of the pen stroke in progress, once per touch event. Only the pieces
+     * after the last baked chunk are tessellated. Once enough pieces are final they are baked like
+     * the chunks of constant-width strokes, so the work per event and per frame stays bounded.
+     */
+    private void updateOutline() {
+        if (!variableWidth) {
+            return;
+        }
+        // The last two pieces stay live: the end point may still be moved when the stroke finishes.
+        // A recognized shape replaces the whole stroke, so nothing is baked while recognizing.
+        int count = strokeBuilder.getCount();
+        if (count - 1 - outlineFrom >= COMMIT_CHUNK_SEGMENTS && fillPaint.getAlpha() == 255 && !recognizing) {
+            setOutline(outlineFrom, count - 2);
+            commitPath(fillPaint, null);
+            outlineFrom = count - 1;
+        }
+        setOutline(outlineFrom, count);
+    }
+
+    private void setOutline(int from, int to) {
+        float[] outline = StrokeOutline.tessellate(strokeBuilder.getPoints(), 0, strokeBuilder.getFactors(), 0,
+                strokeBuilder.getCount(), from, to, drawPaint.getStrokeWidth(), 0, 0, 1, 1);
+        StrokeBuilder.setPolygon(currentPath, outline, 0, outline.length);
+    }
+
+    private static float pressureFactor(float pressure) {
+        return MIN_PRESSURE_FACTOR + (1 - MIN_PRESSURE_FACTOR) * Math.max(0, Math.min(1, pressure));
+    }
+
+    /**
+     * Width factor for the next sample from its pressure and the speed since the last sample,
+     * smoothed so the width swells and tapers instead of jumping
+     */
+    private float nextWidthFactor(float x, float y, float pressure, long time) {
+        long elapsed = time - lastSampleTime;
+        if (elapsed <= 0) {
+            return widthFactor;
+        }
+        float speed = (float) Math.hypot(x - lastSampleX, y - lastSampleY)
+                / getResources().getDisplayMetrics().density / elapsed;
+        float target = pressureFactor(pressure) / (1 + speed / HALF_WIDTH_SPEED);
+        target = Math.max(MIN_WIDTH_FACTOR, Math.min(1, target));
+        widthFactor += WIDTH_SMOOTHING * (target - widthFactor);
+
+        lastSampleX = x;
+        lastSampleY = y;
+        lastSampleTime = time;
+        return widthFactor;
+    }
+
+    /**
+     * Invalidate only the area the newest curve segment can touch: the hull of its start,
+     * control and end points, padded by the stroke width
+     */
+    private void invalidateArea(float x1, float y1, float x2, float y2, float x3, float y3) {
+        float pad = drawPaint.getStrokeWidth() / 2 + 2;
+        invalidate((int) Math.floor(Math.min(x1, Math.min(x2, x3)) - pad),
+                (int) Math.floor(Math.min(y1, Math.min(y2, y3)) - pad),
+                (int) Math.ceil(Math.max(x1, Math.max(x2, x3)) + pad),
+                (int) Math.ceil(Math.max(y1, Math.max(y2, y3)) + pad));
+    }
+
+    /**
+     * Bake the live part of an opaque stroke into the backing bitmap so the path drawn
+     * every frame stays short however long the stroke gets. Translucent strokes stay live:
+     * committing them in pieces would double the alpha where the pieces meet.
+     */
+    private void commitChunkIfLong(float x, float y) {
+        if (++uncommittedSegments < COMMIT_CHUNK_SEGMENTS || drawPaint.getAlpha() != 255) {
+            return;
+        }
+        commitPath(drawPaint, null);
+        currentPath.moveTo(x, y);
+        uncommittedSegments = 0;
+    }
+
+    /**
+     * Hand the live path to the renderer, and keep drawing it until a frame with it arrives
+     * @param stroke The stroke the path completes, or null for a chunk of a stroke in progress
+     */
+    private void commitPath(Paint paint, InkStroke stroke) {
+        Paint copy = new Paint(paint);
+        long sequence = renderer.drawPath(activePage, currentPath, copy, stroke);
+        pendingPaths.addLast(new PendingPath(currentPath, copy, sequence));
+        currentPath = new Path();
+    }
+
+    /**
+     * Commit the stroke in progress as drawn so far. Chunks of it may already be in the tiles,
+     * and they need the stroke's record to be undone, erased and saved with it.
+     */
+    private void finishStroke() {
+        if (!drawing) {
+            return;
+        }
+        drawing = false;
+        updateOutline();
+        commitPath(variableWidth ? fillPaint : drawPaint, createStroke());
+        invalidate();
+    }
+
+    /**
+     * Feed the stroke's end point to the recognizer and fit the finished stroke
+     * @param kept Points the stroke builder had before its end point was offered
+     * @return The recognized shape as a constant-width stroke, or null to keep the freehand stroke
+     */
+    private InkStroke recognizeShape(int kept, float endX, float endY) {
+        if (strokeBuilder.getCount() > kept) {
+            shapeRecognizer.add(endX, endY);
+        } else if (kept > 1) {
+            shapeRecognizer.replaceLast(endX, endY);
+        }
+        InkStroke.Shape shape = shapeRecognizer.recognize();
+        if (shape == InkStroke.Shape.FREEHAND) {
+            return null;
+        }
+        float[] points = Arrays.copyOf(shapeRecognizer.getShapePoints(),
+                shape == InkStroke.Shape.LINE ? 4 : 8);
+        for (int i = 0; i < points.length; i += 2) {
+            points[i] /= getWidth();
+            points[i + 1] /= getHeight();
+        }
+        return new InkStroke(strokeTool(), drawPaint.getColor(), drawPaint.getStrokeWidth() / getWidth(),
+                shape, points);
+    }
+
+    private InkStroke.Tool strokeTool() {
+        switch (currentTool) {
+            case HIGHLIGHTER:
+                return InkStroke.Tool.HIGHLIGHTER;
+            case ERASER:
+                return InkStroke.Tool.ERASER;
+            default:
+                return InkStroke.Tool.PEN;
+        }
+    }
+
+    private InkStroke createStroke() {
+        return InkStroke.fromViewPoints(strokeTool(), drawPaint.getColor(), drawPaint.getStrokeWidth(),
+                strokeBuilder.getPoints(), variableWidth ? strokeBuilder.getFactors() : null,
+                strokeBuilder.getCount(), getWidth(), getHeight());
+    }
+
     public void setTool(Tool tool) {
         this.currentTool = tool;
 
@@ -158,6 +543,7 @@ public class DrawingView extends View {
             case ERASER:
                 setupEraser();
                 break;
+            case STROKE_ERASER:
             case TEXT:
             case NONE:
                 break;
@@ -165,6 +551,7 @@ public class DrawingView extends View {
     }
 
     private void setupPen() {
+        fillPaint.setColor(currentColor);
         drawPaint.setColor(currentColor);
         drawPaint.setStrokeWidth(brushSize);
         drawPaint.setAlpha(255);
@@ -187,6 +574,7 @@ public class DrawingView extends View {
     public void setColor(int color) {
         this.currentColor = color;
         if (currentTool == Tool.PEN) {
+            fillPaint.setColor(color);
             drawPaint.setColor(color);
             drawPaint.setAlpha(255);
         } else if (currentTool == Tool.HIGHLIGHTER) {
@@ -209,6 +597,18 @@ public class DrawingView extends View {
         }
     }
 
+    /**
+     * Replace pen and highlighter strokes that closely fit a line, rectangle, ellipse or arrow
+     * with the exact shape
+     */
+    public void setShapeRecognition(boolean enabled) {
+        this.shapeRecognition = enabled;
+    }
+
+    public boolean isShapeRecognition() {
+        return shapeRecognition;
+    }
+
     public boolean isEditEnabled() {
         return isEnabled;
     }
@@ -217,65 +617,126 @@ public class DrawingView extends View {
         this.textPlacementListener = listener;
     }
 
-    public void undo() {
-        if (!paths.isEmpty()) {
-            undonePaths.add(paths.remove(paths.size() - 1));
-            redrawCanvas();
+    /**
+     * @param listener Called on the UI thread, shortly after each change is made
+     */
+    public void setOnInkChangeListener(OnInkChangeListener listener) {
+        this.inkChangeListener = listener;
+    }
+
+    /**
+     * Show the ink of a page. Only the renderer's active layer changes; a layer is re-rendered
+     * only if the view size changed while its page was inactive.
+     */
+    public void setPage(int pageIndex) {
+        if (pageIndex == activePage) {
+            return;
+        }
+        if (erasing) {
+            renderer.endErase();
+            erasing = false;
         }
+        finishStroke();
+        currentPath.reset();
+        activePage = pageIndex;
+        renderer.setPage(pageIndex);
+        invalidate();
+    }
+
+    public int getPage() {
+        return activePage;
     }
 
+    /**
+     * Undo the last action on the active page
+     */
+    public void undo() {
+        renderer.undo();
+    }
+
+    /**
+     * Redo the last undone action on the active page
+     */
     public void redo() {
-        if (!undonePaths.isEmpty()) {
-            paths.add(undonePaths.remove(undonePaths.size() - 1));
-            redrawCanvas();
-        }
+        renderer.redo();
+    }
+
+    public boolean canUndo() {
+        return renderer.canUndo();
+    }
+
+    public boolean canRedo() {
+        return renderer.canRedo();
     }
 
+    /**
+     * Clear the active page's ink and history
+     */
+    public void clearPage() {
+        drawing = false;
+        currentPath.reset();
+        renderer.clearPage(activePage);
+        invalidate();
+    }
+
+    /**
+     * Clear the ink and history of every page. Changes made before this that have not reached the
+     * OnInkChangeListener yet are dropped.
+     */
     public void clearAll() {
-        paths.clear();
-        undonePaths.clear();
-        if (drawCanvas != null) {
-            drawCanvas.drawColor(Color.TRANSPARENT, PorterDuff.Mode.CLEAR);
-        }
+        drawing = false;
+        currentPath.reset();
+        clearedSequence = renderer.clearAll();
         invalidate();
     }
 
-    private void redrawCanvas() {
-        if (drawCanvas != null) {
-            drawCanvas.drawColor(Color.TRANSPARENT, PorterDuff.Mode.CLEAR);
-            for (DrawingPath dp : paths) {
-                drawCanvas.drawPath(dp.path, dp.paint);
-            }
-            invalidate();
+    /**
+     * Add strokes to a page's starting ink, e.g. annotations loaded from the PDF, so they can be
+     * erased like drawn ones. They are not part of the undo history.
+     */
+    public void loadStrokes(int pageIndex, List<InkStroke> strokes) {
+        if (!strokes.isEmpty()) {
+            renderer.loadStrokes(pageIndex, strokes);
         }
     }
 
-    public Bitmap getDrawingBitmap() {
-        return canvasBitmap;
+    /**
+     * The active page's strokes in page-normalized vector form, oldest first
+     */
+    public List<InkStroke> getStrokes() {
+        return getStrokes(activePage);
     }
 
-    public boolean hasDrawings() {
-        return !paths.isEmpty();
+    public List<InkStroke> getStrokes(int pageIndex) {
+        return renderer.getStrokes(pageIndex);
     }
 
-    public Tool getCurrentTool() {
-        return currentTool;
+    /**
+     * Pages that currently have ink, in ascending order
+     */
+    public List<Integer> getPagesWithStrokes() {
+        return renderer.getPagesWithStrokes();
     }
 
-    public int getCurrentColor() {
-        return currentColor;
+    /**
+     * Whether any page has ink
+     */
+    public boolean hasDrawings() {
+        return !renderer.getPagesWithStrokes().isEmpty();
     }
 
     /**
-     * Inner class to store path with its paint settings
+     * Whether any page's ink was drawn or erased since it was loaded
      */
-    private static class DrawingPath {
-        Path path;
-        Paint paint;
+    public boolean hasEdits() {
+        return renderer.hasEdits();
+    }
 
-        DrawingPath(Path path, Paint paint) {
-            this.path = path;
-            this.paint = paint;
-        }
+    public Tool getCurrentTool() {
+        return currentTool;
+    }
+
+    public int getCurrentColor() {
+        return currentColor;
     }
 }
@@ -0,0 +1,683 @@
+package com.docreader.views;
+
+import android.graphics.Bitmap;
+import android.graphics.Paint;
+import android.graphics.Path;
+import android.graphics.PorterDuff;
+import android.graphics.PorterDuffXfermode;
+import android.graphics.Rect;
+import android.graphics.RectF;
+
+import com.docreader.models.InkStroke;
+import com.docreader.models.StrokeStore;
+import com.docreader.utils.StrokeOutline;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * The ink of one page: its strokes, spatial index, undo history and rendered tiles.
+ *
+ * Every edit is an action: drawing one stroke, or erasing whole strokes in one eraser drag.
+ * Undo restores the nearest bitmap checkpoint and replays the few actions after it; undoing
+ * an erase only repaints the erased strokes' area. Methods that change the pixels return the
+ * view area that needs invalidating, or null if nothing changed.
+ *
+ * Strokes loaded from elsewhere, such as the PDF's own annotations, are the page's starting ink:
+ * every action applies on top of them, and undo stops there.
+ *
+ * Variable-width strokes are tessellated once into outline polygons at the current size, so
+ * redrawing one is a single filled path.
+ *
+ * Every change to the live strokes, including undo and redo, is reported to a ChangeListener
+ * by position in the live list, so a copy of the list elsewhere can follow along.
+ *
+ * Not thread-safe: layers are only used on the InkRenderer thread.
+ */
+public class InkLayer {
+
+    /**
+     * Changes to the list of live strokes returned by getStrokes()
+     */
+    interface ChangeListener {
+        /**
+         * @param positions Ascending positions the strokes have in the list afterwards
+         */
+        void onInserted(int[] positions, List<InkStroke> strokes);
+
+        /**
+         * @param positions Ascending positions the strokes had in the list before
+         */
+        void onRemoved(int[] positions);
+    }
+
+    // A checkpoint is taken every this many actions, so undo replays fewer than this many
+    private static final int CHECKPOINT_INTERVAL = 25;
+
+    private int width;
+    private int height;
+    private TileCanvas tiles;
+
+    private final StrokeStore strokes = new StrokeStore();
+    private final StrokeGrid strokeGrid = new StrokeGrid();
+    // Actions past actionCount are the redo stack
+    private int actionCount;
+    private int totalActions;
+    // Number of strokes in the store after each action; entry 0 is the loaded starting ink
+    private int[] actionStrokeCounts = new int[64];
+    // Strokes removed by each action, null for drawing actions; entry 0 is the empty start
+    private final List<int[]> erasedByAction = new ArrayList<>();
+    // Action that erased each stroke, 0 if none
+    private int[] erasedAt = new int[64];
+    // Strokes erased so far by the current eraser drag
+    private int[] pendingErased = new int[16];
+    private int pendingErasedCount;
+    // Paint per interned style id, built on first use for the current width
+    private final List<Paint> stylePaints = new ArrayList<>();
+    private final List<Paint> fillPaints = new ArrayList<>();
+    // Outline vertices in view pixels of every stroke, back to back; stroke i's end at
+    // outlineEnds[i], empty for constant-width strokes
+    private float[] outlines = new float[1024];
+    private int[] outlineEnds = new int[64];
+    private final Path outlinePath = new Path();
+    // Oldest first; the first one is the undo floor. One without tiles stands for the starting ink.
+    private final List<Checkpoint> checkpoints = new ArrayList<>();
+    private ChangeListener changeListener;
+
+    public InkLayer(int width, int height) {
+        this.width = width;
+        this.height = height;
+        this.tiles = new TileCanvas(width, height);
+        erasedByAction.add(null);
+        checkpoints.add(new Checkpoint(0, null));
+    }
+
+    public TileCanvas getTiles() {
+        return tiles;
+    }
+
+    public int getWidth() {
+        return width;
+    }
+
+    public int getHeight() {
+        return height;
+    }
+
+    void setChangeListener(ChangeListener listener) {
+        this.changeListener = listener;
+    }
+
+    /**
+     * Re-render at a new view size. The whole history is replayed once so checkpoints, and
+     * with them undo, keep working at the new size.
+     */
+    public void setSize(int width, int height) {
+        if (width == this.width && height == this.height) {
+            return;
+        }
+        this.width = width;
+        this.height = height;
+        tiles.clear();
+        tiles = new TileCanvas(width, height);
+        stylePaints.clear();
+        fillPaints.clear();
+        for (int index = 0; index < strokes.size(); index++) {
+            cacheOutline(index);
+        }
+
+        for (Checkpoint checkpoint : checkpoints) {
+            checkpoint.recycle();
+        }
+        checkpoints.clear();
+        checkpoints.add(new Checkpoint(0, null));
+        drawStartingInk();
+
+        int target = actionCount;
+        for (int action = 1; action <= target; action++) {
+            actionCount = action;
+            apply(action);
+            checkpointIfDue();
+        }
+    }
+
+    /**
+     * Make strokes part of the page's starting ink, above any ink it already has. They cannot be
+     * undone, only erased. The page's undo history starts over from here.
+     */
+    public Rect loadStrokes(List<InkStroke> loaded) {
+        List<InkStroke> start = getStrokes();
+        start.addAll(loaded);
+        clear();
+        for (InkStroke stroke : start) {
+            int index = strokes.add(stroke);
+            if (index == erasedAt.length) {
+                erasedAt = Arrays.copyOf(erasedAt, index * 2);
+            }
+            erasedAt[index] = 0;
+            cacheOutline(index);
+            strokeGrid.add(strokes, index, width / (float) height);
+        }
+        actionStrokeCounts[0] = strokes.size();
+        drawStartingInk();
+        return new Rect(0, 0, width, height);
+    }
+
+    /**
+     * Record a stroke whose pixels the caller has already drawn into getTiles()
+     */
+    public void addStroke(InkStroke stroke) {
+        startAction();
+        int index = strokes.add(stroke);
+        if (index == erasedAt.length) {
+            erasedAt = Arrays.copyOf(erasedAt, index * 2);
+        }
+        erasedAt[index] = 0;
+        cacheOutline(index);
+        strokeGrid.add(strokes, index, width / (float) height);
+        finishAction(null);
+        notifyInserted(new int[]{index});
+    }
+
+    /**
+     * Erase every live stroke within a radius of a drag segment in view pixels. Candidates come
+     * from the grid; each is confirmed by the exact distance between the drag segment and the
+     * stroke's segments. Strokes erased during one drag form a single action, closed by endErase().
+     */
+    public Rect eraseAlong(float x1, float y1, float x2, float y2, float radius) {
+        int[] candidates = strokeGrid.query((Math.min(x1, x2) - radius) / width,
+                (Math.min(y1, y2) - radius) / height,
+                (Math.max(x1, x2) + radius) / width,
+                (Math.max(y1, y2) + radius) / height);
+        float[] allPoints = strokes.getPoints();
+        RectF dirty = null;
+        RectF bounds = new RectF();
+
+        for (int index : candidates) {
+            if (!isLive(index, actionCount) || strokes.getTool(index) == InkStroke.Tool.ERASER) {
+                continue;
+            }
+            float reach = radius + strokes.getStyleWidth(strokes.getStyleId(index)) * width / 2;
+            float[] points = allPoints;
+            int offset = strokes.getPointOffset(index);
+            int count = strokes.getPointCount(index);
+            InkStroke.Shape shape = strokes.getShape(index);
+            if (shape != InkStroke.Shape.FREEHAND) {
+                points = InkStroke.shapePolyline(shape, allPoints, offset);
+                offset = 0;
+                count = points.length / 2;
+            }
+
+            boolean hit = false;
+            float ax = points[offset] * width;
+            float ay = points[offset + 1] * height;
+            if (count == 1) {
+                hit = pointSegmentDistance(ax, ay, x1, y1, x2, y2) <= reach;
+            }
+            for (int i = 1; i < count && !hit; i++) {
+                float bx = points[offset + i * 2] * width;
+                float by = points[offset + i * 2 + 1] * height;
+                hit = segmentsDistance(ax, ay, bx, by, x1, y1, x2, y2) <= reach;
+                ax = bx;
+                ay = by;
+            }
+            if (!hit) {
+                continue;
+            }
+
+            if (pendingErasedCount == 0) {
+                startAction();
+            }
+            erasedAt[index] = actionCount;
+            if (pendingErasedCount == pendingErased.length) {
+                pendingErased = Arrays.copyOf(pendingErased, pendingErasedCount * 2);
+            }
+            pendingErased[pendingErasedCount++] = index;
+
+            strokeGrid.getBounds(index, bounds);
+            if (dirty == null) {
+                dirty = new RectF(bounds);
+            } else {
+                dirty.union(bounds);
+            }
+        }
+
+        return dirty != null ? redrawRegion(dirty, actionCount) : null;
+    }
+
+    public void endErase() {
+        if (pendingErasedCount > 0) {
+            int[] erased = Arrays.copyOf(pendingErased, pendingErasedCount);
+            finishAction(erased);
+            pendingErasedCount = 0;
+            notifyRemoved(erased, actionCount - 1);
+        }
+    }
+
+    /**
+     * Undo the last action
+     */
+    public Rect undo() {
+        if (!canUndo()) {
+            return null;
+        }
+        int[] erased = erasedByAction.get(actionCount);
+        actionCount--;
+        if (erased != null) {
+            notifyInserted(erased);
+        } else {
+            notifyRemoved(new int[]{actionStrokeCounts[actionCount]}, actionCount + 1);
+        }
+
+        // Checkpoints past the new end are recreated when redo passes them again
+        while (checkpoints.get(checkpoints.size() - 1).actionCount > actionCount) {
+            checkpoints.remove(checkpoints.size() - 1).recycle();
+        }
+        if (erased != null) {
+            return redrawRegion(boundsOf(erased), actionCount);
+        }
+
+        Checkpoint checkpoint = checkpoints.get(checkpoints.size() - 1);
+        if (checkpoint.tiles != null) {
+            tiles.restore(checkpoint.tiles);
+        } else {
+            tiles.clear();
+            drawStartingInk();
+        }
+        int target = actionCount;
+        for (int action = checkpoint.actionCount + 1; action <= target; action++) {
+            apply(action);
+        }
+        return new Rect(0, 0, width, height);
+    }
+
+    /**
+     * Redo the last undone action; a stroke only has to be drawn on top
+     */
+    public Rect redo() {
+        if (!canRedo()) {
+            return null;
+        }
+        actionCount++;
+        Rect dirty = apply(actionCount);
+        checkpointIfDue();
+        int[] erased = erasedByAction.get(actionCount);
+        if (erased != null) {
+            notifyRemoved(erased, actionCount - 1);
+        } else {
+            notifyInserted(new int[]{actionStrokeCounts[actionCount - 1]});
+        }
+        return dirty;
+    }
+
+    /**
+     * Actions older than the oldest kept checkpoint can no longer be undone
+     */
+    public boolean canUndo() {
+        return actionCount > checkpoints.get(0).actionCount;
+    }
+
+    public boolean canRedo() {
+        return actionCount < totalActions;
+    }
+
+    /**
+     * Whether the live ink differs from the starting ink
+     */
+    public boolean hasEdits() {
+        return actionCount > 0;
+    }
+
+    public void clear() {
+        strokes.clear();
+        strokeGrid.clear();
+        actionStrokeCounts[0] = 0;
+        actionCount = 0;
+        totalActions = 0;
+        erasedByAction.clear();
+        erasedByAction.add(null);
+        pendingErasedCount = 0;
+        stylePaints.clear();
+        fillPaints.clear();
+        for (Checkpoint checkpoint : checkpoints) {
+            checkpoint.recycle();
+        }
+        checkpoints.clear();
+        checkpoints.add(new Checkpoint(0, null));
+        tiles.clear();
+    }
+
+    /**
+     * Live strokes in page-normalized vector form, oldest first
+     */
+    public List<InkStroke> getStrokes() {
+        List<InkStroke> result = new ArrayList<>();
+        for (int i = 0; i < actionStrokeCounts[actionCount]; i++) {
+            if (isLive(i, actionCount)) {
+                result.add(strokes.getStroke(i));
+            }
+        }
+        return result;
+    }
+
+    public boolean hasStrokes() {
+        for (int i = 0; i < actionStrokeCounts[actionCount]; i++) {
+            if (isLive(i, actionCount)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Draw the starting ink, which needs no checkpoint of its own
+     */
+    private void drawStartingInk() {
+        for (int index = 0; index < actionStrokeCounts[0]; index++) {
+            drawStroke(index, null);
+        }
+    }
+
+    /**
+     * Begin a new action, discarding the redo stack
+     */
+    private void startAction() {
+        int keep = actionStrokeCounts[actionCount];
+        for (int action = actionCount + 1; action <= totalActions; action++) {
+            int[] erased = erasedByAction.get(action);
+            if (erased != null) {
+                for (int index : erased) {
+                    if (index < keep) {
+                        erasedAt[index] = 0;
+                    }
+                }
+            }
+        }
+        erasedByAction.subList(actionCount + 1, erasedByAction.size()).clear();
+        strokeGrid.truncate(keep);
+        strokes.truncate(keep);
+
+        actionCount++;
+        totalActions = actionCount;
+        if (actionCount == actionStrokeCounts.length) {
+            actionStrokeCounts = Arrays.copyOf(actionStrokeCounts, actionCount * 2);
+        }
+        actionStrokeCounts[actionCount] = keep;
+        erasedByAction.add(null);
+    }
+
+    private void finishAction(int[] erased) {
+        actionStrokeCounts[actionCount] = strokes.size();
+        erasedByAction.set(actionCount, erased);
+        checkpointIfDue();
+    }
+
+    /**
+     * Render one action on top of the state after the action before it
+     */
+    private Rect apply(int action) {
+        int[] erased = erasedByAction.get(action);
+        if (erased != null) {
+            return redrawRegion(boundsOf(erased), action);
+        }
+        int index = actionStrokeCounts[action - 1];
+        drawStroke(index, null);
+        RectF bounds = new RectF();
+        strokeGrid.getBounds(index, bounds);
+        return toViewRect(bounds);
+    }
+
+    /**
+     * Report strokes that are live now and were not after the previous state
+     */
+    private void notifyInserted(int[] indices) {
+        if (changeListener == null) {
+            return;
+        }
+        int[] sorted = indices.clone();
+        Arrays.sort(sorted);
+        List<InkStroke> inserted = new ArrayList<>(sorted.length);
+        for (int index : sorted) {
+            inserted.add(strokes.getStroke(index));
+        }
+        changeListener.onInserted(livePositions(sorted, actionCount), inserted);
+    }
+
+    /**
+     * Report strokes that were live as of an earlier action and are not anymore
+     */
+    private void notifyRemoved(int[] indices, int before) {
+        if (changeListener == null) {
+            return;
+        }
+        int[] sorted = indices.clone();
+        Arrays.sort(sorted);
+        changeListener.onRemoved(livePositions(sorted, before));
+    }
+
+    /**
+     * Positions of live strokes in the live list as of an action
+     * @param sorted Ascending store indices of strokes live at that action
+     */
+    private int[] livePositions(int[] sorted, int action) {
+        int[] positions = new int[sorted.length];
+        int live = 0;
+        int next = 0;
+        for (int index = 0; next < sorted.length; index++) {
+            if (index == sorted[next]) {
+                positions[next++] = live;
+            }
+            if (isLive(index, action)) {
+                live++;
+            }
+        }
+        return positions;
+    }
+
+    private boolean isLive(int index, int action) {
+        return index < actionStrokeCounts[action]
+                && (erasedAt[index] == 0 || erasedAt[index] > action);
+    }
+
+    private RectF boundsOf(int[] indices) {
+        RectF union = new RectF();
+        RectF bounds = new RectF();
+        for (int index : indices) {
+            strokeGrid.getBounds(index, bounds);
+            union.union(bounds);
+        }
+        return union;
+    }
+
+    private Rect toViewRect(RectF region) {
+        return new Rect((int) Math.floor(region.left * width) - 1, (int) Math.floor(region.top * height) - 1,
+                (int) Math.ceil(region.right * width) + 1, (int) Math.ceil(region.bottom * height) + 1);
+    }
+
+    /**
+     * Repaint a page-normalized area from scratch with the strokes live after an action
+     */
+    private Rect redrawRegion(RectF region, int action) {
+        Rect clip = toViewRect(region);
+        tiles.clear(clip);
+        for (int index : strokeGrid.query(clip.left / (float) width, clip.top / (float) height,
+                clip.right / (float) width, clip.bottom / (float) height)) {
+            if (isLive(index, action)) {
+                drawStroke(index, clip);
+            }
+        }
+        return clip;
+    }
+
+    private void drawStroke(int index, Rect clip) {
+        InkStroke.Shape shape = strokes.getShape(index);
+        if (shape != InkStroke.Shape.FREEHAND) {
+            Path path = StrokeBuilder.buildShapePath(shape, strokes.getPoints(), strokes.getPointOffset(index),
+                    width, height);
+            tiles.drawPath(path, paintFor(strokes.getStyleId(index)), clip);
+            return;
+        }
+        if (strokes.isVariableWidth(index)) {
+            StrokeBuilder.setPolygon(outlinePath, outlines, outlineStart(index), outlineEnds[index]);
+            tiles.drawPath(outlinePath, fillPaintFor(strokes.getStyleId(index)), clip);
+            return;
+        }
+        Path path = StrokeBuilder.buildPath(strokes.getPoints(), strokes.getPointOffset(index),
+                strokes.getPointCount(index), width, height);
+        tiles.drawPath(path, paintFor(strokes.getStyleId(index)), clip);
+    }
+
+    private int outlineStart(int index) {
+        return index == 0 ? 0 : outlineEnds[index - 1];
+    }
+
+    /**
+     * Tessellate a stroke's outline at the current size, replacing the outlines of it and every
+     * later stroke
+     */
+    private void cacheOutline(int index) {
+        if (index == outlineEnds.length) {
+            outlineEnds = Arrays.copyOf(outlineEnds, index * 2);
+        }
+        int start = outlineStart(index);
+        if (!strokes.isVariableWidth(index)) {
+            outlineEnds[index] = start;
+            return;
+        }
+        float[] outline = StrokeOutline.tessellate(strokes.getPoints(), strokes.getPointOffset(index),
+                strokes.getFactors(), strokes.getFactorOffset(index), strokes.getPointCount(index),
+                strokes.getStyleWidth(strokes.getStyleId(index)), 0, 0, width, height);
+        if (start + outline.length > outlines.length) {
+            outlines = Arrays.copyOf(outlines, Math.max(start + outline.length, outlines.length * 2));
+        }
+        System.arraycopy(outline, 0, outlines, start, outline.length);
+        outlineEnds[index] = start + outline.length;
+    }
+
+    private Paint fillPaintFor(int styleId) {
+        while (fillPaints.size() <= styleId) {
+            fillPaints.add(null);
+        }
+        Paint paint = fillPaints.get(styleId);
+        if (paint == null) {
+            paint = new Paint();
+            paint.setAntiAlias(true);
+            paint.setStyle(Paint.Style.FILL);
+            paint.setColor(strokes.getStyleColor(styleId));
+            fillPaints.set(styleId, paint);
+        }
+        return paint;
+    }
+
+    private Paint paintFor(int styleId) {
+        while (stylePaints.size() <= styleId) {
+            stylePaints.add(null);
+        }
+        Paint paint = stylePaints.get(styleId);
+        if (paint == null) {
+            paint = new Paint();
+            paint.setAntiAlias(true);
+            paint.setStyle(Paint.Style.STROKE);
+            paint.setStrokeJoin(Paint.Join.ROUND);
+            paint.setStrokeCap(Paint.Cap.ROUND);
+            paint.setColor(strokes.getStyleColor(styleId));
+            paint.setStrokeWidth(strokes.getStyleWidth(styleId) * width);
+            if (strokes.getStyleTool(styleId) == InkStroke.Tool.ERASER) {
+                paint.setXfermode(new PorterDuffXfermode(PorterDuff.Mode.CLEAR));
+            }
+            stylePaints.set(styleId, paint);
+        }
+        return paint;
+    }
+
+    /**
+     * Memory used by this page's checkpoints
+     */
+    public long getCheckpointBytes() {
+        long bytes = 0;
+        for (Checkpoint checkpoint : checkpoints) {
+            bytes += checkpoint.getByteCount();
+        }
+        return bytes;
+    }
+
+    public int getCheckpointCount() {
+        return checkpoints.size();
+    }
+
+    /**
+     * Drop the oldest checkpoint; the next oldest becomes the undo floor. The newest one is
+     * always kept.
+     * @return Bytes freed
+     */
+    public long dropOldestCheckpoint() {
+        if (checkpoints.size() < 2) {
+            return 0;
+        }
+        Checkpoint oldest = checkpoints.remove(0);
+        long bytes = oldest.getByteCount();
+        oldest.recycle();
+        return bytes;
+    }
+
+    /**
+     * Snapshot the drawn tiles once enough actions have piled up since the last checkpoint.
+     * The InkRenderer keeps the checkpoints of all pages within one memory budget.
+     */
+    private void checkpointIfDue() {
+        Checkpoint last = checkpoints.get(checkpoints.size() - 1);
+        if (actionCount - last.actionCount < CHECKPOINT_INTERVAL) {
+            return;
+        }
+        checkpoints.add(new Checkpoint(actionCount, tiles.snapshot()));
+    }
+
+    private static float pointSegmentDistance(float px, float py, float ax, float ay, float bx, float by) {
+        float dx = bx - ax;
+        float dy = by - ay;
+        float lengthSquared = dx * dx + dy * dy;
+        float t = lengthSquared == 0 ? 0 : ((px - ax) * dx + (py - ay) * dy) / lengthSquared;
+        t = Math.max(0, Math.min(1, t));
+        return (float) Math.hypot(px - (ax + t * dx), py - (ay + t * dy));
+    }
+
+    private static float segmentsDistance(float ax, float ay, float bx, float by,
+                                          float cx, float cy, float dx, float dy) {
+        // Proper crossing: each segment's endpoints lie on opposite sides of the other
+        float d1 = (dx - cx) * (ay - cy) - (dy - cy) * (ax - cx);
+        float d2 = (dx - cx) * (by - cy) - (dy - cy) * (bx - cx);
+        float d3 = (bx - ax) * (cy - ay) - (by - ay) * (cx - ax);
+        float d4 = (bx - ax) * (dy - ay) - (by - ay) * (dx - ax);
+        if (d1 * d2 < 0 && d3 * d4 < 0) {
+            return 0;
+        }
+        return Math.min(Math.min(pointSegmentDistance(ax, ay, cx, cy, dx, dy),
+                        pointSegmentDistance(bx, by, cx, cy, dx, dy)),
+                Math.min(pointSegmentDistance(cx, cy, ax, ay, bx, by),
+                        pointSegmentDistance(dx, dy, ax, ay, bx, by)));
+    }
+
+    /**
+     * Snapshot of the drawn tiles after the first actionCount actions; null means blank
+     */
+    private static class Checkpoint {
+        final int actionCount;
+        final Bitmap[] tiles;
+
+        Checkpoint(int actionCount, Bitmap[] tiles) {
+            this.actionCount = actionCount;
+            this.tiles = tiles;
+        }
+
+        long getByteCount() {
+            return tiles != null ? TileCanvas.getByteCount(tiles) : 0;
+        }
+
+        void recycle() {
+            if (tiles != null) {
+                TileCanvas.recycle(tiles);
+            }
+        }
+    }
+}
@@ -0,0 +1,625 @@
+package com.docreader.views;
+
+import android.graphics.Bitmap;
+import android.graphics.Canvas;
+import android.graphics.Color;
+import android.graphics.Paint;
+import android.graphics.Path;
+import android.graphics.PorterDuff;
+import android.graphics.Rect;
+import android.graphics.RectF;
+import android.os.Process;
+import android.view.View;
+
+import com.docreader.models.InkStroke;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Dedicated thread that owns every page's InkLayer and does all ink rendering off the UI thread.
+ *
+ * The UI thread posts commands through a lock-free queue and never touches a layer itself. After
+ * draining the queue the render thread composites the active page into a back frame and publishes
+ * it; the UI thread takes the newest frame in onDraw and hands the one it showed before back, so
+ * the two frames swap without locks and the UI thread only blits. Each frame only repaints the
+ * area that changed since that frame was last drawn. While the active page has no ink, a frame
+ * without a bitmap is published instead and the full-size frames are released.
+ *
+ * Every command gets a sequence number, and each frame carries the last one applied, so the view
+ * can keep drawing a committed stroke itself until a frame containing it arrives.
+ *
+ * Changes to a page's live strokes are reported to a ChangeListener on the render thread, tagged
+ * with the sequence number of the command that made them.
+ */
+public class InkRenderer {
+
+    /**
+     * Changes to a page's live strokes, see InkLayer.ChangeListener. Called on the render thread.
+     */
+    public interface ChangeListener {
+        void onStrokesInserted(int pageIndex, long sequence, int[] positions, List<InkStroke> strokes);
+
+        void onStrokesRemoved(int pageIndex, long sequence, int[] positions);
+    }
+
+    // Memory the undo checkpoints of all pages may use together
+    private static final long CHECKPOINT_BUDGET_BYTES = 48L * 1024 * 1024;
+    // Checkpoints the active page keeps even when over budget
+    private static final int MIN_ACTIVE_CHECKPOINTS = 2;
+
+    private final View target;
+    private final ChangeListener changeListener;
+    private final ConcurrentLinkedQueue<Command> commands = new ConcurrentLinkedQueue<>();
+    // Newest finished frame, not yet taken by the UI thread
+    private final AtomicReference<Frame> published = new AtomicReference<>();
+    // Frame the UI thread has stopped showing, free for the render thread to draw into again
+    private final AtomicReference<Frame> returned = new AtomicReference<>();
+    private volatile boolean running;
+    private Thread thread;
+    // UI thread only
+    private long postedSequence;
+    private Frame displayed;
+
+    // Render thread only
+    private final Map<Integer, InkLayer> layers = new HashMap<>();
+    // Strokes loaded before the view had a size, added once it has one
+    private final Map<Integer, List<InkStroke>> pendingLoads = new HashMap<>();
+    private int width;
+    private int height;
+    private int activePage;
+    private InkLayer layer;
+    private long appliedSequence;
+    // Sequence number of the command running now
+    private long runningSequence;
+    private long renderedSequence = -1;
+    // Frames at the current size; both accumulate every dirty area until they are drawn into
+    private final List<Frame> frames = new ArrayList<>();
+    private Frame back;
+    private final RectF pathBounds = new RectF();
+
+    private static class Command {
+        final long sequence;
+        final Runnable action;
+
+        Command(long sequence, Runnable action) {
+            this.sequence = sequence;
+            this.action = action;
+        }
+    }
+
+    /**
+     * A view-sized bitmap of the active page's ink, as of a command sequence number
+     */
+    static class Frame {
+        // Null when the page has no ink
+        final Bitmap bitmap;
+        final Canvas canvas;
+        final Rect stale;
+        long sequence;
+
+        Frame(int width, int height) {
+            bitmap = Bitmap.createBitmap(width, height, Bitmap.Config.ARGB_8888);
+            canvas = new Canvas(bitmap);
+            stale = new Rect(0, 0, width, height);
+        }
+
+        /**
+         * A frame of a page without ink
+         */
+        Frame(long sequence) {
+            bitmap = null;
+            canvas = null;
+            stale = null;
+            this.sequence = sequence;
+        }
+
+        void recycle() {
+            if (bitmap != null) {
+                bitmap.recycle();
+            }
+        }
+    }
+
+    /**
+     * @param target View invalidated whenever a new frame is published
+     * @param changeListener Told about every change to the live strokes
+     */
+    public InkRenderer(View target, ChangeListener changeListener) {
+        this.target = target;
+        this.changeListener = changeListener;
+    }
+
+    /**
+     * Start the render thread; commands posted while it was stopped run first
+     */
+    public void start() {
+        if (thread != null) {
+            return;
+        }
+        running = true;
+        thread = new Thread(this::loop, "ink-render");
+        thread.setDaemon(true);
+        thread.start();
+    }
+
+    /**
+     * Stop the render thread after the command it is running; the rest stay queued
+     */
+    public void quit() {
+        if (thread == null) {
+            return;
+        }
+        running = false;
+        LockSupport.unpark(thread);
+        try {
+            thread.join();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        thread = null;
+    }
+
+    // UI thread: commands
+
+    public void setSize(int width, int height) {
+        post(() -> {
+            this.width = width;
+            this.height = height;
+            // Frames of the old size are released as they come back
+            frames.clear();
+            if (back != null) {
+                back.recycle();
+                back = null;
+            }
+            if (layer != null) {
+                layer.setSize(width, height);
+            }
+            if (width > 0 && height > 0) {
+                for (Map.Entry<Integer, List<InkStroke>> entry : pendingLoads.entrySet()) {
+                    loadNow(entry.getKey(), entry.getValue());
+                }
+                pendingLoads.clear();
+            }
+        });
+    }
+
+    /**
+     * Show another page. Its layer is only re-rendered if the size changed while it was inactive.
+     */
+    public void setPage(int pageIndex) {
+        post(() -> {
+            activePage = pageIndex;
+            layer = layers.get(pageIndex);
+            if (layer != null) {
+                layer.setSize(width, height);
+            }
+            markAllDirty();
+        });
+    }
+
+    /**
+     * Draw a path into a page's ink, optionally recording it as a stroke. The path and paint
+     * must not be changed afterwards.
+     * @param stroke The stroke the path completes, or null for a piece of a stroke still in progress
+     * @return Sequence number of the command
+     */
+    public long drawPath(int pageIndex, Path path, Paint paint, InkStroke stroke) {
+        return post(() -> {
+            if (width == 0 || height == 0) {
+                return;
+            }
+            InkLayer pageLayer = layerFor(pageIndex);
+            pageLayer.getTiles().drawPath(path, paint);
+            if (stroke != null) {
+                pageLayer.addStroke(stroke);
+            }
+            if (pageLayer == layer) {
+                path.computeBounds(pathBounds, true);
+                float pad = paint.getStrokeWidth() / 2 + 2;
+                markDirty(new Rect((int) Math.floor(pathBounds.left - pad), (int) Math.floor(pathBounds.top - pad),
+                        (int) Math.ceil(pathBounds.right + pad), (int) Math.ceil(pathBounds.bottom + pad)));
+            }
+        });
+    }
+
+    /**
+     * Add strokes to a page's starting ink, see InkLayer.loadStrokes()
+     */
+    public void loadStrokes(int pageIndex, List<InkStroke> strokes) {
+        List<InkStroke> copy = new ArrayList<>(strokes);
+        post(() -> {
+            if (width > 0 && height > 0) {
+                loadNow(pageIndex, copy);
+            } else if (pendingLoads.containsKey(pageIndex)) {
+                pendingLoads.get(pageIndex).addAll(copy);
+            } else {
+                pendingLoads.put(pageIndex, copy);
+            }
+        });
+    }
+
+    /**
+     * Erase the active page's strokes along a drag segment, see InkLayer.eraseAlong()
+     */
+    public void eraseAlong(float x1, float y1, float x2, float y2, float radius) {
+        post(() -> {
+            if (layer != null) {
+                markDirty(layer.eraseAlong(x1, y1, x2, y2, radius));
+            }
+        });
+    }
+
+    public void endErase() {
+        post(() -> {
+            if (layer != null) {
+                layer.endErase();
+            }
+        });
+    }
+
+    public void undo() {
+        post(() -> {
+            if (layer != null) {
+                markDirty(layer.undo());
+            }
+        });
+    }
+
+    public void redo() {
+        post(() -> {
+            if (layer != null) {
+                markDirty(layer.redo());
+            }
+        });
+    }
+
+    /**
+     * Clear a page's ink and history; the cleared strokes are reported as removed
+     */
+    public void clearPage(int pageIndex) {
+        post(() -> {
+            List<InkStroke> pending = pendingLoads.remove(pageIndex);
+            InkLayer removed = layers.remove(pageIndex);
+            int count = pending != null ? pending.size() : 0;
+            if (removed != null) {
+                count += removed.getStrokes().size();
+                removed.clear();
+            }
+            if (count > 0) {
+                int[] positions = new int[count];
+                for (int i = 0; i < count; i++) {
+                    positions[i] = i;
+                }
+                changeListener.onStrokesRemoved(pageIndex, runningSequence, positions);
+            }
+            if (pageIndex == activePage) {
+                layer = null;
+                markAllDirty();
+            }
+        });
+    }
+
+    /**
+     * Clear the ink and history of every page. Nothing is reported: whoever keeps a copy of the
+     * strokes starts over too, and ignores changes from commands before this one.
+     * @return Sequence number of the command
+     */
+    public long clearAll() {
+        return post(() -> {
+            for (InkLayer pageLayer : layers.values()) {
+                pageLayer.clear();
+            }
+            layers.clear();
+            pendingLoads.clear();
+            layer = null;
+            markAllDirty();
+        });
+    }
+
+    // UI thread: queries, answered by the render thread once the commands before them have run
+
+    public boolean canUndo() {
+        return call(() -> layer != null && layer.canUndo());
+    }
+
+    public boolean canRedo() {
+        return call(() -> layer != null && layer.canRedo());
+    }
+
+    /**
+     * Whether any page's ink was changed since it was loaded
+     */
+    public boolean hasEdits() {
+        return call(() -> {
+            for (InkLayer pageLayer : layers.values()) {
+                if (pageLayer.hasEdits()) {
+                    return true;
+                }
+            }
+            return false;
+        });
+    }
+
+    public List<InkStroke> getStrokes(int pageIndex) {
+        return call(() -> {
+            InkLayer pageLayer = layers.get(pageIndex);
+            return pageLayer != null ? pageLayer.getStrokes() : new ArrayList<>();
+        });
+    }
+
+    /**
+     * Pages that currently have ink, in ascending order
+     */
+    public List<Integer> getPagesWithStrokes() {
+        return call(() -> {
+            List<Integer> pages = new ArrayList<>();
+            for (Map.Entry<Integer, InkLayer> entry : layers.entrySet()) {
+                if (entry.getValue().hasStrokes()) {
+                    pages.add(entry.getKey());
+                }
+            }
+            Collections.sort(pages);
+            return pages;
+        });
+    }
+
+    // UI thread: frames
+
+    /**
+     * Swap in the newest published frame, if any, and return the frame to show
+     * @return null until the first frame is published
+     */
+    Frame acquireFrame() {
+        Frame next = published.getAndSet(null);
+        if (next != null) {
+            if (displayed != null) {
+                returned.set(displayed);
+                wake();
+            }
+            displayed = next;
+        }
+        return displayed;
+    }
+
+    private long post(Runnable action) {
+        long sequence = ++postedSequence;
+        commands.add(new Command(sequence, action));
+        wake();
+        return sequence;
+    }
+
+    private <T> T call(Callable<T> query) {
+        FutureTask<T> task = new FutureTask<>(query);
+        post(task);
+        if (thread == null) {
+            drain(false);
+        }
+        try {
+            return task.get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IllegalStateException(e);
+        } catch (ExecutionException e) {
+            throw new IllegalStateException(e.getCause());
+        }
+    }
+
+    private void wake() {
+        Thread current = thread;
+        if (current != null) {
+            LockSupport.unpark(current);
+        }
+    }
+
+    // Render thread
+
+    private void loop() {
+        Process.setThreadPriority(Process.THREAD_PRIORITY_DISPLAY);
+        while (running) {
+            drain(true);
+            if (renderedSequence != appliedSequence && publishFrame()) {
+                target.postInvalidateOnAnimation();
+            }
+            releaseReturnedFrame();
+            // A post() or returned frame after this check leaves a permit, so park returns at once
+            if (commands.isEmpty() && running) {
+                LockSupport.park(this);
+            }
+        }
+    }
+
+    private InkLayer layerFor(int pageIndex) {
+        InkLayer pageLayer = layers.get(pageIndex);
+        if (pageLayer == null) {
+            pageLayer = new InkLayer(width, height);
+            pageLayer.setChangeListener(new InkLayer.ChangeListener() {
+                @Override
+                public void onInserted(int[] positions, List<InkStroke> strokes) {
+                    changeListener.onStrokesInserted(pageIndex, runningSequence, positions, strokes);
+                }
+
+                @Override
+                public void onRemoved(int[] positions) {
+                    changeListener.onStrokesRemoved(pageIndex, runningSequence, positions);
+                }
+            });
+            layers.put(pageIndex, pageLayer);
+            if (pageIndex == activePage) {
+                layer = pageLayer;
+            }
+        }
+        return pageLayer;
+    }
+
+    /**
+     * Load strokes into a page's layer, bringing the layer to the current size first
+     */
+    private void loadNow(int pageIndex, List<InkStroke> strokes) {
+        InkLayer pageLayer = layerFor(pageIndex);
+        pageLayer.setSize(width, height);
+        Rect dirty = pageLayer.loadStrokes(strokes);
+        if (pageLayer == layer) {
+            markDirty(dirty);
+        }
+    }
+
+    /**
+     * Run the queued commands
+     * @param untilQuit Stop early once quit() is called
+     */
+    private void drain(boolean untilQuit) {
+        Command command;
+        long before = appliedSequence;
+        while ((running || !untilQuit) && (command = commands.poll()) != null) {
+            runningSequence = command.sequence;
+            command.action.run();
+            appliedSequence = command.sequence;
+        }
+        if (appliedSequence != before) {
+            trimCheckpoints();
+        }
+    }
+
+    /**
+     * Keep the checkpoints of all pages within one budget. Inactive pages give up their oldest
+     * checkpoints first, largest first, so undo on the page being edited stays cheap longest.
+     */
+    private void trimCheckpoints() {
+        long total = 0;
+        for (InkLayer pageLayer : layers.values()) {
+            total += pageLayer.getCheckpointBytes();
+        }
+        while (total > CHECKPOINT_BUDGET_BYTES) {
+            InkLayer victim = null;
+            long victimBytes = 0;
+            for (InkLayer pageLayer : layers.values()) {
+                if (pageLayer == layer || pageLayer.getCheckpointCount() < 2) {
+                    continue;
+                }
+                long bytes = pageLayer.getCheckpointBytes();
+                if (victim == null || bytes > victimBytes) {
+                    victim = pageLayer;
+                    victimBytes = bytes;
+                }
+            }
+            if (victim == null && layer != null && layer.getCheckpointCount() > MIN_ACTIVE_CHECKPOINTS) {
+                victim = layer;
+            }
+            if (victim == null) {
+                return;
+            }
+            total -= victim.dropOldestCheckpoint();
+        }
+    }
+
+    /**
+     * Bring a free frame up to date and publish it
+     * @return false if both frames are still in use by the UI thread
+     */
+    private boolean publishFrame() {
+        if (width == 0 || height == 0) {
+            return false;
+        }
+        if (layer == null || layer.getTiles().isEmpty()) {
+            publishEmptyFrame();
+            return true;
+        }
+        Frame frame = back != null ? back : takeReturnedFrame();
+        if (frame == null) {
+            return false;
+        }
+        back = null;
+
+        if (!frame.stale.isEmpty()) {
+            frame.canvas.save();
+            frame.canvas.clipRect(frame.stale);
+            frame.canvas.drawColor(Color.TRANSPARENT, PorterDuff.Mode.CLEAR);
+            if (layer != null) {
+                layer.getTiles().drawTo(frame.canvas, null);
+            }
+            frame.canvas.restore();
+            frame.stale.setEmpty();
+        }
+        frame.sequence = appliedSequence;
+        renderedSequence = appliedSequence;
+
+        // A frame the UI thread never took can be drawn into again straight away
+        back = published.getAndSet(frame);
+        if (back != null && !frames.contains(back)) {
+            back.recycle();
+            back = null;
+        }
+        return true;
+    }
+
+    /**
+     * Publish a frame without a bitmap and release the full-size frames the UI thread isn't showing;
+     * the one it shows is released once it comes back
+     */
+    private void publishEmptyFrame() {
+        if (back != null) {
+            back.recycle();
+            back = null;
+        }
+        frames.clear();
+        renderedSequence = appliedSequence;
+        Frame untaken = published.getAndSet(new Frame(appliedSequence));
+        if (untaken != null) {
+            untaken.recycle();
+        }
+    }
+
+    /**
+     * Recycle a frame the UI thread gave back that is no longer in use, e.g. one of an old size
+     */
+    private void releaseReturnedFrame() {
+        Frame frame = returned.get();
+        if (frame != null && !frames.contains(frame) && returned.compareAndSet(frame, null)) {
+            frame.recycle();
+        }
+    }
+
+    private Frame takeReturnedFrame() {
+        Frame frame = returned.getAndSet(null);
+        if (frame != null && frames.contains(frame)) {
+            return frame;
+        }
+        if (frame != null) {
+            frame.recycle();
+        }
+        if (frames.size() < 2) {
+            frame = new Frame(width, height);
+            frames.add(frame);
+            return frame;
+        }
+        return null;
+    }
+
+    /**
+     * Record an area every frame has to repaint; null means nothing changed
+     */
+    private void markDirty(Rect dirty) {
+        if (dirty == null) {
+            return;
+        }
+        for (Frame frame : frames) {
+            frame.stale.union(dirty);
+        }
+    }
+
+    private void markAllDirty() {
+        for (Frame frame : frames) {
+            frame.stale.set(0, 0, width, height);
+        }
+    }
+}
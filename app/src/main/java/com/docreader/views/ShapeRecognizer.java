@@ -0,0 +1,555 @@
+package com.docreader.views;
+
+import com.docreader.models.InkStroke;
+
+import java.util.Arrays;
+
+/**
+ * Recognizes a finished stroke as a line, rectangle, ellipse or arrow, in view pixels.
+ *
+ * Points are fed in as they are drawn, and every fit is a least-squares fit over sums kept up
+ * to date per point: prefix sums of the first and second moments give the straight-line fit of
+ * any leading part of the stroke, and sums of the conic monomials give the ellipse fit. At the
+ * end of the stroke the fits themselves cost a few small matrix operations; only the error checks
+ * walk the points again, so recognition stays well inside a frame.
+ *
+ * A stroke is only replaced when the fitted shape is close to every drawn point. Angles close to
+ * horizontal or vertical snap to it.
+ */
+public class ShapeRecognizer {
+
+    // Largest RMS distance from a fitted line, as a fraction of its length
+    private static final double LINE_TOLERANCE = 0.035;
+    // How much longer than its end-to-end distance a stroke may be and still be a line
+    private static final double LINE_DETOUR = 0.25;
+    // Largest gap between the ends of a closed shape, as a fraction of the stroke length
+    private static final double CLOSED_GAP = 0.15;
+    // Largest mean distance from a fitted rectangle or ellipse, as a fraction of its mean half size
+    private static final double CLOSED_TOLERANCE = 0.07;
+    // Arrow head size range, as a fraction of the shaft length
+    private static final double HEAD_MIN = 0.06;
+    private static final double HEAD_MAX = 0.5;
+    private static final double MIN_BARB_ANGLE = Math.toRadians(15);
+    private static final double MAX_BARB_ANGLE = Math.toRadians(60);
+    private static final double SNAP_ANGLE = Math.toRadians(8);
+    // Conic sums use coordinates divided by this, which keeps the normal equations well conditioned
+    private static final double CONIC_SCALE = 100;
+
+    private final float minSize;
+    // Prefix sums per point, relative to the first point: x, y, xx, xy, yy
+    private double[] prefix = new double[5 * 128];
+    private int count;
+    private float originX;
+    private float originY;
+    private double pathLength;
+    // Sums of the outer products of (x^2, xy, y^2, x, y, 1) in conic-scaled coordinates
+    private final double[] conicSums = new double[36];
+    private final float[] shapePoints = new float[8];
+
+    /**
+     * @param minSize Smallest recognized shape, in pixels
+     */
+    public ShapeRecognizer(float minSize) {
+        this.minSize = minSize;
+    }
+
+    public void start(float x, float y) {
+        count = 0;
+        originX = x;
+        originY = y;
+        pathLength = 0;
+        Arrays.fill(conicSums, 0);
+        add(x, y);
+    }
+
+    public void add(float x, float y) {
+        if ((count + 1) * 5 > prefix.length) {
+            prefix = Arrays.copyOf(prefix, prefix.length * 2);
+        }
+        double dx = x - originX;
+        double dy = y - originY;
+        int base = count * 5;
+        if (count == 0) {
+            prefix[0] = dx;
+            prefix[1] = dy;
+            prefix[2] = dx * dx;
+            prefix[3] = dx * dy;
+            prefix[4] = dy * dy;
+        } else {
+            pathLength += Math.hypot(dx - xAt(count - 1), dy - yAt(count - 1));
+            prefix[base] = prefix[base - 5] + dx;
+            prefix[base + 1] = prefix[base - 4] + dy;
+            prefix[base + 2] = prefix[base - 3] + dx * dx;
+            prefix[base + 3] = prefix[base - 2] + dx * dy;
+            prefix[base + 4] = prefix[base - 1] + dy * dy;
+        }
+        accumulateConic(dx, dy, 1);
+        count++;
+    }
+
+    /**
+     * Move the newest point, e.g. when the stroke's end replaces a too-close last sample
+     */
+    public void replaceLast(float x, float y) {
+        if (count < 2) {
+            start(x, y);
+            return;
+        }
+        count--;
+        double oldX = xAt(count);
+        double oldY = yAt(count);
+        pathLength -= Math.hypot(oldX - xAt(count - 1), oldY - yAt(count - 1));
+        accumulateConic(oldX, oldY, -1);
+        add(x, y);
+    }
+
+    public int getCount() {
+        return count;
+    }
+
+    /**
+     * Defining points of the last recognized shape in view pixels, as InkStroke.Shape describes
+     * them; two points for a line, four otherwise
+     */
+    public float[] getShapePoints() {
+        return shapePoints;
+    }
+
+    /**
+     * Fit the stroke fed in so far
+     * @return The recognized shape, or FREEHAND if no shape fits closely enough
+     */
+    public InkStroke.Shape recognize() {
+        if (count < 3) {
+            return InkStroke.Shape.FREEHAND;
+        }
+        // An arrow's head would also pass as a slight detour from a line
+        if (fitArrow()) {
+            return InkStroke.Shape.ARROW;
+        }
+        double endDistance = Math.hypot(xAt(count - 1), yAt(count - 1));
+        if (endDistance >= minSize && endDistance >= (1 - LINE_DETOUR) * pathLength
+                && fitLine(0, count, 0, count - 1)) {
+            return InkStroke.Shape.LINE;
+        }
+        if (endDistance <= CLOSED_GAP * pathLength) {
+            return fitClosed();
+        }
+        return InkStroke.Shape.FREEHAND;
+    }
+
+    /**
+     * Total least-squares line through points [from, to), ending at the projections of two points
+     */
+    private boolean fitLine(int from, int to, int first, int last) {
+        int n = to - from;
+        double sx = prefixSum(to, 0) - prefixSum(from, 0);
+        double sy = prefixSum(to, 1) - prefixSum(from, 1);
+        double meanX = sx / n;
+        double meanY = sy / n;
+        double cxx = (prefixSum(to, 2) - prefixSum(from, 2)) / n - meanX * meanX;
+        double cxy = (prefixSum(to, 3) - prefixSum(from, 3)) / n - meanX * meanY;
+        double cyy = (prefixSum(to, 4) - prefixSum(from, 4)) / n - meanY * meanY;
+
+        // The direction is the covariance's major eigenvector; the minor eigenvalue is the
+        // mean squared distance from the line
+        double angle = 0.5 * Math.atan2(2 * cxy, cxx - cyy);
+        double spread = Math.sqrt((cxx - cyy) * (cxx - cyy) / 4 + cxy * cxy);
+        double minor = Math.max(0, (cxx + cyy) / 2 - spread);
+        double dirX = Math.cos(angle);
+        double dirY = Math.sin(angle);
+        double start = (xAt(first) - meanX) * dirX + (yAt(first) - meanY) * dirY;
+        double end = (xAt(last) - meanX) * dirX + (yAt(last) - meanY) * dirY;
+        double length = Math.abs(end - start);
+        if (length < minSize || Math.sqrt(minor) > LINE_TOLERANCE * length) {
+            return false;
+        }
+
+        // Snap by turning the line about its midpoint
+        double middle = (start + end) / 2;
+        double midX = meanX + dirX * middle;
+        double midY = meanY + dirY * middle;
+        double snapped = snap(angle);
+        dirX = Math.cos(snapped);
+        dirY = Math.sin(snapped);
+        setPoint(0, midX + dirX * (start - middle), midY + dirY * (start - middle));
+        setPoint(1, midX + dirX * (end - middle), midY + dirY * (end - middle));
+        return true;
+    }
+
+    /**
+     * A straight shaft to the point farthest from the start, then a head drawn without lifting:
+     * one or two barbs running back from the tip
+     */
+    private boolean fitArrow() {
+        int tip = 0;
+        double farthest = 0;
+        for (int i = 1; i < count; i++) {
+            double distance = Math.hypot(xAt(i), yAt(i));
+            if (distance > farthest) {
+                farthest = distance;
+                tip = i;
+            }
+        }
+        if (tip > count - 3 || tip < 2 || !fitLine(0, tip + 1, 0, tip)) {
+            return false;
+        }
+        double tailX = shapePoints[0] - originX;
+        double tailY = shapePoints[1] - originY;
+        double tipX = shapePoints[2] - originX;
+        double tipY = shapePoints[3] - originY;
+        double shaft = Math.hypot(tipX - tailX, tipY - tailY);
+        double dirX = (tipX - tailX) / shaft;
+        double dirY = (tipY - tailY) / shaft;
+
+        // Head points in the shaft's frame: along (negative is behind the tip) and across
+        double headSize = 0;
+        double leftAlong = 0;
+        double leftAcross = 0;
+        double rightAlong = 0;
+        double rightAcross = 0;
+        for (int i = tip + 1; i < count; i++) {
+            double px = xAt(i) - tipX;
+            double py = yAt(i) - tipY;
+            double along = px * dirX + py * dirY;
+            double across = -px * dirY + py * dirX;
+            headSize = Math.max(headSize, Math.hypot(along, across));
+            if (along < 0 && across > leftAcross) {
+                leftAlong = along;
+                leftAcross = across;
+            } else if (along < 0 && across < rightAcross) {
+                rightAlong = along;
+                rightAcross = across;
+            }
+        }
+        if (headSize < Math.max(HEAD_MIN * shaft, minSize / 2) || headSize > HEAD_MAX * shaft) {
+            return false;
+        }
+        boolean hasLeft = leftAcross > 0.2 * headSize;
+        boolean hasRight = -rightAcross > 0.2 * headSize;
+        if (!hasLeft && !hasRight) {
+            return false;
+        }
+
+        // A clean head: both barbs the average length, at the average angle
+        double barbLength = 0;
+        double barbAngle = 0;
+        int barbs = 0;
+        if (hasLeft) {
+            barbLength += Math.hypot(leftAlong, leftAcross);
+            barbAngle += Math.atan2(leftAcross, -leftAlong);
+            barbs++;
+        }
+        if (hasRight) {
+            barbLength += Math.hypot(rightAlong, rightAcross);
+            barbAngle += Math.atan2(-rightAcross, -rightAlong);
+            barbs++;
+        }
+        barbLength = Math.max(HEAD_MIN * shaft, Math.min(HEAD_MAX * shaft, barbLength / barbs));
+        barbAngle = Math.max(MIN_BARB_ANGLE, Math.min(MAX_BARB_ANGLE, barbAngle / barbs));
+
+        double back = barbLength * Math.cos(barbAngle);
+        double side = barbLength * Math.sin(barbAngle);
+        setPoint(2, tipX - dirX * back - dirY * side, tipY - dirY * back + dirX * side);
+        setPoint(3, tipX - dirX * back + dirY * side, tipY - dirY * back - dirX * side);
+        return true;
+    }
+
+    /**
+     * Fit both an ellipse and a rectangle to a closed stroke and keep the closer one
+     */
+    private InkStroke.Shape fitClosed() {
+        float[] ellipse = new float[8];
+        double ellipseError = fitEllipse(ellipse);
+
+        // Principal axes of the points are parallel to a rectangle's sides
+        double n = count;
+        double meanX = prefixSum(count, 0) / n;
+        double meanY = prefixSum(count, 1) / n;
+        double cxx = prefixSum(count, 2) / n - meanX * meanX;
+        double cxy = prefixSum(count, 3) / n - meanX * meanY;
+        double cyy = prefixSum(count, 4) / n - meanY * meanY;
+        double axisAngle = snap(0.5 * Math.atan2(2 * cxy, cxx - cyy));
+
+        float[] rectangle = new float[8];
+        double rectangleError = fitRectangle(axisAngle, rectangle);
+        if (axisAngle != 0) {
+            // A square's axes are arbitrary; an axis-aligned one may still fit better
+            float[] aligned = new float[8];
+            double alignedError = fitRectangle(0, aligned);
+            if (alignedError < rectangleError) {
+                rectangleError = alignedError;
+                rectangle = aligned;
+            }
+        }
+
+        if (Math.min(ellipseError, rectangleError) > CLOSED_TOLERANCE) {
+            return InkStroke.Shape.FREEHAND;
+        }
+        boolean isEllipse = ellipseError <= rectangleError;
+        float[] corners = isEllipse ? ellipse : rectangle;
+        for (int i = 0; i < 8; i += 2) {
+            shapePoints[i] = corners[i] + originX;
+            shapePoints[i + 1] = corners[i + 1] + originY;
+        }
+        return isEllipse ? InkStroke.Shape.ELLIPSE : InkStroke.Shape.RECTANGLE;
+    }
+
+    /**
+     * Least-squares conic A x^2 + B xy + C y^2 + D x + E y + F = 0 under A + C = 1, which does not
+     * depend on how the stroke is positioned or rotated
+     * @param corners Receives the corners of the ellipse's box, relative to the first point
+     * @return Mean distance of the points from the ellipse, over its mean semi-axis; infinite if
+     * the conic is not an ellipse
+     */
+    private double fitEllipse(float[] corners) {
+        // Unknowns w = (alpha, B, D, E, F) with A = 1/2 + alpha and C = 1/2 - alpha:
+        // minimize the sum of (phi . w + g)^2 with phi = (x^2 - y^2, xy, x, y, 1), g = (x^2 + y^2) / 2.
+        // phi and g are linear in psi = (x^2, xy, y^2, x, y, 1), whose outer products are summed.
+        double[][] phiOfPsi = {
+                {1, 0, -1, 0, 0, 0},
+                {0, 1, 0, 0, 0, 0},
+                {0, 0, 0, 1, 0, 0},
+                {0, 0, 0, 0, 1, 0},
+                {0, 0, 0, 0, 0, 1}};
+        double[] gOfPsi = {0.5, 0, 0.5, 0, 0, 0};
+
+        double[][] system = new double[5][6];
+        for (int r = 0; r < 5; r++) {
+            for (int i = 0; i < 6; i++) {
+                if (phiOfPsi[r][i] == 0) {
+                    continue;
+                }
+                for (int j = 0; j < 6; j++) {
+                    double sum = phiOfPsi[r][i] * conicSums[i * 6 + j];
+                    for (int c = 0; c < 5; c++) {
+                        system[r][c] += sum * phiOfPsi[c][j];
+                    }
+                    system[r][5] -= sum * gOfPsi[j];
+                }
+            }
+        }
+        double[] w = solve(system);
+        if (w == null) {
+            return Double.POSITIVE_INFINITY;
+        }
+        double a = 0.5 + w[0];
+        double b = w[1];
+        double c = 0.5 - w[0];
+        double d = w[2];
+        double e = w[3];
+        double f = w[4];
+
+        double det = 4 * a * c - b * b;
+        if (det <= 0) {
+            return Double.POSITIVE_INFINITY;
+        }
+        double centreX = (b * e - 2 * c * d) / det;
+        double centreY = (b * d - 2 * a * e) / det;
+        double centreValue = f + (d * centreX + e * centreY) / 2;
+        double angle = 0.5 * Math.atan2(b, a - c);
+        double cos = Math.cos(angle);
+        double sin = Math.sin(angle);
+        double majorCoefficient = a * cos * cos + b * cos * sin + c * sin * sin;
+        double minorCoefficient = a * sin * sin - b * cos * sin + c * cos * cos;
+        if (-centreValue / majorCoefficient <= 0 || -centreValue / minorCoefficient <= 0) {
+            return Double.POSITIVE_INFINITY;
+        }
+        double semiU = Math.sqrt(-centreValue / majorCoefficient) * CONIC_SCALE;
+        double semiV = Math.sqrt(-centreValue / minorCoefficient) * CONIC_SCALE;
+        centreX *= CONIC_SCALE;
+        centreY *= CONIC_SCALE;
+        if (2 * Math.min(semiU, semiV) < minSize) {
+            return Double.POSITIVE_INFINITY;
+        }
+
+        double error = 0;
+        for (int i = 0; i < count; i++) {
+            double px = xAt(i) - centreX;
+            double py = yAt(i) - centreY;
+            double u = px * cos + py * sin;
+            double v = -px * sin + py * cos;
+            double radius = Math.sqrt(u * u / (semiU * semiU) + v * v / (semiV * semiV));
+            // Along the ray from the centre, the distance from the ellipse
+            if (radius > 0) {
+                error += Math.hypot(u, v) * Math.abs(1 - 1 / radius);
+            }
+        }
+        error /= count * (semiU + semiV) / 2;
+
+        double snapped = snap(angle);
+        if (snapped != angle) {
+            // Snap to exact axes, swapping the semi-axes if the major one snapped to vertical
+            if (Math.abs(Math.sin(snapped)) > 0.5) {
+                double swap = semiU;
+                semiU = semiV;
+                semiV = swap;
+            }
+            cos = 1;
+            sin = 0;
+        }
+        setBox(corners, centreX, centreY, cos, sin, -semiU, semiU, -semiV, semiV);
+        return error;
+    }
+
+    /**
+     * Rectangle with sides along an angle. Each side starts at the points' extent, then moves to
+     * the mean position of the points nearest to it.
+     * @param corners Receives the corners, relative to the first point
+     * @return Mean distance of the points from the rectangle, over its mean half size
+     */
+    private double fitRectangle(double angle, float[] corners) {
+        double cos = Math.cos(angle);
+        double sin = Math.sin(angle);
+        double left = Double.MAX_VALUE;
+        double right = -Double.MAX_VALUE;
+        double top = Double.MAX_VALUE;
+        double bottom = -Double.MAX_VALUE;
+        for (int i = 0; i < count; i++) {
+            double u = xAt(i) * cos + yAt(i) * sin;
+            double v = -xAt(i) * sin + yAt(i) * cos;
+            left = Math.min(left, u);
+            right = Math.max(right, u);
+            top = Math.min(top, v);
+            bottom = Math.max(bottom, v);
+        }
+
+        double[] sums = new double[4];
+        int[] counts = new int[4];
+        for (int i = 0; i < count; i++) {
+            double u = xAt(i) * cos + yAt(i) * sin;
+            double v = -xAt(i) * sin + yAt(i) * cos;
+            double[] distances = {u - left, right - u, v - top, bottom - v};
+            int side = 0;
+            for (int s = 1; s < 4; s++) {
+                if (distances[s] < distances[side]) {
+                    side = s;
+                }
+            }
+            sums[side] += side < 2 ? u : v;
+            counts[side]++;
+        }
+        for (int s = 0; s < 4; s++) {
+            if (counts[s] == 0) {
+                return Double.POSITIVE_INFINITY;
+            }
+        }
+        left = sums[0] / counts[0];
+        right = sums[1] / counts[1];
+        top = sums[2] / counts[2];
+        bottom = sums[3] / counts[3];
+        if (right - left < minSize || bottom - top < minSize) {
+            return Double.POSITIVE_INFINITY;
+        }
+
+        double error = 0;
+        for (int i = 0; i < count; i++) {
+            double u = xAt(i) * cos + yAt(i) * sin;
+            double v = -xAt(i) * sin + yAt(i) * cos;
+            double outsideU = Math.max(Math.max(left - u, u - right), 0);
+            double outsideV = Math.max(Math.max(top - v, v - bottom), 0);
+            if (outsideU > 0 || outsideV > 0) {
+                error += Math.hypot(outsideU, outsideV);
+            } else {
+                error += Math.min(Math.min(u - left, right - u), Math.min(v - top, bottom - v));
+            }
+        }
+        error /= count * (right - left + bottom - top) / 4;
+
+        setBox(corners, 0, 0, cos, sin, left, right, top, bottom);
+        return error;
+    }
+
+    /**
+     * Corners of a box given in a frame rotated by (cos, sin) about a centre
+     */
+    private static void setBox(float[] corners, double centreX, double centreY, double cos, double sin,
+                               double left, double right, double top, double bottom) {
+        double[] us = {left, right, right, left};
+        double[] vs = {top, top, bottom, bottom};
+        for (int i = 0; i < 4; i++) {
+            corners[i * 2] = (float) (centreX + us[i] * cos - vs[i] * sin);
+            corners[i * 2 + 1] = (float) (centreY + us[i] * sin + vs[i] * cos);
+        }
+    }
+
+    /**
+     * Gaussian elimination with partial pivoting on an augmented matrix
+     * @return The solution, or null if the system is singular
+     */
+    private static double[] solve(double[][] m) {
+        int n = m.length;
+        for (int col = 0; col < n; col++) {
+            int pivot = col;
+            for (int row = col + 1; row < n; row++) {
+                if (Math.abs(m[row][col]) > Math.abs(m[pivot][col])) {
+                    pivot = row;
+                }
+            }
+            if (Math.abs(m[pivot][col]) < 1e-12) {
+                return null;
+            }
+            double[] swap = m[col];
+            m[col] = m[pivot];
+            m[pivot] = swap;
+            for (int row = col + 1; row < n; row++) {
+                double factor = m[row][col] / m[col][col];
+                for (int k = col; k <= n; k++) {
+                    m[row][k] -= factor * m[col][k];
+                }
+            }
+        }
+        double[] x = new double[n];
+        for (int row = n - 1; row >= 0; row--) {
+            double sum = m[row][n];
+            for (int k = row + 1; k < n; k++) {
+                sum -= m[row][k] * x[k];
+            }
+            x[row] = sum / m[row][row];
+        }
+        return x;
+    }
+
+    private void accumulateConic(double dx, double dy, int sign) {
+        double x = dx / CONIC_SCALE;
+        double y = dy / CONIC_SCALE;
+        double[] psi = {x * x, x * y, y * y, x, y, 1};
+        for (int i = 0; i < 6; i++) {
+            for (int j = 0; j < 6; j++) {
+                conicSums[i * 6 + j] += sign * psi[i] * psi[j];
+            }
+        }
+    }
+
+    /**
+     * An angle within SNAP_ANGLE of horizontal or vertical becomes exactly that
+     */
+    private static double snap(double angle) {
+        double quarter = Math.PI / 2;
+        double nearest = Math.round(angle / quarter) * quarter;
+        return Math.abs(angle - nearest) <= SNAP_ANGLE ? nearest : angle;
+    }
+
+    /**
+     * Sum of one prefix quantity over the points before index end
+     */
+    private double prefixSum(int end, int quantity) {
+        return end == 0 ? 0 : prefix[(end - 1) * 5 + quantity];
+    }
+
+    /**
+     * Point coordinates relative to the first point
+     */
+    private double xAt(int index) {
+        return index == 0 ? prefix[0] : prefix[index * 5] - prefix[index * 5 - 5];
+    }
+
+    private double yAt(int index) {
+        return index == 0 ? prefix[1] : prefix[index * 5 + 1] - prefix[index * 5 - 4];
+    }
+
+    private void setPoint(int index, double x, double y) {
+        shapePoints[index * 2] = (float) (x + originX);
+        shapePoints[index * 2 + 1] = (float) (y + originY);
+    }
+}
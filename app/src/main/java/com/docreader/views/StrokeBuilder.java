@@ -0,0 +1,230 @@
+package com.docreader.views;
+
+import android.graphics.Path;
+
+import com.docreader.models.InkStroke;
+
+import java.util.Arrays;
+
+/**
+ * Collects the touch samples of one stroke into a primitive float array.
+ * Samples closer than a minimum distance to the last kept point are dropped, so slow strokes
+ * don't pile up redundant points; the kept points are drawn as quadratic curves through the
+ * midpoints between them, which looks smooth even when fast strokes leave gaps between samples.
+ * Each kept point also carries a width factor for variable-width strokes.
+ */
+public class StrokeBuilder {
+
+    private final float minDistance;
+    private float[] points = new float[256];
+    private float[] factors = new float[128];
+    private int count;
+
+    /**
+     * @param minDistance Smallest distance in pixels between two kept points
+     */
+    public StrokeBuilder(float minDistance) {
+        this.minDistance = minDistance;
+    }
+
+    public void start(float x, float y) {
+        start(x, y, 1f);
+    }
+
+    public void start(float x, float y, float factor) {
+        count = 0;
+        append(x, y, factor);
+    }
+
+    /**
+     * Offer a sample
+     * @return true if it was kept
+     */
+    public boolean add(float x, float y) {
+        return add(x, y, 1f);
+    }
+
+    public boolean add(float x, float y, float factor) {
+        float dx = x - points[count * 2 - 2];
+        float dy = y - points[count * 2 - 1];
+        if (dx * dx + dy * dy < minDistance * minDistance) {
+            return false;
+        }
+        append(x, y, factor);
+        return true;
+    }
+
+    /**
+     * Make the final sample the stroke's end point, replacing a too-close last point
+     */
+    public void finish(float x, float y) {
+        finish(x, y, 1f);
+    }
+
+    public void finish(float x, float y, float factor) {
+        if (!add(x, y, factor) && count > 1) {
+            points[count * 2 - 2] = x;
+            points[count * 2 - 1] = y;
+            factors[count - 1] = factor;
+        }
+    }
+
+    private void append(float x, float y, float factor) {
+        if (count * 2 == points.length) {
+            points = Arrays.copyOf(points, points.length * 2);
+            factors = Arrays.copyOf(factors, factors.length * 2);
+        }
+        points[count * 2] = x;
+        points[count * 2 + 1] = y;
+        factors[count] = factor;
+        count++;
+    }
+
+    public int getCount() {
+        return count;
+    }
+
+    /**
+     * Interleaved x/y pairs; only the first getCount() pairs are valid
+     */
+    public float[] getPoints() {
+        return points;
+    }
+
+    /**
+     * Width factor per point; only the first getCount() are valid
+     */
+    public float[] getFactors() {
+        return factors;
+    }
+
+    public float getX(int index) {
+        return points[index * 2];
+    }
+
+    public float getY(int index) {
+        return points[index * 2 + 1];
+    }
+
+    /**
+     * Append the segment that the newest point completes: a quadratic curve from the previous
+     * midpoint, through the previous point as control, to the new midpoint
+     */
+    public void appendLatestSegment(Path path) {
+        if (count < 2) {
+            return;
+        }
+        int i = count - 1;
+        float midX = (getX(i - 1) + getX(i)) / 2;
+        float midY = (getY(i - 1) + getY(i)) / 2;
+        if (i == 1) {
+            path.lineTo(midX, midY);
+        } else {
+            path.quadTo(getX(i - 1), getY(i - 1), midX, midY);
+        }
+    }
+
+    /**
+     * Start of the newest segment, i.e. where a path cut after it should resume
+     */
+    public float getLatestMidX() {
+        return count < 2 ? getX(0) : (getX(count - 2) + getX(count - 1)) / 2;
+    }
+
+    public float getLatestMidY() {
+        return count < 2 ? getY(0) : (getY(count - 2) + getY(count - 1)) / 2;
+    }
+
+    /**
+     * Replace a path's contents with a closed polygon
+     * @param outline Interleaved x/y vertices
+     * @param from Float index of the first vertex's x
+     * @param to Float index just past the last vertex
+     */
+    public static void setPolygon(Path path, float[] outline, int from, int to) {
+        path.rewind();
+        path.moveTo(outline[from], outline[from + 1]);
+        for (int i = from + 2; i < to; i += 2) {
+            path.lineTo(outline[i], outline[i + 1]);
+        }
+        path.close();
+    }
+
+    /**
+     * Build the exact path of a recognized shape from its defining points, scaling the coordinates
+     * @param offset Float index of the first x coordinate
+     */
+    public static Path buildShapePath(InkStroke.Shape shape, float[] points, int offset,
+                                      float scaleX, float scaleY) {
+        float[] p = new float[8];
+        int count = shape == InkStroke.Shape.LINE ? 2 : 4;
+        for (int i = 0; i < count; i++) {
+            p[i * 2] = points[offset + i * 2] * scaleX;
+            p[i * 2 + 1] = points[offset + i * 2 + 1] * scaleY;
+        }
+
+        Path path = new Path();
+        switch (shape) {
+            case LINE:
+                path.moveTo(p[0], p[1]);
+                path.lineTo(p[2], p[3]);
+                break;
+            case RECTANGLE:
+                setPolygon(path, p, 0, 8);
+                break;
+            case ELLIPSE: {
+                // Scaling the curve points is exact, since the scale is affine
+                float[] c = InkStroke.ellipseCurves(points, offset);
+                path.moveTo(c[0] * scaleX, c[1] * scaleY);
+                for (int i = 2; i < c.length; i += 6) {
+                    path.cubicTo(c[i] * scaleX, c[i + 1] * scaleY, c[i + 2] * scaleX, c[i + 3] * scaleY,
+                            c[i + 4] * scaleX, c[i + 5] * scaleY);
+                }
+                path.close();
+                break;
+            }
+            case ARROW:
+                path.moveTo(p[0], p[1]);
+                path.lineTo(p[2], p[3]);
+                path.moveTo(p[4], p[5]);
+                path.lineTo(p[2], p[3]);
+                path.lineTo(p[6], p[7]);
+                break;
+            default:
+                throw new IllegalArgumentException("Not a shape: " + shape);
+        }
+        return path;
+    }
+
+    /**
+     * Build the smoothed path for a whole point list, scaling the coordinates
+     * @param offset Float index of the first x coordinate
+     */
+    public static Path buildPath(float[] points, int offset, int count, float scaleX, float scaleY) {
+        Path path = new Path();
+        float x0 = points[offset] * scaleX;
+        float y0 = points[offset + 1] * scaleY;
+        path.moveTo(x0, y0);
+        if (count == 1) {
+            // Zero-length segment so round caps draw a dot
+            path.lineTo(x0, y0);
+            return path;
+        }
+
+        float px = x0;
+        float py = y0;
+        for (int i = 1; i < count; i++) {
+            float x = points[offset + i * 2] * scaleX;
+            float y = points[offset + i * 2 + 1] * scaleY;
+            if (i == 1) {
+                path.lineTo((px + x) / 2, (py + y) / 2);
+            } else {
+                path.quadTo(px, py, (px + x) / 2, (py + y) / 2);
+            }
+            px = x;
+            py = y;
+        }
+        path.lineTo(px, py);
+        return path;
+    }
+}
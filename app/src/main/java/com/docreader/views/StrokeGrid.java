@@ -0,0 +1,132 @@
+package com.docreader.views;
+
+import android.graphics.RectF;
+
+import com.docreader.models.StrokeStore;
+
+import java.util.Arrays;
+
+/**
+ * Uniform-grid spatial index over the strokes of a StrokeStore, keyed by stroke index.
+ * Coordinates are page-normalized like the store's. Strokes are only ever appended or truncated
+ * from the end, so every cell's list stays sorted by index, which is also drawing order.
+ */
+public class StrokeGrid {
+
+    private static final int GRID = 32;
+
+    private final int[][] cells = new int[GRID * GRID][];
+    private final int[] cellSizes = new int[GRID * GRID];
+    // left, top, right, bottom per stroke, including half the stroke width
+    private float[] bounds = new float[256];
+    private int[] stamps = new int[64];
+    private int size;
+    private int queryStamp;
+
+    /**
+     * Index the next stroke of the store
+     * @param aspect View width over height, to pad the bounds vertically by the stroke width
+     */
+    public void add(StrokeStore store, int index, float aspect) {
+        if (index != size) {
+            throw new IllegalArgumentException("Strokes must be indexed in order");
+        }
+        if (size * 4 == bounds.length) {
+            bounds = Arrays.copyOf(bounds, bounds.length * 2);
+            stamps = Arrays.copyOf(stamps, stamps.length * 2);
+        }
+
+        float[] points = store.getPoints();
+        int offset = store.getPointOffset(index);
+        int end = offset + store.getPointCount(index) * 2;
+        float left = Float.MAX_VALUE;
+        float top = Float.MAX_VALUE;
+        float right = -Float.MAX_VALUE;
+        float bottom = -Float.MAX_VALUE;
+        for (int i = offset; i < end; i += 2) {
+            left = Math.min(left, points[i]);
+            right = Math.max(right, points[i]);
+            top = Math.min(top, points[i + 1]);
+            bottom = Math.max(bottom, points[i + 1]);
+        }
+        float halfWidth = store.getStyleWidth(store.getStyleId(index)) / 2;
+        float halfHeight = halfWidth * aspect;
+        bounds[size * 4] = left - halfWidth;
+        bounds[size * 4 + 1] = top - halfHeight;
+        bounds[size * 4 + 2] = right + halfWidth;
+        bounds[size * 4 + 3] = bottom + halfHeight;
+
+        for (int row = cell(bounds[size * 4 + 1]); row <= cell(bounds[size * 4 + 3]); row++) {
+            for (int col = cell(bounds[size * 4]); col <= cell(bounds[size * 4 + 2]); col++) {
+                int c = row * GRID + col;
+                if (cells[c] == null) {
+                    cells[c] = new int[8];
+                } else if (cellSizes[c] == cells[c].length) {
+                    cells[c] = Arrays.copyOf(cells[c], cellSizes[c] * 2);
+                }
+                cells[c][cellSizes[c]++] = index;
+            }
+        }
+        size++;
+    }
+
+    /**
+     * Forget every stroke from index newSize on
+     */
+    public void truncate(int newSize) {
+        if (newSize >= size) {
+            return;
+        }
+        for (int c = 0; c < cells.length; c++) {
+            while (cellSizes[c] > 0 && cells[c][cellSizes[c] - 1] >= newSize) {
+                cellSizes[c]--;
+            }
+        }
+        size = newSize;
+    }
+
+    public void clear() {
+        Arrays.fill(cellSizes, 0);
+        size = 0;
+    }
+
+    public void getBounds(int index, RectF out) {
+        out.set(bounds[index * 4], bounds[index * 4 + 1], bounds[index * 4 + 2], bounds[index * 4 + 3]);
+    }
+
+    /**
+     * Indices of the strokes whose bounds intersect a rectangle, in drawing order
+     */
+    public int[] query(float left, float top, float right, float bottom) {
+        int stamp = ++queryStamp;
+        int[] result = new int[16];
+        int count = 0;
+
+        for (int row = cell(top); row <= cell(bottom); row++) {
+            for (int col = cell(left); col <= cell(right); col++) {
+                int c = row * GRID + col;
+                for (int k = 0; k < cellSizes[c]; k++) {
+                    int index = cells[c][k];
+                    if (stamps[index] == stamp
+                            || bounds[index * 4] > right || bounds[index * 4 + 2] < left
+                            || bounds[index * 4 + 1] > bottom || bounds[index * 4 + 3] < top) {
+                        continue;
+                    }
+                    stamps[index] = stamp;
+                    if (count == result.length) {
+                        result = Arrays.copyOf(result, count * 2);
+                    }
+                    result[count++] = index;
+                }
+            }
+        }
+
+        result = Arrays.copyOf(result, count);
+        Arrays.sort(result);
+        return result;
+    }
+
+    private static int cell(float coordinate) {
+        return Math.max(0, Math.min(GRID - 1, (int) (coordinate * GRID)));
+    }
+}
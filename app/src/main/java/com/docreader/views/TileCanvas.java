@@ -0,0 +1,218 @@
+package com.docreader.views;
+
+import android.graphics.Bitmap;
+import android.graphics.Canvas;
+import android.graphics.Color;
+import android.graphics.Paint;
+import android.graphics.Path;
+import android.graphics.PorterDuff;
+import android.graphics.PorterDuffXfermode;
+import android.graphics.Rect;
+import android.graphics.RectF;
+
+/**
+ * Sparse drawing surface made of fixed-size ARGB tiles that are only allocated where ink lands.
+ * A page with a single signature holds a few tiles instead of a full-screen bitmap.
+ * Drawing, clearing and compositing each touch only the tiles a path or area overlaps.
+ */
+public class TileCanvas {
+
+    public static final int TILE_SIZE = 256;
+
+    private final int width;
+    private final int height;
+    private final int columns;
+    private final int rows;
+    private final Bitmap[] tiles;
+    private final Canvas[] canvases;
+    private final RectF bounds = new RectF();
+    private int tileCount;
+
+    public TileCanvas(int width, int height) {
+        this.width = width;
+        this.height = height;
+        this.columns = (width + TILE_SIZE - 1) / TILE_SIZE;
+        this.rows = (height + TILE_SIZE - 1) / TILE_SIZE;
+        this.tiles = new Bitmap[columns * rows];
+        this.canvases = new Canvas[columns * rows];
+    }
+
+    public int getWidth() {
+        return width;
+    }
+
+    public int getHeight() {
+        return height;
+    }
+
+    public boolean isEmpty() {
+        return tileCount == 0;
+    }
+
+    /**
+     * Bytes held by the allocated tiles
+     */
+    public long getByteCount() {
+        return (long) tileCount * TILE_SIZE * TILE_SIZE * 4;
+    }
+
+    public void drawPath(Path path, Paint paint) {
+        drawPath(path, paint, null);
+    }
+
+    /**
+     * Stroke a path into every tile its bounds overlap, optionally clipped to an area.
+     * Erasing paths skip unallocated tiles, since there is nothing there to erase.
+     */
+    public void drawPath(Path path, Paint paint, Rect clip) {
+        path.computeBounds(bounds, true);
+        float pad = paint.getStrokeWidth() / 2 + 1;
+        bounds.inset(-pad, -pad);
+        if (clip != null && !bounds.intersect(clip.left, clip.top, clip.right, clip.bottom)) {
+            return;
+        }
+        if (bounds.right < 0 || bounds.bottom < 0 || bounds.left > width || bounds.top > height) {
+            return;
+        }
+        boolean erasing = paint.getXfermode() instanceof PorterDuffXfermode;
+
+        for (int row = row(bounds.top); row <= row(bounds.bottom); row++) {
+            for (int col = column(bounds.left); col <= column(bounds.right); col++) {
+                int index = row * columns + col;
+                if (tiles[index] == null && erasing) {
+                    continue;
+                }
+                Canvas canvas = canvasFor(index);
+                canvas.save();
+                canvas.translate(-col * TILE_SIZE, -row * TILE_SIZE);
+                if (clip != null) {
+                    canvas.clipRect(clip);
+                }
+                canvas.drawPath(path, paint);
+                canvas.restore();
+            }
+        }
+    }
+
+    /**
+     * Clear an area. Tiles it covers completely are released; the rest are cleared in place.
+     */
+    public void clear(Rect area) {
+        int left = column(area.left);
+        int right = column(area.right);
+        int top = row(area.top);
+        int bottom = row(area.bottom);
+        for (int row = top; row <= bottom; row++) {
+            for (int col = left; col <= right; col++) {
+                int index = row * columns + col;
+                if (tiles[index] == null) {
+                    continue;
+                }
+                int tileLeft = col * TILE_SIZE;
+                int tileTop = row * TILE_SIZE;
+                if (area.left <= tileLeft && area.top <= tileTop
+                        && area.right >= tileLeft + TILE_SIZE && area.bottom >= tileTop + TILE_SIZE) {
+                    release(index);
+                    continue;
+                }
+                Canvas canvas = canvases[index];
+                canvas.save();
+                canvas.clipRect(area.left - tileLeft, area.top - tileTop,
+                        area.right - tileLeft, area.bottom - tileTop);
+                canvas.drawColor(Color.TRANSPARENT, PorterDuff.Mode.CLEAR);
+                canvas.restore();
+            }
+        }
+    }
+
+    public void clear() {
+        for (int i = 0; i < tiles.length; i++) {
+            if (tiles[i] != null) {
+                release(i);
+            }
+        }
+    }
+
+    /**
+     * Composite the allocated tiles onto a canvas at the origin
+     */
+    public void drawTo(Canvas canvas, Paint paint) {
+        for (int i = 0; i < tiles.length; i++) {
+            if (tiles[i] != null) {
+                canvas.drawBitmap(tiles[i], (i % columns) * TILE_SIZE, (i / columns) * TILE_SIZE, paint);
+            }
+        }
+    }
+
+    /**
+     * Copies of the allocated tiles; null where a tile is blank
+     */
+    public Bitmap[] snapshot() {
+        Bitmap[] copy = new Bitmap[tiles.length];
+        for (int i = 0; i < tiles.length; i++) {
+            if (tiles[i] != null) {
+                copy[i] = tiles[i].copy(Bitmap.Config.ARGB_8888, false);
+            }
+        }
+        return copy;
+    }
+
+    /**
+     * Replace the contents with a snapshot taken from a canvas of the same size
+     */
+    public void restore(Bitmap[] snapshot) {
+        for (int i = 0; i < tiles.length; i++) {
+            if (snapshot[i] == null) {
+                if (tiles[i] != null) {
+                    release(i);
+                }
+                continue;
+            }
+            Canvas canvas = canvasFor(i);
+            canvas.drawColor(Color.TRANSPARENT, PorterDuff.Mode.CLEAR);
+            canvas.drawBitmap(snapshot[i], 0, 0, null);
+        }
+    }
+
+    public static long getByteCount(Bitmap[] snapshot) {
+        long bytes = 0;
+        for (Bitmap tile : snapshot) {
+            if (tile != null) {
+                bytes += tile.getByteCount();
+            }
+        }
+        return bytes;
+    }
+
+    public static void recycle(Bitmap[] snapshot) {
+        for (Bitmap tile : snapshot) {
+            if (tile != null) {
+                tile.recycle();
+            }
+        }
+    }
+
+    private Canvas canvasFor(int index) {
+        if (tiles[index] == null) {
+            tiles[index] = Bitmap.createBitmap(TILE_SIZE, TILE_SIZE, Bitmap.Config.ARGB_8888);
+            canvases[index] = new Canvas(tiles[index]);
+            tileCount++;
+        }
+        return canvases[index];
+    }
+
+    private void release(int index) {
+        tiles[index].recycle();
+        tiles[index] = null;
+        canvases[index] = null;
+        tileCount--;
+    }
+
+    private int column(float x) {
+        return Math.max(0, Math.min(columns - 1, (int) Math.floor(x / TILE_SIZE)));
+    }
+
+    private int row(float y) {
+        return Math.max(0, Math.min(rows - 1, (int) Math.floor(y / TILE_SIZE)));
+    }
+}